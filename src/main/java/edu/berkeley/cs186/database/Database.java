@@ -15,7 +15,10 @@ import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.InMemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.io.StorageBackend;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferRing;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.EvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
@@ -24,6 +27,7 @@ import edu.berkeley.cs186.database.query.SortOperator;
 import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.recovery.ARIESRecoveryManager;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -75,10 +79,24 @@ import java.util.function.UnaryOperator;
  *   X lock on `database/_metadata.indices/someTable`.
  */
 public class Database implements AutoCloseable {
+    // Names of the buffer pools that the log partition, partitions of indices and
+    // partitions of temporary tables are loaded in, if given their own pool (see addBufferPool)
+    public static final String LOG_POOL = "log";
+    public static final String INDEX_POOL = "index";
+    public static final String TEMP_POOL = "temp";
+
     private static final String METADATA_TABLE_PREFIX = "_metadata.";
     private static final String TABLE_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "tables";
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
+    // maximum number of frames used by a scan of a large table or by a temporary table
+    private static final int BUFFER_RING_SIZE = 128; // 512K
+    // file in the database directory that the page numbers of the pages loaded in the
+    // buffer cache are saved to, to load them again when the database is reopened (the
+    // name contains a dot, so that it is not taken for a partition)
+    private static final String LOADED_PAGES_FILE_NAME = "buffer.pages";
+    // how often the pages loaded in the buffer cache are saved, in case of a crash
+    private static final long SAVE_LOADED_PAGES_INTERVAL_MILLIS = 60000;
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4006;
 
@@ -100,8 +118,8 @@ public class Database implements AutoCloseable {
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
-    // number of pages of memory available total
-    private int numMemoryPages;
+    // number of pages of memory available total (changed by resizeBuffer)
+    private volatile int numMemoryPages;
     // active transactions
     private Phaser activeTransactions = new Phaser(0);
     // Statistics about the contents of the database.
@@ -163,7 +181,8 @@ public class Database implements AutoCloseable {
     }
 
     /**
-     * Creates a new database.
+     * Creates a new database with partitions accessed through positional reads and writes
+     * (StorageBackend.FILE_CHANNEL).
      *
      * @param fileDir the directory to put the table files in
      * @param numMemoryPages the number of pages of memory in the buffer cache
@@ -173,7 +192,25 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
-        boolean initialized = setupDirectory(fileDir);
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, StorageBackend.FILE_CHANNEL);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache (ClockEvictionPolicy, LRUEvictionPolicy, or one of
+     *               the scan resistant TwoQueueEvictionPolicy, LRUKEvictionPolicy, ARCEvictionPolicy)
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param storageBackend how partitions are stored and accessed (fileDir is not used, and may
+     *                       be null, if this is StorageBackend.IN_MEMORY)
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, StorageBackend storageBackend) {
+        // a purely in-memory database always starts out empty
+        boolean initialized = storageBackend != StorageBackend.IN_MEMORY && setupDirectory(fileDir);
 
         numTransactions = 0;
         this.numMemoryPages = numMemoryPages;
@@ -185,7 +222,16 @@ public class Database implements AutoCloseable {
             recoveryManager = new DummyRecoveryManager();
         }
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
+        if (storageBackend == StorageBackend.IN_MEMORY) {
+            diskSpaceManager = new InMemoryDiskSpaceManager(recoveryManager);
+        } else if (storageBackend == StorageBackend.IN_MEMORY_SNAPSHOT) {
+            diskSpaceManager = new InMemoryDiskSpaceManager(fileDir, recoveryManager);
+        } else {
+            // With ARIES, the log guarantees that data page writes can be redone, so data pages
+            // are only forced to disk at checkpoints instead of on every write.
+            diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager, !useRecoveryManager,
+                    storageBackend == StorageBackend.MEMORY_MAPPED);
+        }
         bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
                                               policy);
 
@@ -211,6 +257,14 @@ public class Database implements AutoCloseable {
             this.loadMetadataTables();
         }
         initTransaction.commit();
+
+        if (storageBackend == StorageBackend.FILE_CHANNEL || storageBackend == StorageBackend.MEMORY_MAPPED) {
+            // load the pages that were loaded before the database was closed (or crashed)
+            // in the background, and keep the list up to date for the next time
+            Path loadedPagesPath = new File(fileDir, LOADED_PAGES_FILE_NAME).toPath();
+            bufferManager.warmUp(loadedPagesPath);
+            bufferManager.startSavingLoadedPages(loadedPagesPath, SAVE_LOADED_PAGES_INTERVAL_MILLIS);
+        }
     }
 
     private boolean setupDirectory(String fileDir) {
@@ -290,6 +344,9 @@ public class Database implements AutoCloseable {
 
         dropDemoTables();
 
+        // save the pages in use before evicting everything
+        this.bufferManager.stopWarmUp();
+        this.bufferManager.stopSavingLoadedPages();
         this.bufferManager.evictAll();
 
         this.recoveryManager.close();
@@ -313,6 +370,65 @@ public class Database implements AutoCloseable {
         return bufferManager;
     }
 
+    /**
+     * Grows or shrinks the buffer cache while the database is in use (see
+     * BufferManager#resize), e.g. to rebalance memory between databases in the same JVM.
+     * Work memory is capped at the new size. The buffer's memory is allocated in slabs of
+     * many pages, and shrinking only releases a slab once no remaining page of the buffer is
+     * in it (see BufferManager#getNumAllocatedFrames).
+     *
+     * @param numMemoryPages the number of pages of memory the buffer cache should have
+     * @return the number of pages of memory the buffer cache has after resizing, which is
+     * larger than requested if pages at the end of the buffer are in use
+     */
+    public int resizeBuffer(int numMemoryPages) {
+        this.numMemoryPages = bufferManager.resize(numMemoryPages);
+        return this.numMemoryPages;
+    }
+
+    /**
+     * Gives a class of partitions a pool of its own in the buffer cache (see
+     * BufferManager#addPool), with its own size and eviction policy, so that e.g. index pages
+     * and the log tail are not evicted to make room for the temporary tables of a large
+     * join. The class is that of the pool's name: LOG_POOL for the log partition, INDEX_POOL
+     * for the partitions of indices, and TEMP_POOL for the partitions of temporary tables.
+     * Other partitions, and partitions of classes without a pool of their own, are loaded
+     * in the rest of the buffer cache. Should be called right after opening the database.
+     *
+     * @param name name of the pool
+     * @param numPages the number of pages of memory in the pool
+     * @param policy eviction policy for the pool
+     */
+    public void addBufferPool(String name, int numPages, EvictionPolicy policy) {
+        List<Integer> partNums = new ArrayList<>();
+        switch (name) {
+            case LOG_POOL:
+                partNums.add(LogManager.LOG_PARTITION);
+                break;
+            case INDEX_POOL:
+                for (Pair<RecordId, BPlusTreeMetadata> pair : scanIndexMetadata()) {
+                    partNums.add(pair.getSecond().getPartNum());
+                }
+                break;
+            case TEMP_POOL:
+                // temporary tables only exist while their transaction is running
+                break;
+            default:
+                throw new IllegalArgumentException("no class of partitions for buffer pool " + name);
+        }
+        bufferManager.addPool(name, numPages, policy);
+        for (int partNum : partNums) {
+            bufferManager.setPartitionPool(partNum, name);
+        }
+    }
+
+    // loads the pages of a new partition in the buffer pool of its class, if it has one
+    private void assignBufferPool(int partNum, String poolName) {
+        if (bufferManager.getPool(poolName) != null) {
+            bufferManager.setPartitionPool(partNum, poolName);
+        }
+    }
+
     public int getWorkMem() {
         // cap work memory at number of memory pages -- this is likely to cause out of memory
         // errors if actually set this high
@@ -323,6 +439,11 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    // number of frames used by a buffer ring, capped at an eighth of the buffer
+    private int getBufferRingSize() {
+        return Math.max(1, Math.min(BUFFER_RING_SIZE, this.numMemoryPages / 8));
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -632,9 +753,13 @@ public class Database implements AutoCloseable {
             String tableName = prefixTempTableName(tempTableName);
 
             int partNum = diskSpaceManager.allocPart();
+            assignBufferPool(partNum, TEMP_POOL);
             long pageNum = diskSpaceManager.allocPage(partNum);
             // We can use dummy contexts since this table will only be visible from the current transaction
             PageDirectory pageDirectory = new PageDirectory(bufferManager, partNum, pageNum, (short) 0, new DummyLockContext("_dummyPageDir"));
+            // temporary tables are written and read back once or twice, and should not flush
+            // the pages of the tables being queried
+            pageDirectory.setBufferRing(new BufferRing(getBufferRingSize()));
             tempTables.put(tempTableName, new Table(tableName, schema, pageDirectory, new DummyLockContext("_dummyTempTable" + tempTableName), stats));
             return tempTableName;
         }
@@ -731,7 +856,12 @@ public class Database implements AutoCloseable {
 
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
-            return getTable(tableName).iterator();
+            Table table = getTable(tableName);
+            if (table.getNumDataPages() > numMemoryPages / 4) {
+                // a scan of a large table would flush most of the buffer, for pages it reads once
+                return table.iterator(new BufferRing(getBufferRingSize()));
+            }
+            return table.iterator();
         }
 
         @Override
@@ -1034,7 +1164,7 @@ public class Database implements AutoCloseable {
         }
 
         @Override
-        public void createTable(Schema s, String tableName) {
+        public void createTable(Schema s, String tableName, boolean compressed) {
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1048,7 +1178,7 @@ public class Database implements AutoCloseable {
                 throw new DatabaseException("table `" + tableName + "` already exists");
             }
             TableMetadata metadata = new TableMetadata(tableName);
-            metadata.partNum = diskSpaceManager.allocPart();
+            metadata.partNum = compressed ? diskSpaceManager.allocCompressedPart() : diskSpaceManager.allocPart();
             metadata.pageNum = diskSpaceManager.allocPage(metadata.partNum);
             metadata.schema = s;
             synchronized (tableMetadata) {
@@ -1121,8 +1251,10 @@ public class Database implements AutoCloseable {
             }
 
             int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
+            int partNum = diskSpaceManager.allocPart();
+            assignBufferPool(partNum, INDEX_POOL);
             Record indexEntry = new Record(tableName, columnName, order,
-                    diskSpaceManager.allocPart(),
+                    partNum,
                     diskSpaceManager.INVALID_PAGE_NUM,
                     colType.getTypeId().ordinal(),
                     colType.getSizeInBytes(), -1
@@ -122,7 +122,21 @@ public abstract class Transaction implements AutoCloseable {
      * @param s schema of new table
      * @param tableName name of new table
      */
-    public abstract void createTable(Schema s, String tableName);
+    public void createTable(Schema s, String tableName) {
+        createTable(s, tableName, false);
+    }
+
+    /**
+     * Creates a table, optionally storing its pages compressed on disk (see
+     * DiskSpaceManager#allocCompressedPart), which trades CPU time on every read and write
+     * of a page from disk for disk space. Compressed tables are otherwise used exactly like
+     * any other table.
+     *
+     * @param s schema of new table
+     * @param tableName name of new table
+     * @param compressed whether to store the table's pages compressed
+     */
+    public abstract void createTable(Schema s, String tableName, boolean compressed);
 
     /**
      * Drops a table. Equivalent to
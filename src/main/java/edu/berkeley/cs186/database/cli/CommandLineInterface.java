@@ -10,6 +10,8 @@ import edu.berkeley.cs186.database.cli.parser.RookieParser;
 import edu.berkeley.cs186.database.cli.parser.TokenMgrError;
 import edu.berkeley.cs186.database.cli.visitor.StatementListVisitor;
 import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.io.IOStats;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -165,6 +167,60 @@ public class CommandLineInterface {
         new PrettyPrinter(out).printSchema(s);
     }
 
+    private void printIOStats(Database db) {
+        List<String> columnNames = Arrays.asList("partition", "reads", "writes", "syncs",
+                "bytes_read", "bytes_written", "read_p99_us", "write_p99_us", "sync_p99_us", "compression");
+        List<Record> records = new ArrayList<>();
+        for (Map.Entry<Integer, IOStats.Snapshot> entry : db.getDiskSpaceManager().getIOStats().entrySet()) {
+            IOStats.Snapshot stats = entry.getValue();
+            String compression;
+            try {
+                compression = String.format("%.2f", db.getDiskSpaceManager().getCompressionRatio(entry.getKey()));
+            } catch (NoSuchElementException e) {
+                // freed partition, whose I/O statistics are kept
+                compression = "-";
+            }
+            records.add(new Record(entry.getKey(), stats.reads, stats.writes, stats.syncs,
+                    stats.bytesRead, stats.bytesWritten,
+                    stats.readLatency.getPercentileNanos(99) / 1000,
+                    stats.writeLatency.getPercentileNanos(99) / 1000,
+                    stats.syncLatency.getPercentileNanos(99) / 1000, compression));
+        }
+        new PrettyPrinter(out).printRecords(columnNames, records.iterator());
+        BufferManager.Stats bufferStats = db.getBufferManager().getStats();
+        this.out.printf("Buffer manager: %d hits, %d misses (%.1f%% hit ratio), %d prefetched, "
+                        + "%d evictions, %d dirty writebacks\n",
+                bufferStats.hits, bufferStats.misses, bufferStats.getHitRatio() * 100,
+                bufferStats.prefetches, bufferStats.evictions, bufferStats.writebacks);
+    }
+
+    private void printBufferStats(Database db) {
+        List<String> columnNames = Arrays.asList("pool", "partition", "loaded", "dirty", "hits", "misses",
+                "hit_ratio", "evictions", "dirty_evictions", "avg_pin_us", "latch_waits", "avg_latch_wait_us");
+        List<Record> records = new ArrayList<>();
+        List<BufferManager.PoolStats> pools = db.getBufferManager().getPoolStats();
+        for (BufferManager.PoolStats pool : pools) {
+            records.add(bufferStatsRecord(pool.name, "all", pool.stats));
+            for (Map.Entry<Integer, BufferManager.Stats> entry : pool.partitions.entrySet()) {
+                records.add(bufferStatsRecord(pool.name, entry.getKey().toString(), entry.getValue()));
+            }
+        }
+        new PrettyPrinter(out).printRecords(columnNames, records.iterator());
+        for (BufferManager.PoolStats pool : pools) {
+            this.out.printf("Pool \"%s\": %d frames", pool.name, pool.numFrames);
+            if (!pool.policyStats.isEmpty()) {
+                this.out.printf(", eviction policy %s", pool.policyStats);
+            }
+            this.out.println();
+        }
+    }
+
+    private static Record bufferStatsRecord(String pool, String partition, BufferManager.Stats stats) {
+        return new Record(pool, partition, stats.loadedPages, stats.dirtyPages, stats.hits, stats.misses,
+                stats.getHitRatio(), stats.evictions, stats.dirtyEvictions,
+                stats.getAveragePinNanos() / 1000, stats.latchWaits, stats.getAverageLatchWaitNanos() / 1000);
+    }
+
     private void parseMetaCommand(String input, Database db) {
         input = input.substring(1); // Shave off the initial slash
         String[] tokens = input.split("\\s+");
@@ -195,6 +251,31 @@ public class CommandLineInterface {
             } else {
                 this.out.println(db.getLockManager().getLocks(tc));
             }
+        } else if (cmd.equals("io")) {
+            printIOStats(db);
+        } else if (cmd.equals("buffers")) {
+            printBufferStats(db);
+        } else if (cmd.equals("resize")) {
+            if (tokens.length != 2) {
+                throw new IllegalArgumentException("usage: \\resize <number of buffer pages>");
+            }
+            int numPages;
+            try {
+                numPages = Integer.parseInt(tokens[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("`%s` is not a number of pages", tokens[1]));
+            }
+            int oldNumPages = db.getBufferManager().getNumFrames();
+            int newNumPages = db.resizeBuffer(numPages);
+            this.out.printf("Buffer resized from %d to %d pages\n", oldNumPages, newNumPages);
+            if (newNumPages != numPages) {
+                this.out.println("Pages at the end of the buffer are in use, so it could not be shrunk further.");
+            }
+            int numAllocatedPages = db.getBufferManager().getNumAllocatedFrames();
+            if (numAllocatedPages > newNumPages) {
+                this.out.printf("Memory is released a slab at a time: %d pages are still allocated\n",
+                                numAllocatedPages);
+            }
         } else {
             throw new IllegalArgumentException(String.format(
                 "`%s` is not a valid metacommand",
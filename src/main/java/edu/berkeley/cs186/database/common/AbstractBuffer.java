@@ -8,13 +8,21 @@ import java.nio.ByteBuffer;
  */
 public abstract class AbstractBuffer implements Buffer {
     private int pos;
+    // scratch space for reading and writing single values, allocated on first use, since
+    // buffers are created for every page access and many only read or write byte arrays
     private byte[] bytes;
     private ByteBuffer buf;
 
     protected AbstractBuffer(int pos) {
         this.pos = pos;
-        this.bytes = new byte[8];
-        this.buf = ByteBuffer.wrap(this.bytes);
+    }
+
+    private ByteBuffer scratch() {
+        if (this.buf == null) {
+            this.bytes = new byte[8];
+            this.buf = ByteBuffer.wrap(this.bytes);
+        }
+        return this.buf;
     }
 
     @Override
@@ -22,6 +30,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final byte get(int index) {
+        scratch();
         get(bytes, index, 1);
         return bytes[0];
     }
@@ -46,6 +55,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final char getChar(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 1);
         return buf.getChar(0);
     }
@@ -58,6 +68,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final double getDouble(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 8);
         return buf.getDouble(0);
     }
@@ -70,6 +81,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final float getFloat(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 4);
         return buf.getFloat(0);
     }
@@ -82,6 +94,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final int getInt(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 4);
         return buf.getInt(0);
     }
@@ -94,6 +107,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final long getLong(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 8);
         return buf.getLong(0);
     }
@@ -106,6 +120,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final short getShort(int index) {
+        ByteBuffer buf = scratch();
         get(bytes, index, 2);
         return buf.getShort(0);
     }
@@ -127,6 +142,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final Buffer put(int index, byte b) {
+        scratch();
         bytes[0] = b;
         return put(bytes, index, 1);
     }
@@ -139,7 +155,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final Buffer putChar(int index, char value) {
-        buf.putChar(0, value);
+        scratch().putChar(0, value);
         return put(bytes, index, 1);
     }
 
@@ -151,7 +167,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final Buffer putDouble(int index, double value) {
-        buf.putDouble(0, value);
+        scratch().putDouble(0, value);
         return put(bytes, index, 8);
     }
 
@@ -163,7 +179,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final Buffer putFloat(int index, float value) {
-        buf.putFloat(0, value);
+        scratch().putFloat(0, value);
         return put(bytes, index, 4);
     }
 
@@ -175,7 +191,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final Buffer putInt(int index, int value) {
-        buf.putInt(0, value);
+        scratch().putInt(0, value);
         return put(bytes, index, 4);
     }
 
@@ -187,7 +203,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final Buffer putLong(int index, long value) {
-        buf.putLong(0, value);
+        scratch().putLong(0, value);
         return put(bytes, index, 8);
     }
 
@@ -199,7 +215,7 @@ public abstract class AbstractBuffer implements Buffer {
 
     @Override
     public final Buffer putShort(int index, short value) {
-        buf.putShort(0, value);
+        scratch().putShort(0, value);
         return put(bytes, index, 2);
     }
 
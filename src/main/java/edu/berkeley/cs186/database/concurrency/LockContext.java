@@ -252,9 +252,13 @@ public class LockContext {
      * `readable`
      */
     public synchronized LockContext childContext(String name) {
+        LockContext child = this.children.get(name);
+        if (child != null) {
+            return child;
+        }
         LockContext temp = new LockContext(lockman, this, name,
                 this.childLocksDisabled || this.readonly);
-        LockContext child = this.children.putIfAbsent(name, temp);
+        child = this.children.putIfAbsent(name, temp);
         if (child == null) child = temp;
         return child;
     }
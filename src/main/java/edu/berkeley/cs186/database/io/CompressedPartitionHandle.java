@@ -0,0 +1,335 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+
+/**
+ * Partition handle that stores data pages compressed (see PageCompressor).
+ *
+ * The master and header pages are kept in the partition's OS file exactly as in an
+ * uncompressed partition, but data pages are stored in a second OS file (the partition's
+ * file name followed by DATA_FILE_SUFFIX), as a log of variable-size records:
+ *
+ *     [page number (4 bytes)][length (4 bytes)][checksum (4 bytes)][length bytes of page data]
+ *
+ * where the page data is compressed, unless compressing the page did not save any space,
+ * in which case the page is stored as is (and length is PAGE_SIZE), and the checksum is the
+ * CRC-32 of the page number, length and page data. Writing a page appends a new record; the
+ * latest record of each allocated page is its current contents. The map from page number to
+ * record (the page map) is kept in memory, and is rebuilt by scanning the records when the
+ * partition is opened, up to the first record that is not valid (e.g. one torn by a crash,
+ * or a zero-filled tail of the file), where the file is truncated. Records of overwritten or freed pages are
+ * dropped by compacting the file once they take up more space than the live records: as
+ * soon as a write or free gets them there (if they take up at least MIN_COMPACT_BYTES), so
+ * that the file stays bounded while the partition is open, and when the partition is closed.
+ */
+class CompressedPartitionHandle extends PartitionHandle {
+    static final String DATA_FILE_SUFFIX = ".z";
+    private static final int RECORD_HEADER_SIZE = 12;
+    // Size of stale records below which the data file is not compacted, so that small
+    // partitions are not rewritten every few writes.
+    static final long MIN_COMPACT_BYTES = 64 * PAGE_SIZE;
+
+    // Name of the OS file storing data pages.
+    private String dataFileName;
+
+    // OS file/file channel storing data pages.
+    private RandomAccessFile dataFile;
+    private FileChannel dataChannel;
+
+    // Offset of the end of the data file, where the next record is appended.
+    private long dataFileEnd;
+
+    // Page map: offset and length of the latest record of each data page (offset -1 if
+    // the page has no record), indexed by data page number.
+    private long[] recordOffsets;
+    private int[] recordLengths;
+
+    // Number of data pages with records, the total size of their records, and the total size of
+    // records that have been superseded.
+    private int livePages;
+    private long liveBytes;
+    private long staleBytes;
+
+    private PageCompressor compressor;
+    // Buffer for compressed output; one byte smaller than a page, so that pages which
+    // do not compress are stored as is.
+    private byte[] compressBuffer;
+    private byte[] readBuffer;
+    // Uncompressed contents of the page being read or written, since pages are compressed
+    // from and decompressed into byte arrays
+    private byte[] pageBuffer;
+
+    CompressedPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        super(partNum, recoveryManager, syncOnWrite);
+        this.recordOffsets = new long[0];
+        this.recordLengths = new int[0];
+        this.compressor = new PageCompressor();
+        this.compressBuffer = new byte[PAGE_SIZE - 1];
+        this.readBuffer = new byte[PAGE_SIZE];
+        this.pageBuffer = new byte[PAGE_SIZE];
+    }
+
+    /**
+     * @param fileName name of the OS file of a partition
+     * @return name of the OS file storing the partition's data pages if it is compressed
+     */
+    static String dataFileName(String fileName) {
+        return fileName + DATA_FILE_SUFFIX;
+    }
+
+    @Override
+    void open(String fileName) {
+        super.open(fileName);
+        this.dataFileName = CompressedPartitionHandle.dataFileName(fileName);
+        try {
+            // left behind if we crashed while compacting
+            Files.deleteIfExists(Paths.get(this.dataFileName + ".tmp"));
+            this.dataFile = new RandomAccessFile(this.dataFileName, "rw");
+            this.dataChannel = this.dataFile.getChannel();
+            this.loadPageMap();
+        } catch (IOException e) {
+            throw new PageException("Could not open or read file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the page map from the records in the data file, stopping at the first record
+     * that is not valid.
+     */
+    private void loadPageMap() throws IOException {
+        long length = this.dataChannel.size();
+        long offset = 0;
+        byte[] record = new byte[RECORD_HEADER_SIZE + PAGE_SIZE];
+        while (offset + RECORD_HEADER_SIZE <= length) {
+            ByteBuffer header = ByteBuffer.wrap(record, 0, RECORD_HEADER_SIZE);
+            this.readFully(header, offset);
+            int pageNum = header.getInt(0);
+            int recordLength = header.getInt(4);
+            // compressed data is never empty, so a record of length 0 is a zero-filled tail
+            if (pageNum < 0 || recordLength <= 0 || recordLength > PAGE_SIZE
+                    || offset + RECORD_HEADER_SIZE + recordLength > length) {
+                // partially written record at the end of the file
+                break;
+            }
+            this.readFully(ByteBuffer.wrap(record, RECORD_HEADER_SIZE, recordLength), offset + RECORD_HEADER_SIZE);
+            if (header.getInt(8) != checksum(record, recordLength)) {
+                // torn record
+                break;
+            }
+            this.setRecord(pageNum, offset, recordLength);
+            offset += RECORD_HEADER_SIZE + recordLength;
+        }
+        if (offset < length) {
+            this.dataChannel.truncate(offset);
+        }
+        this.dataFileEnd = offset;
+
+        // records of pages that were freed are garbage
+        for (int pageNum = 0; pageNum < this.recordOffsets.length; ++pageNum) {
+            if (this.recordOffsets[pageNum] >= 0 && this.isNotAllocatedPage(pageNum)) {
+                this.removeRecord(pageNum);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.partitionLock.lock();
+        try {
+            if (this.staleBytes > this.liveBytes) {
+                this.compact();
+            }
+            this.dataFile.close();
+            this.dataChannel.close();
+        } finally {
+            this.partitionLock.unlock();
+        }
+        super.close();
+    }
+
+    /**
+     * Compacts the data file if stale records take up more space than live ones (and at
+     * least MIN_COMPACT_BYTES). Assumes that the partition lock is held.
+     */
+    private void maybeCompact() throws IOException {
+        if (this.staleBytes > this.liveBytes && this.staleBytes >= MIN_COMPACT_BYTES) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Rewrites the data file with only the latest record of each allocated page, in page order.
+     */
+    private void compact() throws IOException {
+        Path dataPath = Paths.get(this.dataFileName);
+        Path tmpPath = Paths.get(this.dataFileName + ".tmp");
+        long newOffset = 0;
+        long[] newOffsets = new long[this.recordOffsets.length];
+        try (FileChannel out = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int pageNum = 0; pageNum < this.recordOffsets.length; ++pageNum) {
+                newOffsets[pageNum] = -1;
+                if (this.recordOffsets[pageNum] < 0) {
+                    continue;
+                }
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + this.recordLengths[pageNum]);
+                this.readFully(record, this.recordOffsets[pageNum]);
+                record.flip();
+                while (record.hasRemaining()) {
+                    newOffset += out.write(record, newOffset);
+                }
+                newOffsets[pageNum] = newOffset - record.capacity();
+            }
+            out.force(false);
+        }
+        this.dataFile.close();
+        this.dataChannel.close();
+        Files.move(tmpPath, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.dataFile = new RandomAccessFile(this.dataFileName, "rw");
+        this.dataChannel = this.dataFile.getChannel();
+        this.recordOffsets = newOffsets;
+        this.dataFileEnd = newOffset;
+        this.staleBytes = 0;
+    }
+
+    @Override
+    void freePage(int pageNum) throws IOException {
+        super.freePage(pageNum);
+        this.removeRecord(pageNum);
+        this.maybeCompact();
+    }
+
+    @Override
+    void readPages(int firstPageNum, int count, ByteBuffer[] bufs) throws IOException {
+        // pages are not stored contiguously, so there is nothing to gain from a single read
+        for (int i = 0; i < count; ++i) {
+            this.readPage(firstPageNum + i, bufs[i]);
+        }
+    }
+
+    @Override
+    void readData(int pageNum, ByteBuffer buf) throws IOException {
+        if (pageNum >= this.recordOffsets.length || this.recordOffsets[pageNum] < 0) {
+            // allocated, but never written
+            Arrays.fill(this.pageBuffer, (byte) 0);
+            buf.put(this.pageBuffer);
+            return;
+        }
+        int length = this.recordLengths[pageNum];
+        if (length == PAGE_SIZE) {
+            // stored uncompressed
+            this.readFully(buf, this.recordOffsets[pageNum] + RECORD_HEADER_SIZE);
+            return;
+        }
+        ByteBuffer b = ByteBuffer.wrap(this.readBuffer, 0, length);
+        this.readFully(b, this.recordOffsets[pageNum] + RECORD_HEADER_SIZE);
+        this.compressor.decompress(this.readBuffer, length, this.pageBuffer);
+        buf.put(this.pageBuffer);
+    }
+
+    @Override
+    void writeData(int pageNum, ByteBuffer buf) throws IOException {
+        buf.get(this.pageBuffer);
+        int length = this.compressor.compress(this.pageBuffer, this.compressBuffer);
+        byte[] data = this.compressBuffer;
+        if (length < 0) {
+            length = PAGE_SIZE;
+            data = this.pageBuffer;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(pageNum).putInt(length).putInt(0).put(data, 0, length);
+        record.putInt(8, checksum(record.array(), length));
+        record.flip();
+        long offset = this.dataFileEnd;
+        while (record.hasRemaining()) {
+            this.dataFileEnd += this.dataChannel.write(record, this.dataFileEnd);
+        }
+        this.setRecord(pageNum, offset, length);
+        this.maybeCompact();
+    }
+
+    @Override
+    void force() throws IOException {
+        super.force();
+        this.dataChannel.force(false);
+    }
+
+    @Override
+    double compressionRatio() {
+        if (this.livePages == 0) {
+            return 1.0;
+        }
+        return (double) this.livePages * PAGE_SIZE / this.liveBytes;
+    }
+
+    /**
+     * Points the page map entry of a page at a new record.
+     */
+    private void setRecord(int pageNum, long offset, int length) {
+        if (pageNum >= this.recordOffsets.length) {
+            int oldLength = this.recordOffsets.length;
+            int newLength = Math.max(pageNum + 1, oldLength * 2);
+            this.recordOffsets = Arrays.copyOf(this.recordOffsets, newLength);
+            this.recordLengths = Arrays.copyOf(this.recordLengths, newLength);
+            Arrays.fill(this.recordOffsets, oldLength, newLength, -1L);
+        }
+        this.removeRecord(pageNum);
+        this.recordOffsets[pageNum] = offset;
+        this.recordLengths[pageNum] = length;
+        ++this.livePages;
+        this.liveBytes += RECORD_HEADER_SIZE + length;
+    }
+
+    /**
+     * Removes a page's entry (if any) from the page map, making its record garbage.
+     */
+    private void removeRecord(int pageNum) {
+        if (pageNum >= this.recordOffsets.length || this.recordOffsets[pageNum] < 0) {
+            return;
+        }
+        int size = RECORD_HEADER_SIZE + this.recordLengths[pageNum];
+        this.recordOffsets[pageNum] = -1;
+        --this.livePages;
+        this.liveBytes -= size;
+        this.staleBytes += size;
+    }
+
+    /**
+     * @param record bytes of a record, starting with its header
+     * @param length length of the record's page data
+     * @return checksum of the record: the CRC-32 of its page number, length and page data
+     */
+    private static int checksum(byte[] record, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, 8);
+        crc.update(record, RECORD_HEADER_SIZE, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Fills b from the data file, starting at the given offset.
+     */
+    private void readFully(ByteBuffer b, long offset) throws IOException {
+        while (b.hasRemaining()) {
+            int read = this.dataChannel.read(b, offset);
+            if (read < 0) {
+                throw new PageException("unexpected end of compressed data file");
+            }
+            offset += read;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 public interface DiskSpaceManager extends AutoCloseable {
     short PAGE_SIZE = 4096; // size of a page in bytes
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
@@ -22,6 +26,14 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     int allocPart(int partNum);
 
+    /**
+     * Allocates a new partition whose data pages are stored compressed. Compressed
+     * partitions are used exactly like any other partition.
+     *
+     * @return partition number of new partition
+     */
+    int allocCompressedPart();
+
     /**
      * Releases a partition from use.
 
@@ -36,6 +48,15 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     long allocPage(int partNum);
 
+    /**
+     * Allocates a run of new pages with consecutive page numbers, which are adjacent on
+     * disk, so that they can be read back with a single sequential read.
+     * @param partNum partition to allocate new pages under
+     * @param count number of pages to allocate
+     * @return virtual page number of the first new page
+     */
+    long allocExtent(int partNum, int count);
+
     /**
      * Allocates a new page with a specific page number.
      * @param pageNum page number of new page
@@ -57,6 +78,16 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void readPage(long page, byte[] buf);
 
+    /**
+     * Reads a run of consecutive pages of a single partition. Pages that are adjacent
+     * in the underlying storage are read with a single (scattering) read.
+     *
+     * @param firstPage number of first page to be read
+     * @param count number of pages to read
+     * @param bufs byte buffers whose first count entries will be filled with page data
+     */
+    void readPages(long firstPage, int count, byte[][] bufs);
+
     /**
      * Writes to a page.
      *
@@ -65,6 +96,117 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Reads a page without blocking the calling thread. buf must not be used until
+     * the returned future completes.
+     *
+     * @param page number of page to be read
+     * @param buf byte buffer whose contents will be filled with page data
+     * @return future that completes once buf has been filled, or completes exceptionally
+     *         with the exception readPage would have thrown
+     */
+    CompletableFuture<Void> readPageAsync(long page, byte[] buf);
+
+    /**
+     * Reads a run of consecutive pages of a single partition (see readPages) without blocking
+     * the calling thread. bufs must not be used until the returned future completes.
+     *
+     * @param firstPage number of first page to be read
+     * @param count number of pages to read
+     * @param bufs byte buffers whose first count entries will be filled with page data
+     * @return future that completes once bufs have been filled, or completes exceptionally
+     *         with the exception readPages would have thrown
+     */
+    CompletableFuture<Void> readPagesAsync(long firstPage, int count, byte[][] bufs);
+
+    /**
+     * Writes to a page without blocking the calling thread. buf must not be modified
+     * until the returned future completes.
+     *
+     * @param page number of page to be written
+     * @param buf byte buffer that contains the new page data
+     * @return future that completes once the write is done, or completes exceptionally
+     *         with the exception writePage would have thrown
+     */
+    CompletableFuture<Void> writePageAsync(long page, byte[] buf);
+
+    /**
+     * Reads a page into a (typically direct) byte buffer: the PAGE_SIZE bytes of buf starting
+     * at its position are filled with page data. The position and limit of buf are not changed.
+     * Implementations backed by a FileChannel read directly into buf; the default
+     * implementation reads into a byte array and copies it.
+     *
+     * @param page number of page to be read
+     * @param buf byte buffer whose contents will be filled with page data
+     */
+    default void readPage(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[PAGE_SIZE];
+        this.readPage(page, bytes);
+        buf.duplicate().put(bytes);
+    }
+
+    /**
+     * Reads a run of consecutive pages of a single partition into byte buffers (see
+     * readPages and readPage(long, ByteBuffer)).
+     *
+     * @param firstPage number of first page to be read
+     * @param count number of pages to read
+     * @param bufs byte buffers whose first count entries will be filled with page data
+     */
+    default void readPages(long firstPage, int count, ByteBuffer[] bufs) {
+        byte[][] bytes = new byte[count][PAGE_SIZE];
+        this.readPages(firstPage, count, bytes);
+        for (int i = 0; i < count; ++i) {
+            bufs[i].duplicate().put(bytes[i]);
+        }
+    }
+
+    /**
+     * Writes to a page from a (typically direct) byte buffer: the PAGE_SIZE bytes of buf
+     * starting at its position are written. The position and limit of buf are not changed.
+     *
+     * @param page number of page to be written
+     * @param buf byte buffer that contains the new page data
+     */
+    default void writePage(long page, ByteBuffer buf) {
+        byte[] bytes = new byte[PAGE_SIZE];
+        buf.duplicate().get(bytes);
+        this.writePage(page, bytes);
+    }
+
+    /**
+     * Writes to a page from a byte buffer (see writePage(long, ByteBuffer)), without forcing
+     * the write to disk even if writes to the partition are normally forced; the write is only
+     * guaranteed to be durable after the next sync of the partition. Used to write back many
+     * pages with a single sync per partition. The default implementation calls writePage.
+     *
+     * @param page number of page to be written
+     * @param buf byte buffer that contains the new page data
+     */
+    default void writePageWithoutSync(long page, ByteBuffer buf) {
+        this.writePage(page, buf);
+    }
+
+    /**
+     * Reads a run of consecutive pages of a single partition into byte buffers (see
+     * readPages(long, int, ByteBuffer[])) without blocking the calling thread. bufs must
+     * not be used until the returned future completes.
+     *
+     * @param firstPage number of first page to be read
+     * @param count number of pages to read
+     * @param bufs byte buffers whose first count entries will be filled with page data
+     * @return future that completes once bufs have been filled, or completes exceptionally
+     *         with the exception readPages would have thrown
+     */
+    default CompletableFuture<Void> readPagesAsync(long firstPage, int count, ByteBuffer[] bufs) {
+        byte[][] bytes = new byte[count][PAGE_SIZE];
+        return this.readPagesAsync(firstPage, count, bytes).thenRun(() -> {
+            for (int i = 0; i < count; ++i) {
+                bufs[i].duplicate().put(bytes[i]);
+            }
+        });
+    }
+
     /**
      * Checks if a page is allocated
      *
@@ -73,6 +215,35 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     boolean pageAllocated(long page);
 
+    /**
+     * Gets the compression ratio achieved for a partition: the total size of its data pages
+     * divided by the space they take up on disk. This is 1 for uncompressed partitions.
+     *
+     * @param partNum partition to get the compression ratio of
+     * @return compression ratio of the partition
+     */
+    double getCompressionRatio(int partNum);
+
+    /**
+     * Gets I/O statistics of every partition that has been used since the disk space manager
+     * was created, including partitions that have since been freed.
+     *
+     * @return map from partition number to the partition's statistics, in partition order
+     */
+    Map<Integer, IOStats.Snapshot> getIOStats();
+
+    /**
+     * Forces all writes made to a partition so far to stable storage.
+     *
+     * @param partNum partition to sync
+     */
+    void sync(int partNum);
+
+    /**
+     * Forces all writes made to any partition so far to stable storage.
+     */
+    void syncAll();
+
     /**
      * Gets partition number from virtual page number
      * @param page virtual page number
@@ -1,15 +1,24 @@
 package edu.berkeley.cs186.database.io;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An implementation of a disk space manager with virtual page translation, and
@@ -27,7 +36,7 @@ import java.util.concurrent.locks.ReentrantLock;
  * A single partition may therefore have a maximum of 64M data pages.
  *
  * Master and header pages are cached permanently in memory; changes to these are immediately flushed to
- * disk. This imposes a fairly small memory overhead (128M partitions have 2 pages cached). This caching
+ * disk (unless syncOnWrite is disabled, see below). This imposes a fairly small memory overhead (128M partitions have 2 pages cached). This caching
  * is done separately from the buffer manager's caching.
  *
  * Virtual page numbers are 64-bit integers (Java longs) assigned to data pages in the following format:
@@ -44,38 +53,118 @@ import java.util.concurrent.locks.ReentrantLock;
  * - the second header page follows
  * - the next 32K pages are data pages managed by the second header page
  * - etc.
+ *
+ * By default every data page write is forced to disk before writePage returns. The disk space manager
+ * may instead be created with syncOnWrite disabled, in which case data page writes only reach the OS
+ * page cache, and durability is provided by explicit sync barriers (sync/syncAll), which the recovery
+ * manager issues when checkpointing (the write-ahead log already guarantees that the changes can be
+ * redone). Writes to the log partition are always forced, since the log itself must be durable.
+ * Writes made with writePageWithoutSync are never forced; their caller syncs the partition once done
+ * (the buffer manager does so to write back many pages with one sync per partition).
+ *
+ * Partition files are accessed either with positional FileChannel reads/writes, or, if the disk space
+ * manager is created with memoryMapped set, through memory mapped segments of the files (see
+ * MappedPartitionHandle). Both use the same file format.
+ *
+ * Pages allocated with allocPage(partNum) are handed out in order from an extent of EXTENT_SIZE adjacent
+ * free data pages of the partition, so that pages allocated one after another (e.g. as a table grows) are
+ * also adjacent on disk, and can be read back with large sequential reads. Extents are only reserved in
+ * memory; pages of an extent that have not been handed out yet remain free. allocExtent allocates a run of
+ * adjacent pages at once.
+ *
+ * There is no lock on the disk space manager as a whole: each partition has its own lock, so operations on
+ * different partitions (e.g. concurrent inserts into different tables) proceed in parallel. Allocations and
+ * frees write only the bytes of the master/header pages that changed to the OS file right away (recovery does
+ * not redo allocations logged before the last checkpoint), but do not force them to disk, which is left to
+ * the next sync of the partition.
+ *
+ * Partitions allocated with allocCompressedPart store their data pages compressed, in a separate OS file
+ * (see CompressedPartitionHandle). Compressed partitions always use positional reads and writes.
+ *
+ * Asynchronous reads and writes (readPageAsync/readPagesAsync/writePageAsync) are performed by a small pool of
+ * dedicated I/O threads, so that callers can overlap other work with disk accesses.
+ *
+ * The number of reads, writes and syncs of each partition, the bytes read and written, and their
+ * latencies are counted (see IOStats and getIOStats). Counts are kept by partition number for the
+ * lifetime of the disk space manager, so a freed partition's I/O is still reported.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
     static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
     static final int DATA_PAGES_PER_HEADER = PAGE_SIZE * 8; // 1 bit per data page
+    static final int NUM_IO_THREADS = 4; // threads serving asynchronous reads/writes
+    static final int EXTENT_SIZE = 64; // data pages reserved at a time by allocPage
 
     // Name of base directory.
     private String dbDir;
 
-    // Info about each partition.
+    // Info about each partition. Partitions are locked individually: there is no lock
+    // covering all partitions, so operations on different partitions never wait for each other.
     private Map<Integer, PartitionHandle> partInfo;
 
     // Counter to generate new partition numbers.
     private AtomicInteger partNumCounter;
 
-    // Lock on the entire manager.
-    private ReentrantLock managerLock;
-
     // recovery manager
     private RecoveryManager recoveryManager;
 
+    // whether data page writes are forced to disk immediately
+    private boolean syncOnWrite;
+
+    // whether partition files are accessed through memory mappings
+    private boolean memoryMapped;
+
+    // I/O statistics of each partition, including partitions that have been freed.
+    private Map<Integer, IOStats> ioStats;
+
+    // I/O threads for asynchronous reads and writes
+    private ExecutorService ioExecutor;
+
     /**
      * Initialize the disk space manager using the given directory. Creates the directory
-     * if not present.
+     * if not present. Every data page write is forced to disk immediately.
      *
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, true);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present. Partition files are accessed with positional reads and writes.
+     *
+     * @param dbDir base directory of the database
+     * @param syncOnWrite whether data page writes should be forced to disk immediately; if false,
+     *                    writes are only guaranteed to be durable after sync/syncAll
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        this(dbDir, recoveryManager, syncOnWrite, false);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param syncOnWrite whether data page writes should be forced to disk immediately; if false,
+     *                    writes are only guaranteed to be durable after sync/syncAll
+     * @param memoryMapped whether to access partition files through memory mappings instead of
+     *                     positional reads and writes
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite,
+                                boolean memoryMapped) {
         this.dbDir = dbDir;
         this.recoveryManager = recoveryManager;
-        this.partInfo = new HashMap<>();
+        this.syncOnWrite = syncOnWrite;
+        this.memoryMapped = memoryMapped;
+        this.ioExecutor = Executors.newFixedThreadPool(NUM_IO_THREADS, (Runnable r) -> {
+            Thread thread = new Thread(r, "rookiedb-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.partInfo = new ConcurrentHashMap<>();
+        this.ioStats = new ConcurrentHashMap<>();
         this.partNumCounter = new AtomicInteger(0);
-        this.managerLock = new ReentrantLock();
 
         File dir = new File(dbDir);
         if (!dir.exists()) {
@@ -89,6 +178,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
             for (File f : files) {
+                if (f.getName().contains(".")) {
+                    // data file of a compressed partition, opened along with the partition
+                    continue;
+                }
                 if (f.length() == 0) {
                     if (!f.delete()) {
                         throw new PageException("could not clean up unused file - " + f.getName());
@@ -98,7 +191,8 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 int fileNum = Integer.parseInt(f.getName());
                 maxFileNum = Math.max(maxFileNum, fileNum);
 
-                PartitionHandle pi = new PartitionHandle(fileNum, recoveryManager);
+                boolean compressed = new File(CompressedPartitionHandle.dataFileName(f.getPath())).exists();
+                PartitionHandle pi = newPartitionHandle(fileNum, compressed);
                 pi.open(dbDir + "/" + f.getName());
                 this.partInfo.put(fileNum, pi);
             }
@@ -108,6 +202,14 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public void close() {
+        // let outstanding asynchronous reads/writes finish first
+        this.ioExecutor.shutdown();
+        try {
+            this.ioExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.syncAll();
         for (Map.Entry<Integer, PartitionHandle> part : this.partInfo.entrySet()) {
             try {
                 part.getValue().close();
@@ -119,35 +221,30 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public int allocPart() {
-        return this.allocPartHelper(this.partNumCounter.getAndIncrement());
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement(), false);
     }
 
     @Override
     public int allocPart(int partNum) {
         this.partNumCounter.updateAndGet((int x) -> Math.max(x, partNum) + 1);
-        return this.allocPartHelper(partNum);
+        return this.allocPartHelper(partNum, false);
     }
 
-    private int allocPartHelper(int partNum) {
-        PartitionHandle pi;
-
-        this.managerLock.lock();
-        try {
-            if (this.partInfo.containsKey(partNum)) {
-                throw new IllegalStateException("partition number " + partNum + " already exists");
-            }
-
-            pi = new PartitionHandle(partNum, recoveryManager);
-            this.partInfo.put(partNum, pi);
+    @Override
+    public int allocCompressedPart() {
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement(), true);
+    }
 
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+    private int allocPartHelper(int partNum, boolean compressed) {
+        // locked before it is published, so that no one else can use it before it is opened
+        PartitionHandle pi = newPartitionHandle(partNum, compressed);
+        pi.partitionLock.lock();
+        if (this.partInfo.putIfAbsent(partNum, pi) != null) {
+            pi.partitionLock.unlock();
+            throw new IllegalStateException("partition number " + partNum + " already exists");
         }
         try {
-            // We must open partition only after logging, but we need to release the
-            // manager lock first, in case the log manager is currently in the process
-            // of allocating a new log page (for another txn's records).
+            // We must open partition only after logging.
             TransactionContext transaction = TransactionContext.getTransaction();
             if (transaction != null) {
                 recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
@@ -162,18 +259,11 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public void freePart(int partNum) {
-        PartitionHandle pi;
-
-        this.managerLock.lock();
-        try {
-            pi = this.partInfo.remove(partNum);
-            if (pi == null) {
-                throw new NoSuchElementException("no partition " + partNum);
-            }
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        PartitionHandle pi = this.partInfo.remove(partNum);
+        if (pi == null) {
+            throw new NoSuchElementException("no partition " + partNum);
         }
+        pi.partitionLock.lock();
         try {
             try {
                 pi.freeDataPages();
@@ -191,6 +281,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             if (!pf.delete()) {
                 throw new PageException("could not delete files for partition " + partNum);
             }
+            File df = new File(CompressedPartitionHandle.dataFileName(pf.getPath()));
+            if (df.exists() && !df.delete()) {
+                throw new PageException("could not delete files for partition " + partNum);
+            }
         } finally {
             pi.partitionLock.unlock();
         }
@@ -198,18 +292,28 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
 
     @Override
     public long allocPage(int partNum) {
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            int pageNum = pi.allocPage();
+            pi.writePage(pageNum, ByteBuffer.wrap(new byte[PAGE_SIZE]));
+            return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        } catch (IOException e) {
+            throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public long allocExtent(int partNum, int count) {
+        if (count <= 0 || count > DATA_PAGES_PER_HEADER) {
+            throw new IllegalArgumentException("extent size must be between 1 and " + DATA_PAGES_PER_HEADER);
         }
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
-            int pageNum = pi.allocPage();
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
-            return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+            int firstPageNum = pi.allocExtent(count);
+            pi.zeroPages(firstPageNum, count);
+            return DiskSpaceManager.getVirtualPageNum(partNum, firstPageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
@@ -224,17 +328,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
         int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
 
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
             pi.allocPage(headerIndex, pageIndex);
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.writePage(pageNum, ByteBuffer.wrap(new byte[PAGE_SIZE]));
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
@@ -247,14 +344,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public void freePage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
             pi.freePage(pageNum);
         } catch (IOException e) {
@@ -269,18 +359,61 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         if (buf.length != PAGE_SIZE) {
             throw new IllegalArgumentException("readPage expects a page-sized buffer");
         }
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.remaining() < PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            pi.readPage(pageNum, pageOf(buf));
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, byte[][] bufs) {
+        if (count < 0 || bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects count page-sized buffers");
+        }
+        ByteBuffer[] bs = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            if (bufs[i].length != PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+            bs[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        this.readPages(firstPage, count, bs);
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, ByteBuffer[] bufs) {
+        if (count < 0 || bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects count page-sized buffers");
+        }
+        ByteBuffer[] bs = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            if (bufs[i].remaining() < PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+            bs[i] = pageOf(bufs[i]);
+        }
+        int partNum = DiskSpaceManager.getPartNum(firstPage);
+        int pageNum = DiskSpaceManager.getPageNum(firstPage);
+        if (count > 0 && DiskSpaceManager.getPartNum(firstPage + count - 1) != partNum) {
+            throw new PageException("readPages cannot read across partitions");
         }
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
-            pi.readPage(pageNum, buf);
+            pi.readPages(pageNum, count, bs);
         } catch (IOException e) {
             throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
@@ -293,18 +426,28 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         if (buf.length != PAGE_SIZE) {
             throw new IllegalArgumentException("writePage expects a page-sized buffer");
         }
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        this.writePage(page, buf, true);
+    }
+
+    @Override
+    public void writePageWithoutSync(long page, ByteBuffer buf) {
+        this.writePage(page, buf, false);
+    }
+
+    private void writePage(long page, ByteBuffer buf, boolean sync) {
+        if (buf.remaining() < PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
-        try {
-            pi.writePage(pageNum, buf);
+            pi.writePage(pageNum, pageOf(buf), sync);
         } catch (IOException e) {
             throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
         } finally {
@@ -312,25 +455,143 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        return CompletableFuture.runAsync(() -> this.readPage(page, buf), this.ioExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long firstPage, int count, byte[][] bufs) {
+        return CompletableFuture.runAsync(() -> this.readPages(firstPage, count, bufs), this.ioExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        return CompletableFuture.runAsync(() -> this.writePage(page, buf), this.ioExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long firstPage, int count, ByteBuffer[] bufs) {
+        return CompletableFuture.runAsync(() -> this.readPages(firstPage, count, bufs), this.ioExecutor);
+    }
+
+    /**
+     * @return a buffer over the PAGE_SIZE bytes of buf starting at its position, which
+     * partition handles can consume without changing the position of buf
+     */
+    private static ByteBuffer pageOf(ByteBuffer buf) {
+        ByteBuffer page = buf.duplicate();
+        page.limit(page.position() + PAGE_SIZE);
+        return page;
+    }
+
     @Override
     public boolean pageAllocated(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartInfo(partNum);
+        try {
+            return !pi.isNotAllocatedPage(pageNum);
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public Map<Integer, IOStats.Snapshot> getIOStats() {
+        Map<Integer, IOStats.Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<Integer, IOStats> entry : this.ioStats.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    @Override
+    public double getCompressionRatio(int partNum) {
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            return pi.compressionRatio();
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.unlock();
         }
+    }
+
+    @Override
+    public void sync(int partNum) {
+        PartitionHandle pi = this.lockPartInfo(partNum);
         try {
-            return !pi.isNotAllocatedPage(pageNum);
+            pi.sync();
+        } catch (IOException e) {
+            throw new PageException("could not sync partition " + partNum + ": " + e.getMessage());
         } finally {
             pi.partitionLock.unlock();
         }
     }
 
+    @Override
+    public void syncAll() {
+        for (int partNum : this.partInfo.keySet()) {
+            try {
+                this.sync(partNum);
+            } catch (NoSuchElementException e) {
+                // partition was freed in the meantime, nothing to sync
+            }
+        }
+    }
+
+    /**
+     * @return partition numbers of all partitions
+     */
+    List<Integer> getPartNums() {
+        List<Integer> partNums = new ArrayList<>(this.partInfo.keySet());
+        Collections.sort(partNums);
+        return partNums;
+    }
+
+    /**
+     * @param partNum partition number
+     * @return virtual page numbers of all allocated pages of the partition, in increasing order
+     */
+    List<Long> getAllocatedPages(int partNum) {
+        PartitionHandle pi = this.lockPartInfo(partNum);
+        try {
+            List<Long> pages = new ArrayList<>();
+            for (int pageNum : pi.allocatedPages()) {
+                pages.add(DiskSpaceManager.getVirtualPageNum(partNum, pageNum));
+            }
+            return pages;
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    // Creates the handle for a partition. Log pages are always forced on write.
+    private PartitionHandle newPartitionHandle(int partNum, boolean compressed) {
+        boolean sync = this.syncOnWrite || partNum == LogManager.LOG_PARTITION;
+        PartitionHandle pi;
+        if (compressed) {
+            pi = new CompressedPartitionHandle(partNum, recoveryManager, sync);
+        } else if (this.memoryMapped) {
+            pi = new MappedPartitionHandle(partNum, recoveryManager, sync);
+        } else {
+            pi = new PartitionHandle(partNum, recoveryManager, sync);
+        }
+        pi.stats = this.ioStats.computeIfAbsent(partNum, (Integer k) -> new IOStats());
+        return pi;
+    }
+
+    // Gets PartInfo and acquires its lock, throws exception if not found.
+    private PartitionHandle lockPartInfo(int partNum) {
+        PartitionHandle pi = getPartInfo(partNum);
+        pi.partitionLock.lock();
+        if (this.partInfo.get(partNum) != pi) {
+            // freed while we were waiting for the lock
+            pi.partitionLock.unlock();
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return pi;
+    }
+
     // Gets PartInfo, throws exception if not found.
     private PartitionHandle getPartInfo(int partNum) {
         PartitionHandle pi = this.partInfo.get(partNum);
@@ -0,0 +1,70 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe counters of the I/O done on a partition: the number of reads, writes, and
+ * syncs (fsyncs), the number of bytes read and written, and how long each took.
+ *
+ * A read or write is one call to read or write data pages: reading a run of pages with a
+ * single read counts once, with the bytes of all the pages.
+ */
+public class IOStats {
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram syncLatency = new LatencyHistogram();
+
+    void recordRead(long bytes, long nanos) {
+        this.reads.increment();
+        this.bytesRead.add(bytes);
+        this.readLatency.record(nanos);
+    }
+
+    void recordWrite(long bytes, long nanos) {
+        this.writes.increment();
+        this.bytesWritten.add(bytes);
+        this.writeLatency.record(nanos);
+    }
+
+    void recordSync(long nanos) {
+        this.syncs.increment();
+        this.syncLatency.record(nanos);
+    }
+
+    /**
+     * @return the current values of the counters
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Immutable values of the counters of an IOStats.
+     */
+    public static class Snapshot {
+        public final long reads;
+        public final long writes;
+        public final long syncs;
+        public final long bytesRead;
+        public final long bytesWritten;
+        public final LatencyHistogram.Snapshot readLatency;
+        public final LatencyHistogram.Snapshot writeLatency;
+        public final LatencyHistogram.Snapshot syncLatency;
+
+        private Snapshot(IOStats stats) {
+            this.reads = stats.reads.sum();
+            this.writes = stats.writes.sum();
+            this.syncs = stats.syncs.sum();
+            this.bytesRead = stats.bytesRead.sum();
+            this.bytesWritten = stats.bytesWritten.sum();
+            this.readLatency = stats.readLatency.snapshot();
+            this.writeLatency = stats.writeLatency.snapshot();
+            this.syncLatency = stats.syncLatency.snapshot();
+        }
+    }
+}
@@ -0,0 +1,692 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
+import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
+
+/**
+ * A disk space manager that keeps all pages in memory, for databases that do not need
+ * durability (e.g. when used as a cache or staging area), where forcing pages to disk and
+ * the overhead of file I/O is pure waste.
+ *
+ * Page contents are stored off-heap, in direct byte buffers (slabs) of PAGES_PER_SLAB pages
+ * each. Each page of a slab is a slot; a bitmap tracks which slots are in use, and slots
+ * of freed pages are reused by later allocations. Slabs are never returned to the OS.
+ *
+ * Partition and page numbers, and the errors raised for invalid ones, are the same as for
+ * DiskSpaceManagerImpl, and allocations and frees are logged with the recovery manager in
+ * the same way. Each partition keeps a bitmap of its allocated data pages; since there is
+ * no physical layout to preserve, allocPage hands out the lowest free page number rather
+ * than allocating in extents.
+ *
+ * If created with a snapshot directory, the disk space manager loads the partitions in
+ * the directory (in the format of DiskSpaceManagerImpl) when it is created, and replaces
+ * them with a snapshot of all partitions when it is closed. Nothing is written to disk
+ * in between. A new snapshot is written (and synced) to a temporary directory, the old
+ * snapshot is then moved aside, the new one moved into place, and the old one deleted,
+ * so that a crash at any point leaves a complete snapshot to load: the directories left
+ * behind are sorted out when the disk space manager is next created.
+ */
+public class InMemoryDiskSpaceManager implements DiskSpaceManager {
+    static final int PAGES_PER_SLAB = 256; // 1M per slab
+    static final int MAX_PAGES_PER_PARTITION = MAX_HEADER_PAGES * DATA_PAGES_PER_HEADER;
+
+    private static class Partition {
+        // Lock on the partition.
+        private final ReentrantLock partitionLock = new ReentrantLock();
+
+        // Bitmap of allocated data pages.
+        private final BitSet allocated = new BitSet();
+
+        // Slot storing each allocated data page, indexed by data page number.
+        private int[] slots = new int[0];
+    }
+
+    // Directory to load/store a snapshot from/to, or null.
+    private String snapshotDir;
+
+    // Info about each partition.
+    private Map<Integer, Partition> partInfo;
+
+    // I/O statistics of each partition, including partitions that have been freed.
+    private Map<Integer, IOStats> ioStats;
+
+    // Counter to generate new partition numbers.
+    private AtomicInteger partNumCounter;
+
+    // Slabs backing the slots. Replaced (never modified) when a slab is added, so that it
+    // can be read without holding slabLock.
+    private volatile ByteBuffer[] slabs;
+
+    // Bitmap of slots in use.
+    private BitSet usedSlots;
+
+    // Lock on slab and slot allocation.
+    private ReentrantLock slabLock;
+
+    // recovery manager
+    private RecoveryManager recoveryManager;
+
+    /**
+     * Initialize an empty in-memory disk space manager. Nothing is ever written to disk.
+     */
+    public InMemoryDiskSpaceManager(RecoveryManager recoveryManager) {
+        this(null, recoveryManager);
+    }
+
+    /**
+     * Initialize an in-memory disk space manager, which loads the partitions stored in
+     * snapshotDir (if any) and stores a snapshot of all partitions there when closed.
+     *
+     * @param snapshotDir directory to load a snapshot from and store a snapshot in, or null
+     *                    to never touch the disk
+     */
+    public InMemoryDiskSpaceManager(String snapshotDir, RecoveryManager recoveryManager) {
+        this.snapshotDir = snapshotDir;
+        this.recoveryManager = recoveryManager;
+        this.partInfo = new ConcurrentHashMap<>();
+        this.ioStats = new ConcurrentHashMap<>();
+        this.partNumCounter = new AtomicInteger(0);
+        this.slabs = new ByteBuffer[0];
+        this.usedSlots = new BitSet();
+        this.slabLock = new ReentrantLock();
+
+        if (snapshotDir != null) {
+            this.recoverSnapshot();
+            if (new File(snapshotDir).isDirectory()) {
+                this.loadSnapshot();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.snapshotDir != null) {
+            this.storeSnapshot();
+        }
+    }
+
+    @Override
+    public int allocPart() {
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement());
+    }
+
+    @Override
+    public int allocPart(int partNum) {
+        this.partNumCounter.updateAndGet((int x) -> Math.max(x, partNum) + 1);
+        return this.allocPartHelper(partNum);
+    }
+
+    @Override
+    public int allocCompressedPart() {
+        // pages are kept uncompressed in memory
+        return this.allocPart();
+    }
+
+    private int allocPartHelper(int partNum) {
+        if (this.partInfo.putIfAbsent(partNum, new Partition()) != null) {
+            throw new IllegalStateException("partition number " + partNum + " already exists");
+        }
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
+        }
+        return partNum;
+    }
+
+    @Override
+    public void freePart(int partNum) {
+        Partition pi = this.partInfo.remove(partNum);
+        if (pi == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        pi.partitionLock.lock();
+        try {
+            for (int pageNum = pi.allocated.nextSetBit(0); pageNum >= 0;
+                    pageNum = pi.allocated.nextSetBit(pageNum + 1)) {
+                this.freePageHelper(partNum, pi, pageNum);
+            }
+            TransactionContext transaction = TransactionContext.getTransaction();
+            if (transaction != null) {
+                recoveryManager.logFreePart(transaction.getTransNum(), partNum);
+            }
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public long allocPage(int partNum) {
+        Partition pi = this.lockPartInfo(partNum);
+        try {
+            int pageNum = pi.allocated.nextClearBit(0);
+            if (pageNum >= MAX_PAGES_PER_PARTITION) {
+                throw new PageException("no free pages - partition has reached max size");
+            }
+            this.allocPageHelper(partNum, pi, pageNum);
+            return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public long allocExtent(int partNum, int count) {
+        if (count <= 0 || count > DATA_PAGES_PER_HEADER) {
+            throw new IllegalArgumentException("extent size must be between 1 and " + DATA_PAGES_PER_HEADER);
+        }
+        Partition pi = this.lockPartInfo(partNum);
+        try {
+            int firstPageNum = pi.allocated.nextClearBit(0);
+            int nextAllocated = pi.allocated.nextSetBit(firstPageNum);
+            while (nextAllocated >= 0 && nextAllocated - firstPageNum < count) {
+                firstPageNum = pi.allocated.nextClearBit(nextAllocated);
+                nextAllocated = pi.allocated.nextSetBit(firstPageNum);
+            }
+            if (firstPageNum + count > MAX_PAGES_PER_PARTITION) {
+                throw new PageException("no run of " + count + " free pages - partition is too full or fragmented");
+            }
+            for (int i = 0; i < count; ++i) {
+                this.allocPageHelper(partNum, pi, firstPageNum + i);
+            }
+            return DiskSpaceManager.getVirtualPageNum(partNum, firstPageNum);
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public long allocPage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        if (pageNum < 0 || pageNum >= MAX_PAGES_PER_PARTITION) {
+            throw new PageException("page " + pageNum + " is out of range");
+        }
+        Partition pi = this.lockPartInfo(partNum);
+        try {
+            if (pi.allocated.get(pageNum)) {
+                throw new IllegalStateException("page " + page + " already allocated");
+            }
+            this.allocPageHelper(partNum, pi, pageNum);
+            return page;
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * Allocates a (free) data page and a zeroed slot for it. Assumes that the partition
+     * lock is held.
+     */
+    private void allocPageHelper(int partNum, Partition pi, int pageNum) {
+        if (pageNum >= pi.slots.length) {
+            pi.slots = Arrays.copyOf(pi.slots, Math.max(pageNum + 1, pi.slots.length * 2));
+        }
+        pi.slots[pageNum] = this.allocSlot();
+        pi.allocated.set(pageNum);
+
+        long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            recoveryManager.logAllocPage(transaction.getTransNum(), vpn);
+        }
+        recoveryManager.diskIOHook(vpn);
+    }
+
+    @Override
+    public void freePage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        Partition pi = this.lockPartInfo(partNum);
+        try {
+            if (!this.isAllocated(pi, pageNum)) {
+                throw new NoSuchElementException("cannot free unallocated page");
+            }
+            this.freePageHelper(partNum, pi, pageNum);
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    /**
+     * Frees an allocated data page, logging its contents as DiskSpaceManagerImpl does so
+     * that the free can be undone. Assumes that the partition lock is held.
+     */
+    private void freePageHelper(int partNum, Partition pi, int pageNum) {
+        long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            byte[] contents = new byte[PAGE_SIZE];
+            this.slotView(pi.slots[pageNum]).get(contents);
+            int halfway = BufferManager.RESERVED_SPACE + BufferManager.EFFECTIVE_PAGE_SIZE / 2;
+            recoveryManager.logPageWrite(
+                    transaction.getTransNum(),
+                    vpn,
+                    (short) 0,
+                    Arrays.copyOfRange(contents, BufferManager.RESERVED_SPACE, halfway),
+                    new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2]
+            );
+            recoveryManager.logPageWrite(
+                    transaction.getTransNum(),
+                    vpn,
+                    (short) (BufferManager.EFFECTIVE_PAGE_SIZE / 2),
+                    Arrays.copyOfRange(contents, halfway, PAGE_SIZE),
+                    new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2]
+            );
+            recoveryManager.logFreePage(transaction.getTransNum(), vpn);
+        }
+        recoveryManager.diskIOHook(vpn);
+        pi.allocated.clear(pageNum);
+        this.freeSlot(pi.slots[pageNum]);
+    }
+
+    @Override
+    public void readPage(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.remaining() < PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        Partition pi = this.lockPartInfo(partNum);
+        try {
+            long start = System.nanoTime();
+            buf.duplicate().put(this.slotView(this.getSlot(pi, pageNum)));
+            this.getIOStats(partNum).recordRead(PAGE_SIZE, System.nanoTime() - start);
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, byte[][] bufs) {
+        if (count < 0 || bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects count page-sized buffers");
+        }
+        ByteBuffer[] bs = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            if (bufs[i].length != PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+            bs[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        this.readPages(firstPage, count, bs);
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, ByteBuffer[] bufs) {
+        if (count < 0 || bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects count page-sized buffers");
+        }
+        for (int i = 0; i < count; ++i) {
+            if (bufs[i].remaining() < PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+        }
+        int partNum = DiskSpaceManager.getPartNum(firstPage);
+        int pageNum = DiskSpaceManager.getPageNum(firstPage);
+        if (count > 0 && DiskSpaceManager.getPartNum(firstPage + count - 1) != partNum) {
+            throw new PageException("readPages cannot read across partitions");
+        }
+        Partition pi = this.lockPartInfo(partNum);
+        try {
+            for (int i = 0; i < count; ++i) {
+                this.getSlot(pi, pageNum + i);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < count; ++i) {
+                bufs[i].duplicate().put(this.slotView(pi.slots[pageNum + i]));
+            }
+            this.getIOStats(partNum).recordRead((long) count * PAGE_SIZE, System.nanoTime() - start);
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public void writePage(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.remaining() < PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        Partition pi = this.lockPartInfo(partNum);
+        try {
+            long start = System.nanoTime();
+            ByteBuffer src = buf.duplicate();
+            src.limit(src.position() + PAGE_SIZE);
+            this.slotView(this.getSlot(pi, pageNum)).put(src);
+            this.getIOStats(partNum).recordWrite(PAGE_SIZE, System.nanoTime() - start);
+            recoveryManager.diskIOHook(page);
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        // copying a page is cheaper than handing it off to another thread
+        try {
+            this.readPage(page, buf);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long firstPage, int count, byte[][] bufs) {
+        try {
+            this.readPages(firstPage, count, bufs);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long firstPage, int count, ByteBuffer[] bufs) {
+        try {
+            this.readPages(firstPage, count, bufs);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        try {
+            this.writePage(page, buf);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    @Override
+    public boolean pageAllocated(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        Partition pi = this.lockPartInfo(partNum);
+        try {
+            return this.isAllocated(pi, pageNum);
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public Map<Integer, IOStats.Snapshot> getIOStats() {
+        Map<Integer, IOStats.Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<Integer, IOStats> entry : this.ioStats.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    private IOStats getIOStats(int partNum) {
+        return this.ioStats.computeIfAbsent(partNum, (Integer k) -> new IOStats());
+    }
+
+    @Override
+    public double getCompressionRatio(int partNum) {
+        this.getPartInfo(partNum);
+        return 1.0;
+    }
+
+    @Override
+    public void sync(int partNum) {
+        // nothing is durable anyways
+        this.getPartInfo(partNum);
+    }
+
+    @Override
+    public void syncAll() {}
+
+    /**
+     * Cleans up after a crash while a snapshot was being stored (see storeSnapshot). The
+     * temporary directory only holds a complete snapshot if the old snapshot was already
+     * moved aside, in which case it is moved into place; otherwise it is deleted. A snapshot
+     * moved aside is deleted if a newer one is in place, and moved back otherwise.
+     */
+    private void recoverSnapshot() {
+        File dir = new File(this.snapshotDir);
+        File tmpDir = new File(this.snapshotDir + ".tmp");
+        File oldDir = new File(this.snapshotDir + ".old");
+        if (!dir.exists() && oldDir.exists()) {
+            File newest = tmpDir.exists() ? tmpDir : oldDir;
+            if (!newest.renameTo(dir)) {
+                throw new PageException("could not move snapshot into " + this.snapshotDir);
+            }
+            syncDirectory(dir.getAbsoluteFile().getParentFile());
+        }
+        deleteDirectory(tmpDir);
+        deleteDirectory(oldDir);
+    }
+
+    /**
+     * Loads all partitions of the snapshot directory.
+     */
+    private void loadSnapshot() {
+        DiskSpaceManagerImpl snapshot = new DiskSpaceManagerImpl(this.snapshotDir, new DummyRecoveryManager(), false);
+        try {
+            byte[] buf = new byte[PAGE_SIZE];
+            for (int partNum : snapshot.getPartNums()) {
+                this.partNumCounter.updateAndGet((int x) -> Math.max(x, partNum + 1));
+                Partition pi = new Partition();
+                this.partInfo.put(partNum, pi);
+                for (long page : snapshot.getAllocatedPages(partNum)) {
+                    int pageNum = DiskSpaceManager.getPageNum(page);
+                    snapshot.readPage(page, buf);
+                    if (pageNum >= pi.slots.length) {
+                        pi.slots = Arrays.copyOf(pi.slots, Math.max(pageNum + 1, pi.slots.length * 2));
+                    }
+                    pi.slots[pageNum] = this.allocSlot();
+                    pi.allocated.set(pageNum);
+                    this.slotView(pi.slots[pageNum]).put(buf);
+                }
+            }
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Replaces the contents of the snapshot directory with all current partitions. The
+     * snapshot is first written to a temporary directory and synced, so that a failure
+     * while writing it leaves the previous snapshot intact, and the previous snapshot is
+     * only deleted once the new one is in place (see recoverSnapshot).
+     */
+    private void storeSnapshot() {
+        File dir = new File(this.snapshotDir);
+        File tmpDir = new File(this.snapshotDir + ".tmp");
+        File oldDir = new File(this.snapshotDir + ".old");
+        File parentDir = dir.getAbsoluteFile().getParentFile();
+        deleteDirectory(tmpDir);
+        DiskSpaceManagerImpl snapshot = new DiskSpaceManagerImpl(tmpDir.getPath(), new DummyRecoveryManager(), false);
+        try {
+            byte[] buf = new byte[PAGE_SIZE];
+            List<Integer> partNums = new ArrayList<>(this.partInfo.keySet());
+            Collections.sort(partNums);
+            for (int partNum : partNums) {
+                Partition pi = this.lockPartInfo(partNum);
+                try {
+                    snapshot.allocPart(partNum);
+                    for (int pageNum = pi.allocated.nextSetBit(0); pageNum >= 0;
+                            pageNum = pi.allocated.nextSetBit(pageNum + 1)) {
+                        long page = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+                        this.slotView(pi.slots[pageNum]).get(buf);
+                        snapshot.allocPage(page);
+                        snapshot.writePage(page, buf);
+                    }
+                } finally {
+                    pi.partitionLock.unlock();
+                }
+            }
+            snapshot.syncAll();
+        } finally {
+            snapshot.close();
+        }
+        syncDirectory(tmpDir);
+        if (dir.exists()) {
+            deleteDirectory(oldDir);
+            if (!dir.renameTo(oldDir)) {
+                throw new PageException("could not move old snapshot out of " + this.snapshotDir);
+            }
+            syncDirectory(parentDir);
+        }
+        if (!tmpDir.renameTo(dir)) {
+            throw new PageException("could not move snapshot into " + this.snapshotDir);
+        }
+        syncDirectory(parentDir);
+        deleteDirectory(oldDir);
+    }
+
+    /**
+     * Forces the entries of a directory (e.g. files created in or renamed into it) to disk.
+     * Not every platform can sync a directory, in which case this does nothing.
+     */
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // e.g. on Windows, where directories cannot be opened
+        }
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.delete()) {
+                    throw new PageException("could not delete " + f.getPath());
+                }
+            }
+        }
+        if (dir.exists() && !dir.delete()) {
+            throw new PageException("could not delete " + dir.getPath());
+        }
+    }
+
+    /**
+     * Allocates a slot, adding a slab if all slots are in use.
+     * @return zeroed slot
+     */
+    private int allocSlot() {
+        int slot;
+        this.slabLock.lock();
+        try {
+            slot = this.usedSlots.nextClearBit(0);
+            if (slot >= this.slabs.length * PAGES_PER_SLAB) {
+                ByteBuffer[] newSlabs = Arrays.copyOf(this.slabs, this.slabs.length + 1);
+                newSlabs[this.slabs.length] = ByteBuffer.allocateDirect(PAGES_PER_SLAB * PAGE_SIZE);
+                this.slabs = newSlabs;
+            }
+            this.usedSlots.set(slot);
+        } finally {
+            this.slabLock.unlock();
+        }
+        // slots of freed pages still have the old contents
+        this.slotView(slot).put(new byte[PAGE_SIZE]);
+        return slot;
+    }
+
+    private void freeSlot(int slot) {
+        this.slabLock.lock();
+        try {
+            this.usedSlots.clear(slot);
+        } finally {
+            this.slabLock.unlock();
+        }
+    }
+
+    /**
+     * @return buffer whose remaining bytes are the slot's page
+     */
+    private ByteBuffer slotView(int slot) {
+        ByteBuffer view = this.slabs[slot / PAGES_PER_SLAB].duplicate();
+        int offset = (slot % PAGES_PER_SLAB) * PAGE_SIZE;
+        view.limit(offset + PAGE_SIZE);
+        view.position(offset);
+        return view;
+    }
+
+    private boolean isAllocated(Partition pi, int pageNum) {
+        return pageNum >= 0 && pi.allocated.get(pageNum);
+    }
+
+    // Gets the slot of an allocated page, throws exception if the page is not allocated.
+    private int getSlot(Partition pi, int pageNum) {
+        if (!this.isAllocated(pi, pageNum)) {
+            throw new PageException("page " + pageNum + " is not allocated");
+        }
+        return pi.slots[pageNum];
+    }
+
+    // Gets PartInfo and acquires its lock, throws exception if not found.
+    private Partition lockPartInfo(int partNum) {
+        Partition pi = this.getPartInfo(partNum);
+        pi.partitionLock.lock();
+        if (this.partInfo.get(partNum) != pi) {
+            // freed while we were waiting for the lock
+            pi.partitionLock.unlock();
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return pi;
+    }
+
+    // Gets PartInfo, throws exception if not found.
+    private Partition getPartInfo(int partNum) {
+        Partition pi = this.partInfo.get(partNum);
+        if (pi == null) {
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return pi;
+    }
+}
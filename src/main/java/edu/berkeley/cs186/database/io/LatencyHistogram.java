@@ -0,0 +1,95 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of latencies, with power of two buckets: bucket i counts latencies
+ * of [2^(i - 1), 2^i) nanoseconds (and bucket 0 counts latencies of 0 nanoseconds).
+ */
+public class LatencyHistogram {
+    private static final int NUM_BUCKETS = Long.SIZE;
+
+    private final LongAdder[] buckets;
+    private final LongAdder totalNanos;
+
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            this.buckets[i] = new LongAdder();
+        }
+        this.totalNanos = new LongAdder();
+    }
+
+    /**
+     * Records one latency.
+     * @param nanos latency in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        this.buckets[Long.SIZE - Long.numberOfLeadingZeros(nanos)].increment();
+        this.totalNanos.add(nanos);
+    }
+
+    /**
+     * @return the current contents of the histogram. Latencies recorded while the snapshot
+     * is being taken may or may not be included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return new Snapshot(counts, this.totalNanos.sum());
+    }
+
+    /**
+     * Immutable contents of a latency histogram.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+
+        private Snapshot(long[] counts, long totalNanos) {
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+            this.totalNanos = totalNanos;
+        }
+
+        /**
+         * @return number of latencies recorded
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return mean latency in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getMeanNanos() {
+            return this.count == 0 ? 0 : this.totalNanos / this.count;
+        }
+
+        /**
+         * Gets an upper bound on a percentile of the recorded latencies: the upper end of
+         * the bucket that the percentile falls in.
+         * @param percentile percentile, between 0 and 100
+         * @return upper bound on the percentile in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * this.count);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                seen += this.counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+
+/**
+ * Partition handle that accesses the OS file through memory mapped segments instead
+ * of positional FileChannel reads and writes, so that reading or writing a page is a
+ * copy to/from the mapping rather than a system call.
+ *
+ * The file is mapped in segments of SEGMENT_SIZE bytes, which are mapped on first
+ * access. Mapping a segment past the end of the file grows the file to the end of the
+ * segment, so the file is truncated back to its logical length (the end of the last
+ * page written) when the partition is closed. The on-disk format is identical to that
+ * of a regular partition handle.
+ */
+class MappedPartitionHandle extends PartitionHandle {
+    // Size of each mapped segment. Must be a multiple of the page size, so that
+    // no page straddles two segments.
+    static final int SEGMENT_SIZE = 8192 * PAGE_SIZE;
+
+    // Mapped segments of the OS file; segment i covers [i * SEGMENT_SIZE, (i + 1) * SEGMENT_SIZE).
+    // Entries are null until the segment is first accessed.
+    private List<MappedByteBuffer> segments;
+
+    // Offset of the end of the last page of the partition (as opposed to the size of the
+    // OS file, which is rounded up to a segment boundary once mapped), or -1 if
+    // no segment has been mapped yet.
+    private long logicalLength;
+
+    MappedPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        super(partNum, recoveryManager, syncOnWrite);
+        this.segments = new ArrayList<>();
+        this.logicalLength = -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.partitionLock.lock();
+        try {
+            this.segments.clear();
+            if (this.logicalLength >= 0 && this.fileChannel.size() > this.logicalLength) {
+                try {
+                    this.fileChannel.truncate(this.logicalLength);
+                } catch (IOException e) {
+                    // Some platforms do not allow truncating a file that is still mapped;
+                    // the extra zeroed space is harmless, so leave the file as is.
+                }
+            }
+        } finally {
+            this.partitionLock.unlock();
+        }
+        super.close();
+    }
+
+    @Override
+    void read(ByteBuffer b, long offset) throws IOException {
+        ByteBuffer src = this.slice(offset, b.remaining());
+        b.put(src);
+    }
+
+    @Override
+    void read(ByteBuffer[] bs, long offset) throws IOException {
+        for (ByteBuffer b : bs) {
+            int length = b.remaining();
+            this.read(b, offset);
+            offset += length;
+        }
+    }
+
+    @Override
+    void write(ByteBuffer b, long offset) throws IOException {
+        int length = b.remaining();
+        ByteBuffer dst = this.slice(offset, length);
+        dst.put(b);
+        this.logicalLength = Math.max(this.logicalLength, offset + length);
+    }
+
+    @Override
+    void force() throws IOException {
+        for (MappedByteBuffer segment : this.segments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Returns a view of length bytes of the mapping, starting at the given offset.
+     * The range must not cross a segment boundary.
+     */
+    private ByteBuffer slice(long offset, int length) throws IOException {
+        int segmentIndex = (int) (offset / SEGMENT_SIZE);
+        int segmentOffset = (int) (offset % SEGMENT_SIZE);
+        if (segmentOffset + length > SEGMENT_SIZE) {
+            throw new PageException("access at offset " + offset + " crosses a segment boundary");
+        }
+        ByteBuffer view = this.getSegment(segmentIndex).duplicate();
+        view.position(segmentOffset);
+        view.limit(segmentOffset + length);
+        return view;
+    }
+
+    /**
+     * Gets a segment of the file, mapping it (and growing the file) if necessary.
+     */
+    private MappedByteBuffer getSegment(int segmentIndex) throws IOException {
+        if (this.logicalLength < 0) {
+            // must be read before the first mapping grows the file
+            this.logicalLength = this.fileChannel.size();
+        }
+        while (this.segments.size() <= segmentIndex) {
+            this.segments.add(null);
+        }
+        MappedByteBuffer segment = this.segments.get(segmentIndex);
+        if (segment == null) {
+            long position = (long) segmentIndex * SEGMENT_SIZE;
+            segment = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE);
+            this.segments.set(segmentIndex, segment);
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,168 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+
+/**
+ * A small, fast LZ77-style codec for data pages, in the spirit of LZ4's block format.
+ * Pages of fixed-width records are mostly NUL padding, which compresses to a few bytes
+ * per run.
+ *
+ * Compressed data is a sequence of sequences, each consisting of:
+ * - a token byte: the high 4 bits are the number of literals, the low 4 bits are the
+ *   match length minus MIN_MATCH (15 in either field means the length continues in
+ *   extra bytes, each adding up to 255, ended by a byte that is not 255)
+ * - the extra literal length bytes, if any
+ * - the literals themselves
+ * - a 2 byte little-endian offset back into the decompressed output where the match starts
+ * - the extra match length bytes, if any
+ * The last sequence only has literals (and no offset), and ends the compressed data.
+ *
+ * Instances are not thread-safe, since the match table is reused between calls.
+ */
+class PageCompressor {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 12;
+
+    // Position + 1 of the last occurrence of each hashed 4 byte sequence (0 if none).
+    private final int[] matchTable = new int[1 << HASH_BITS];
+
+    /**
+     * Compresses src into dst.
+     * @param src bytes to compress
+     * @param dst output buffer
+     * @return number of bytes written to dst, or -1 if the compressed data does not fit in dst
+     */
+    int compress(byte[] src, byte[] dst) {
+        Arrays.fill(this.matchTable, 0);
+        int anchor = 0;
+        int srcPos = 0;
+        int dstPos = 0;
+        while (srcPos + MIN_MATCH <= src.length) {
+            int sequence = readInt(src, srcPos);
+            int hash = (sequence * -1640531535) >>> (Integer.SIZE - HASH_BITS);
+            int ref = this.matchTable[hash] - 1;
+            this.matchTable[hash] = srcPos + 1;
+            if (ref < 0 || srcPos - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ++srcPos;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (srcPos + matchLength < src.length && src[ref + matchLength] == src[srcPos + matchLength]) {
+                ++matchLength;
+            }
+            dstPos = writeSequence(src, anchor, srcPos - anchor, srcPos - ref, matchLength, dst, dstPos);
+            if (dstPos < 0) {
+                return -1;
+            }
+            srcPos += matchLength;
+            anchor = srcPos;
+        }
+        return writeSequence(src, anchor, src.length - anchor, 0, 0, dst, dstPos);
+    }
+
+    /**
+     * Decompresses src[0, srcLength) into dst, which must be exactly filled.
+     * @param src compressed bytes
+     * @param srcLength number of compressed bytes
+     * @param dst output buffer, the size of the original data
+     */
+    void decompress(byte[] src, int srcLength, byte[] dst) {
+        try {
+            int srcPos = 0;
+            int dstPos = 0;
+            while (srcPos < srcLength) {
+                int token = src[srcPos++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[srcPos++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, srcPos, dst, dstPos, literalLength);
+                srcPos += literalLength;
+                dstPos += literalLength;
+                if (srcPos >= srcLength) {
+                    break;
+                }
+
+                int offset = (src[srcPos] & 0xFF) | ((src[srcPos + 1] & 0xFF) << 8);
+                srcPos += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[srcPos++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || offset > dstPos) {
+                    throw new PageException("corrupt compressed page: bad match offset " + offset);
+                }
+                // byte by byte, since the match may overlap the bytes it produces
+                for (int ref = dstPos - offset; matchLength > 0; --matchLength) {
+                    dst[dstPos++] = dst[ref++];
+                }
+            }
+            if (dstPos != dst.length) {
+                throw new PageException("corrupt compressed page: decompressed to " + dstPos + " bytes");
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new PageException("corrupt compressed page: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a sequence of literalLength literals from src[literalStart, ...) followed by a match
+     * (omitted if matchLength is 0).
+     * @return position in dst after the sequence, or -1 if it does not fit
+     */
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset,
+                                     int matchLength, byte[] dst, int dstPos) {
+        int extraMatch = matchLength - MIN_MATCH;
+        int size = 1 + literalLength + (literalLength >= 15 ? (literalLength - 15) / 255 + 1 : 0);
+        if (matchLength > 0) {
+            size += 2 + (extraMatch >= 15 ? (extraMatch - 15) / 255 + 1 : 0);
+        }
+        if (dstPos + size > dst.length) {
+            return -1;
+        }
+
+        int token = Math.min(literalLength, 15) << 4;
+        if (matchLength > 0) {
+            token |= Math.min(extraMatch, 15);
+        }
+        dst[dstPos++] = (byte) token;
+        dstPos = writeLength(literalLength, dst, dstPos);
+        System.arraycopy(src, literalStart, dst, dstPos, literalLength);
+        dstPos += literalLength;
+        if (matchLength > 0) {
+            dst[dstPos++] = (byte) offset;
+            dst[dstPos++] = (byte) (offset >>> 8);
+            dstPos = writeLength(extraMatch, dst, dstPos);
+        }
+        return dstPos;
+    }
+
+    // Writes the extra bytes of a length field, if it does not fit in the token.
+    private static int writeLength(int length, byte[] dst, int dstPos) {
+        if (length < 15) {
+            return dstPos;
+        }
+        length -= 15;
+        while (length >= 255) {
+            dst[dstPos++] = (byte) 255;
+            length -= 255;
+        }
+        dst[dstPos++] = (byte) length;
+        return dstPos;
+    }
+
+    private static int readInt(byte[] bytes, int pos) {
+        return (bytes[pos] & 0xFF) | ((bytes[pos + 1] & 0xFF) << 8) | ((bytes[pos + 2] & 0xFF) << 16)
+               | ((bytes[pos + 3] & 0xFF) << 24);
+    }
+}
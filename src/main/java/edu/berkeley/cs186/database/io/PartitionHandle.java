@@ -9,21 +9,27 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
+import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.EXTENT_SIZE;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
 
 class PartitionHandle implements AutoCloseable {
+    // Number of 64-bit words in a header page's bitmap.
+    private static final int WORDS_PER_HEADER = DATA_PAGES_PER_HEADER / Long.SIZE;
+
     // Lock on the partition.
     ReentrantLock partitionLock;
 
     // Underlying OS file/file channel.
     private RandomAccessFile file;
-    private FileChannel fileChannel;
+    FileChannel fileChannel;
 
     // Contents of the master page of this partition
     // Ideally would be an unsigned short array but Java doesn't have unsigned types
@@ -32,18 +38,40 @@ class PartitionHandle implements AutoCloseable {
     // Contents of the various header pages of this partition
     private byte[][] headerPages;
 
+    // Index of the first 64-bit word of each header page's bitmap that may have a zero bit;
+    // every word before it is known to be full. Only kept in memory.
+    private int[] firstFreeWordHint;
+
     // Recovery manager
     private RecoveryManager recoveryManager;
 
     // Partition number
     private int partNum;
 
-    PartitionHandle(int partNum, RecoveryManager recoveryManager) {
+    // Whether every data page write is immediately forced to disk. If false,
+    // writes only reach the OS page cache until the next call to sync().
+    private boolean syncOnWrite;
+
+    // Extent (run of free data pages [extentNext, extentEnd)) that allocPage() currently
+    // hands pages out from, so that consecutively allocated pages are adjacent on disk.
+    // The reservation only exists in memory: reserved pages stay free in the header pages,
+    // so the unused tail of an extent is released simply by forgetting about it.
+    private int extentNext;
+    private int extentEnd;
+
+    // I/O done on data pages of the partition. Replaced by the disk space manager, which
+    // keeps the statistics of a partition around after the partition is freed.
+    IOStats stats;
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
         this.masterPage = new int[MAX_HEADER_PAGES];
         this.headerPages = new byte[MAX_HEADER_PAGES][];
+        this.firstFreeWordHint = new int[MAX_HEADER_PAGES];
         this.partitionLock = new ReentrantLock();
         this.recoveryManager = recoveryManager;
         this.partNum = partNum;
+        this.syncOnWrite = syncOnWrite;
+        this.stats = new IOStats();
     }
 
     /**
@@ -62,7 +90,7 @@ class PartitionHandle implements AutoCloseable {
             } else {
                 // old file, read in master page + header pages
                 ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-                this.fileChannel.read(b, PartitionHandle.masterPageOffset());
+                this.read(b, PartitionHandle.masterPageOffset());
                 b.position(0);
                 for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
                     this.masterPage[i] = Short.toUnsignedInt(b.getShort());
@@ -70,7 +98,10 @@ class PartitionHandle implements AutoCloseable {
                         // Load header pages that were already in the file
                         byte[] headerPage = new byte[PAGE_SIZE];
                         this.headerPages[i] = headerPage;
-                        this.fileChannel.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
+                        this.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
+                        // recount rather than trust the stored count, which older versions
+                        // computed incorrectly (counting the sign extension of each byte)
+                        this.masterPage[i] = PartitionHandle.countAllocated(headerPage);
                     }
                 }
             }
@@ -100,7 +131,7 @@ class PartitionHandle implements AutoCloseable {
             b.putShort((short) masterPage[i]);
         }
         b.position(0);
-        this.fileChannel.write(b, PartitionHandle.masterPageOffset());
+        this.write(b, PartitionHandle.masterPageOffset());
     }
 
     /**
@@ -109,14 +140,57 @@ class PartitionHandle implements AutoCloseable {
      */
     private void writeHeaderPage(int headerIndex) throws IOException {
         ByteBuffer b = ByteBuffer.wrap(this.headerPages[headerIndex]);
-        this.fileChannel.write(b, PartitionHandle.headerPageOffset(headerIndex));
+        this.write(b, PartitionHandle.headerPageOffset(headerIndex));
     }
 
     /**
-     * Allocates a new page in the partition.
+     * Writes the changes to a header page's bitmap, and its entry in the master page, to
+     * the OS file (but does not force them to disk). Allocations and frees must reach the
+     * file right away, since recovery does not redo those logged before the last
+     * checkpoint; only the bytes that changed are written, except for a header page that
+     * was just created, which is written whole.
+     * @param headerIndex which header page
+     * @param firstPageIndex index within header page of the first page that changed
+     * @param count number of consecutive pages that changed
+     * @param newHeader whether the header page was created by this change
+     */
+    private void headerPageChanged(int headerIndex, int firstPageIndex, int count, boolean newHeader)
+            throws IOException {
+        if (newHeader) {
+            this.writeHeaderPage(headerIndex);
+        } else {
+            int firstByte = firstPageIndex / Byte.SIZE;
+            int lastByte = (firstPageIndex + count - 1) / Byte.SIZE;
+            ByteBuffer b = ByteBuffer.wrap(this.headerPages[headerIndex], firstByte, lastByte - firstByte + 1);
+            this.write(b, PartitionHandle.headerPageOffset(headerIndex) + firstByte);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(Short.BYTES);
+        entry.putShort(0, (short) this.masterPage[headerIndex]);
+        this.write(entry, PartitionHandle.masterPageOffset() + (long) headerIndex * Short.BYTES);
+    }
+
+    /**
+     * Allocates a new page in the partition. Pages are handed out in order from an extent
+     * of EXTENT_SIZE adjacent free pages, and a new extent is reserved once the current
+     * one is used up.
      * @return data page number
      */
     int allocPage() throws IOException {
+        while (this.extentNext < this.extentEnd) {
+            int pageNum = this.extentNext++;
+            // pages of the extent may have been allocated by page number since it was reserved
+            if (this.isNotAllocatedPage(pageNum)) {
+                return this.allocPage(pageNum / DATA_PAGES_PER_HEADER, pageNum % DATA_PAGES_PER_HEADER);
+            }
+        }
+        int extentStart = this.findFreeRun(EXTENT_SIZE);
+        if (extentStart != -1) {
+            this.extentNext = extentStart + 1;
+            this.extentEnd = extentStart + EXTENT_SIZE;
+            return this.allocPage(extentStart / DATA_PAGES_PER_HEADER, extentStart % DATA_PAGES_PER_HEADER);
+        }
+
+        // not enough contiguous space left for an extent, use the first free page
         int headerIndex = -1;
         for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
             if (this.masterPage[i] < DATA_PAGES_PER_HEADER) {
@@ -128,21 +202,9 @@ class PartitionHandle implements AutoCloseable {
             throw new PageException("no free pages - partition has reached max size");
         }
 
-        byte[] headerBytes = this.headerPages[headerIndex];
-
-        int pageIndex = -1;
-        if (headerBytes == null) {
-            pageIndex = 0;
-        } else {
-            for (int i = 0; i < DATA_PAGES_PER_HEADER; i++) {
-                if (Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) {
-                    pageIndex = i;
-                    break;
-                }
-            }
-            if (pageIndex == -1) {
-                throw new PageException("header page should have free space, but doesn't");
-            }
+        int pageIndex = this.firstFreePage(headerIndex);
+        if (pageIndex == -1) {
+            throw new PageException("header page should have free space, but doesn't");
         }
 
         return this.allocPage(headerIndex, pageIndex);
@@ -155,6 +217,45 @@ class PartitionHandle implements AutoCloseable {
      * @return data page number
      */
     int allocPage(int headerIndex, int pageIndex) throws IOException {
+        boolean newHeader = this.headerPages[headerIndex] == null;
+        int pageNum = this.markAllocated(headerIndex, pageIndex);
+        ++this.masterPage[headerIndex];
+        this.headerPageChanged(headerIndex, pageIndex, 1, newHeader);
+
+        return pageNum;
+    }
+
+    /**
+     * Allocates count new data pages that are adjacent in the OS file. The pages are
+     * taken from a single header page, so count may not exceed the number of data
+     * pages per header page.
+     * @param count number of pages to allocate
+     * @return data page number of the first page
+     */
+    int allocExtent(int count) throws IOException {
+        int firstPageNum = this.findFreeRun(count);
+        if (firstPageNum == -1) {
+            throw new PageException("no run of " + count + " free pages - partition is too full or fragmented");
+        }
+        int headerIndex = firstPageNum / DATA_PAGES_PER_HEADER;
+        boolean newHeader = this.headerPages[headerIndex] == null;
+        for (int i = 0; i < count; ++i) {
+            this.markAllocated(headerIndex, firstPageNum % DATA_PAGES_PER_HEADER + i);
+        }
+        this.masterPage[headerIndex] += count;
+        this.headerPageChanged(headerIndex, firstPageNum % DATA_PAGES_PER_HEADER, count, newHeader);
+
+        return firstPageNum;
+    }
+
+    /**
+     * Marks a data page as allocated in its header page (in memory only), and logs the
+     * allocation. Does not update the master page.
+     * @param headerIndex index of header page managing new page
+     * @param pageIndex index within header page of new page
+     * @return data page number
+     */
+    private int markAllocated(int headerIndex, int pageIndex) {
         byte[] headerBytes = this.headerPages[headerIndex];
         if (headerBytes == null) {
             headerBytes = new byte[PAGE_SIZE];
@@ -168,7 +269,6 @@ class PartitionHandle implements AutoCloseable {
         }
 
         Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
-        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
 
         int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
 
@@ -178,12 +278,119 @@ class PartitionHandle implements AutoCloseable {
             recoveryManager.logAllocPage(transaction.getTransNum(), vpn);
         }
         recoveryManager.diskIOHook(vpn);
-        this.writeMasterPage();
-        this.writeHeaderPage(headerIndex);
 
         return pageNum;
     }
 
+    /**
+     * Finds a run of count free data pages managed by a single header page (and hence
+     * adjacent in the OS file). The run right after the current extent is preferred, so
+     * that successive extents are adjacent as well.
+     * @param count length of run to find
+     * @return data page number of the first page of the run, or -1 if there is no such run
+     */
+    private int findFreeRun(int count) {
+        if (this.extentEnd > 0 && this.isFreeRun(this.extentEnd, count)) {
+            return this.extentEnd;
+        }
+        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+            if (DATA_PAGES_PER_HEADER - this.masterPage[i] < count) {
+                continue;
+            }
+            byte[] headerBytes = this.headerPages[i];
+            if (headerBytes == null) {
+                return i * DATA_PAGES_PER_HEADER;
+            }
+            // runs are tracked a word at a time, except across partially allocated words
+            int runLength = 0;
+            for (int w = this.firstFreeWordHint[i]; w < WORDS_PER_HEADER; ++w) {
+                long word = PartitionHandle.getWord(headerBytes, w);
+                if (word == 0L) {
+                    runLength += Long.SIZE;
+                    if (runLength >= count) {
+                        return i * DATA_PAGES_PER_HEADER + (w + 1) * Long.SIZE - runLength;
+                    }
+                } else if (word == -1L) {
+                    runLength = 0;
+                } else {
+                    for (int j = 0; j < Long.SIZE; ++j) {
+                        if (word < 0) {
+                            runLength = 0;
+                        } else if (++runLength == count) {
+                            return i * DATA_PAGES_PER_HEADER + w * Long.SIZE + j - count + 1;
+                        }
+                        word <<= 1;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first free data page managed by a header page, and advances the header
+     * page's first free word hint to it.
+     * @param headerIndex which header page
+     * @return index within header page of the first free page, or -1 if all pages are allocated
+     */
+    private int firstFreePage(int headerIndex) {
+        byte[] headerBytes = this.headerPages[headerIndex];
+        if (headerBytes == null) {
+            return 0;
+        }
+        for (int w = this.firstFreeWordHint[headerIndex]; w < WORDS_PER_HEADER; ++w) {
+            long word = PartitionHandle.getWord(headerBytes, w);
+            if (word != -1L) {
+                this.firstFreeWordHint[headerIndex] = w;
+                // bit 0 of the bitmap is the most significant bit of the first word
+                return w * Long.SIZE + Long.numberOfLeadingZeros(~word);
+            }
+        }
+        this.firstFreeWordHint[headerIndex] = WORDS_PER_HEADER;
+        return -1;
+    }
+
+    /**
+     * Gets the w-th 64-bit word of a header page's bitmap. Bitmaps (see Bits) store the
+     * bit for the first page in the most significant bit of the first byte, so page
+     * w * 64 + j corresponds to bit 63 - j of the word.
+     */
+    private static long getWord(byte[] headerBytes, int w) {
+        long word = 0;
+        for (int i = w * Long.BYTES; i < (w + 1) * Long.BYTES; ++i) {
+            word = (word << 8) | (headerBytes[i] & 0xFF);
+        }
+        return word;
+    }
+
+    /**
+     * @return number of allocated data pages in a header page's bitmap
+     */
+    private static int countAllocated(byte[] headerBytes) {
+        int count = 0;
+        for (int w = 0; w < WORDS_PER_HEADER; ++w) {
+            count += Long.bitCount(PartitionHandle.getWord(headerBytes, w));
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the count data pages starting at firstPageNum are all free and
+     * managed by a single header page
+     */
+    private boolean isFreeRun(int firstPageNum, int count) {
+        int lastPageNum = firstPageNum + count - 1;
+        if (firstPageNum / DATA_PAGES_PER_HEADER != lastPageNum / DATA_PAGES_PER_HEADER) {
+            return false;
+        }
+        for (int pageNum = firstPageNum; pageNum <= lastPageNum; ++pageNum) {
+            if (!this.isNotAllocatedPage(pageNum)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Frees a page in the partition from use.
      * @param pageNum data page number to be freed
@@ -205,7 +412,7 @@ class PartitionHandle implements AutoCloseable {
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         if (transaction != null) {
             byte[] contents = new byte[PAGE_SIZE];
-            readPage(pageNum, contents);
+            readPage(pageNum, ByteBuffer.wrap(contents));
             int halfway = BufferManager.RESERVED_SPACE + BufferManager.EFFECTIVE_PAGE_SIZE / 2;
             recoveryManager.logPageWrite(
                     transaction.getTransNum(),
@@ -225,41 +432,199 @@ class PartitionHandle implements AutoCloseable {
         }
         recoveryManager.diskIOHook(vpn);
         Bits.setBit(headerBytes, pageIndex, Bits.Bit.ZERO);
-        this.masterPage[headerIndex] = Bits.countBits(headerBytes);
-        this.writeMasterPage();
-        this.writeHeaderPage(headerIndex);
+        --this.masterPage[headerIndex];
+        this.firstFreeWordHint[headerIndex] = Math.min(this.firstFreeWordHint[headerIndex], pageIndex / Long.SIZE);
+        this.headerPageChanged(headerIndex, pageIndex, 1, false);
     }
 
     /**
      * Reads in a data page. Assumes that the partition lock is held.
      * @param pageNum data page number to read in
-     * @param buf output buffer to be filled with page - assumed to be page size
+     * @param buf output buffer to be filled with page - assumed to have page size bytes
+     *            remaining, which are consumed
      */
-    void readPage(int pageNum, byte[] buf) throws IOException {
+    void readPage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.read(b, PartitionHandle.dataPageOffset(pageNum));
+        long start = System.nanoTime();
+        this.readData(pageNum, buf);
+        this.stats.recordRead(PAGE_SIZE, System.nanoTime() - start);
+    }
+
+    /**
+     * Reads in a run of consecutive data pages. Data pages are only contiguous in the OS
+     * file up to the next header page, so one scattering read is issued per header page
+     * the run spans. Assumes that the partition lock is held.
+     * @param firstPageNum data page number of first page to read in
+     * @param count number of pages to read in
+     * @param bufs output buffers to be filled with the pages - assumed to have page size
+     *             bytes remaining, which are consumed
+     */
+    void readPages(int firstPageNum, int count, ByteBuffer[] bufs) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            if (this.isNotAllocatedPage(firstPageNum + i)) {
+                throw new PageException("page " + (firstPageNum + i) + " is not allocated");
+            }
+        }
+        int i = 0;
+        while (i < count) {
+            int pageNum = firstPageNum + i;
+            int runLength = Math.min(count - i, DATA_PAGES_PER_HEADER - pageNum % DATA_PAGES_PER_HEADER);
+            ByteBuffer[] bs = Arrays.copyOfRange(bufs, i, i + runLength);
+            long start = System.nanoTime();
+            this.read(bs, PartitionHandle.dataPageOffset(pageNum));
+            this.stats.recordRead((long) runLength * PAGE_SIZE, System.nanoTime() - start);
+            i += runLength;
+        }
     }
 
     /**
      * Writes to a data page. Assumes that the partition lock is held.
      * @param pageNum data page number to write to
-     * @param buf input buffer with new contents of page - assumed to be page size
+     * @param buf input buffer with new contents of page - assumed to have page size bytes
+     *            remaining, which are consumed
      */
-    void writePage(int pageNum, byte[] buf) throws IOException {
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
+        this.writePage(pageNum, buf, true);
+    }
+
+    /**
+     * Writes to a data page. Assumes that the partition lock is held.
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page - assumed to have page size bytes
+     *            remaining, which are consumed
+     * @param sync whether to force the write to disk if syncOnWrite is set; if false, the
+     *             caller syncs the partition once it is done writing
+     */
+    void writePage(int pageNum, ByteBuffer buf, boolean sync) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.write(b, PartitionHandle.dataPageOffset(pageNum));
-        this.fileChannel.force(false);
+        long start = System.nanoTime();
+        this.writeData(pageNum, buf);
+        this.stats.recordWrite(PAGE_SIZE, System.nanoTime() - start);
+        if (this.syncOnWrite && sync) {
+            this.timedForce();
+        }
 
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Zeroes out a run of consecutive data pages. Assumes that the partition lock is held.
+     * @param firstPageNum data page number of first page to zero out
+     * @param count number of pages to zero out
+     */
+    void zeroPages(int firstPageNum, int count) throws IOException {
+        byte[] zeroes = new byte[PAGE_SIZE];
+        for (int pageNum = firstPageNum; pageNum < firstPageNum + count; ++pageNum) {
+            if (this.isNotAllocatedPage(pageNum)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+            long start = System.nanoTime();
+            this.writeData(pageNum, ByteBuffer.wrap(zeroes));
+            this.stats.recordWrite(PAGE_SIZE, System.nanoTime() - start);
+            recoveryManager.diskIOHook(DiskSpaceManager.getVirtualPageNum(partNum, pageNum));
+        }
+        if (this.syncOnWrite) {
+            this.timedForce();
+        }
+    }
+
+    /**
+     * Forces all writes to this partition (data, header, and master pages) to
+     * disk. Assumes that the partition lock is held.
+     */
+    void sync() throws IOException {
+        this.timedForce();
+    }
+
+    /**
+     * Forces all writes to the OS file to disk, and records the sync.
+     */
+    private void timedForce() throws IOException {
+        long start = System.nanoTime();
+        this.force();
+        this.stats.recordSync(System.nanoTime() - start);
+    }
+
+    /**
+     * Reads the stored contents of an allocated data page. All data page reads, except
+     * for multi-page reads (readPages), go through this method.
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page - assumed to have page size bytes
+     *            remaining, which are consumed
+     */
+    void readData(int pageNum, ByteBuffer buf) throws IOException {
+        this.read(buf, PartitionHandle.dataPageOffset(pageNum));
+    }
+
+    /**
+     * Stores the contents of an allocated data page. All data page writes go through
+     * this method.
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page - assumed to have page size bytes
+     *            remaining, which are consumed
+     */
+    void writeData(int pageNum, ByteBuffer buf) throws IOException {
+        this.write(buf, PartitionHandle.dataPageOffset(pageNum));
+    }
+
+    /**
+     * @return ratio of the size of the partition's data pages to the space they take up
+     * on disk (1 unless the partition is compressed)
+     */
+    double compressionRatio() {
+        return 1.0;
+    }
+
+    /**
+     * Reads from the OS file into b, starting at the given offset. All reads of the
+     * OS file go through this method.
+     * @param b buffer to fill
+     * @param offset offset in OS file to start reading at
+     */
+    void read(ByteBuffer b, long offset) throws IOException {
+        this.fileChannel.read(b, offset);
+    }
+
+    /**
+     * Reads a contiguous range of the OS file, starting at the given offset, into the
+     * buffers bs in order.
+     * @param bs buffers to fill
+     * @param offset offset in OS file to start reading at
+     */
+    void read(ByteBuffer[] bs, long offset) throws IOException {
+        // scattering reads are not positional, but the partition lock is held, and
+        // nothing else depends on the channel's position
+        this.fileChannel.position(offset);
+        ByteBuffer last = bs[bs.length - 1];
+        while (last.hasRemaining()) {
+            if (this.fileChannel.read(bs) < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the contents of b to the OS file, starting at the given offset. All writes
+     * to the OS file go through this method.
+     * @param b buffer to write
+     * @param offset offset in OS file to start writing at
+     */
+    void write(ByteBuffer b, long offset) throws IOException {
+        this.fileChannel.write(b, offset);
+    }
+
+    /**
+     * Forces all writes to the OS file to disk.
+     */
+    void force() throws IOException {
+        this.fileChannel.force(false);
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
@@ -282,16 +647,30 @@ class PartitionHandle implements AutoCloseable {
      * @throws IOException
      */
     void freeDataPages() throws IOException {
+        for (int pageNum : this.allocatedPages()) {
+            this.freePage(pageNum);
+        }
+    }
+
+    /**
+     * @return data page numbers of all allocated data pages, in increasing order
+     */
+    List<Integer> allocatedPages() {
+        List<Integer> pageNums = new ArrayList<>();
         for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
             if (masterPage[i] > 0) {
                 byte[] headerPage = headerPages[i];
-                for (int j = 0; j < DATA_PAGES_PER_HEADER; ++j) {
-                    if (Bits.getBit(headerPage, j) == Bits.Bit.ONE) {
-                        this.freePage(i * DATA_PAGES_PER_HEADER + j);
+                for (int w = 0; w < WORDS_PER_HEADER; ++w) {
+                    long word = PartitionHandle.getWord(headerPage, w);
+                    while (word != 0L) {
+                        int j = Long.numberOfLeadingZeros(word);
+                        pageNums.add(i * DATA_PAGES_PER_HEADER + w * Long.SIZE + j);
+                        word &= ~(Long.MIN_VALUE >>> j);
                     }
                 }
             }
         }
+        return pageNums;
     }
 
     /**
@@ -0,0 +1,17 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * Ways in which a database's partitions can be stored.
+ */
+public enum StorageBackend {
+    // Partitions are OS files, accessed with positional FileChannel reads and writes.
+    FILE_CHANNEL,
+    // Partitions are OS files, accessed through memory mapped segments of the files.
+    MEMORY_MAPPED,
+    // Partitions are only kept in memory (see InMemoryDiskSpaceManager), and are lost
+    // when the database is closed. The database directory is not used.
+    IN_MEMORY,
+    // Partitions are kept in memory, but are loaded from the database directory when the
+    // database is opened, and a snapshot is stored there when the database is closed.
+    IN_MEMORY_SNAPSHOT
+}
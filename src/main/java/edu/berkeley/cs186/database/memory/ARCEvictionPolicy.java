@@ -0,0 +1,234 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implementation of the ARC (adaptive replacement cache) eviction policy (Megiddo and
+ * Modha). Loaded pages are kept in two LRU lists: T1 for pages referenced once, and T2
+ * for pages referenced at least twice. The page numbers of pages evicted from each list
+ * are remembered in ghost lists B1 and B2, and a page loaded again while in a ghost list
+ * adapts the target size of T1: a page found in B1 means T1 was too small, a page found in
+ * B2 means T2 was. Pages read once by a scan only ever enter T1, so they cannot flush
+ * out T2 beyond what the adaptation allows.
+ *
+ * Hits within a correlated reference period of the page's last hit, in the logical time of
+ * LRUKEvictionPolicy, do not move pages from T1 to T2, so the fetches a scan makes to each
+ * page (one per record) count as a single reference; neither does the first hit on a page
+ * loaded ahead of its fetch. Unlike in the original algorithm, the page being loaded is not
+ * known when a page is evicted, so the victim is picked from T1 whenever T1 is larger than
+ * its target size.
+ *
+ * Methods are synchronized, since the buffer manager reports hits without holding its lock.
+ */
+public class ARCEvictionPolicy implements EvictionPolicy {
+    private static final Object T1 = "T1";
+    private static final Object T2 = "T2";
+
+    private final int correlatedPeriod;
+    // Logical time, incremented on every load and every hit of another page than the last
+    private long time;
+    // Page number of the page last loaded or hit
+    private long lastPageNum = DiskSpaceManager.INVALID_PAGE_NUM;
+
+    // Loaded frames, in order of least to most recently used; T1 maps each frame to the
+    // time of its last hit
+    private final LinkedHashMap<BufferFrame, Long> t1 = new LinkedHashMap<>();
+    private final LinkedHashSet<BufferFrame> t2 = new LinkedHashSet<>();
+    // Page numbers of pages evicted from T1 and T2, in order of eviction
+    private final LinkedHashSet<Long> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<Long> b2 = new LinkedHashSet<>();
+
+    // Target size of T1
+    private int target;
+    // Number of frames, set by the buffer manager
+    private int capacity;
+
+    /**
+     * Creates an ARC policy with the default correlated reference period of LRU-K.
+     */
+    public ARCEvictionPolicy() {
+        this(LRUKEvictionPolicy.DEFAULT_CORRELATED_PERIOD);
+    }
+
+    /**
+     * @param correlatedPeriod logical time after a page's last hit during which hits on the
+     *                         page are correlated
+     */
+    public ARCEvictionPolicy(int correlatedPeriod) {
+        if (correlatedPeriod < 0) {
+            throw new IllegalArgumentException("correlated reference period must not be negative");
+        }
+        this.correlatedPeriod = correlatedPeriod;
+    }
+
+    /**
+     * Called when the buffer is created and whenever it is resized.
+     * @param numFrames number of frames in the buffer
+     */
+    @Override
+    public synchronized void setCapacity(int numFrames) {
+        this.capacity = numFrames;
+        this.target = Math.min(this.target, numFrames);
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        long pageNum = frame.getPageNum();
+        this.lastPageNum = pageNum;
+        ++this.time;
+        if (this.b1.contains(pageNum)) {
+            int delta = this.b1.size() >= this.b2.size() ? 1 : this.b2.size() / this.b1.size();
+            this.target = Math.min(this.capacity, this.target + delta);
+            this.b1.remove(pageNum);
+            this.addToT2(frame);
+        } else if (this.b2.contains(pageNum)) {
+            int delta = this.b2.size() >= this.b1.size() ? 1 : this.b1.size() / this.b2.size();
+            this.target = Math.max(0, this.target - delta);
+            this.b2.remove(pageNum);
+            this.addToT2(frame);
+        } else {
+            this.t1.put(frame, this.time);
+            frame.tag = T1;
+        }
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (frame.getPageNum() != this.lastPageNum) {
+            this.lastPageNum = frame.getPageNum();
+            ++this.time;
+        }
+        long now = this.time;
+        if (frame.tag == T2) {
+            frame.loadedAhead = false;
+            this.t2.remove(frame);
+            this.addToT2(frame);
+        } else if (frame.tag == T1) {
+            long last = this.t1.remove(frame);
+            if (frame.loadedAhead) {
+                // the page is referenced when it is first fetched, rather than when it was loaded
+                frame.loadedAhead = false;
+                this.t1.put(frame, now);
+            } else if (now - last > this.correlatedPeriod) {
+                this.addToT2(frame);
+            } else {
+                this.t1.put(frame, now);
+            }
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        BufferFrame evicted;
+        if (!this.t1.isEmpty() && (this.t1.size() > this.target || this.t2.isEmpty())) {
+            evicted = firstUnpinned(this.t1.keySet(), this.t2);
+        } else {
+            evicted = firstUnpinned(this.t2, this.t1.keySet());
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag == T1) {
+            this.t1.remove(frame);
+            this.b1.add(frame.getPageNum());
+        } else if (frame.tag == T2) {
+            this.t2.remove(frame);
+            this.b2.add(frame.getPageNum());
+        }
+        frame.tag = null;
+        // T1 and B1 together, and all four lists together, hold at most one and two
+        // buffers worth of pages respectively
+        trim(this.b1, Math.max(0, this.capacity - this.t1.size()));
+        trim(this.b2, Math.max(0, 2 * this.capacity - this.t1.size() - this.t2.size() - this.b1.size()));
+    }
+
+    /**
+     * Called to rank the loaded pages, e.g. to save the pages most worth loading again
+     * after a restart. Pages referenced once (T1) are ranked before pages
+     * referenced at least twice (T2).
+     * @param frames Array of all frames
+     * @return the valid frames, in the order the policy would evict them if none was pinned
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>(this.t1.keySet());
+        order.addAll(this.t2);
+        return order;
+    }
+
+    /**
+     * Called to report the policy's own bookkeeping.
+     * @param frames Array of all frames
+     * @return sizes of T1, T2, B1 and B2, and the target size of T1
+     */
+    @Override
+    public synchronized Map<String, Long> getStats(BufferFrame[] frames) {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("t1", (long) this.t1.size());
+        stats.put("t2", (long) this.t2.size());
+        stats.put("b1", (long) this.b1.size());
+        stats.put("b2", (long) this.b2.size());
+        stats.put("target", (long) this.target);
+        return stats;
+    }
+
+    private void addToT2(BufferFrame frame) {
+        this.t2.add(frame);
+        frame.tag = T2;
+    }
+
+    private static void trim(LinkedHashSet<Long> ghosts, int maxSize) {
+        Iterator<Long> iter = ghosts.iterator();
+        while (ghosts.size() > maxSize) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    private static BufferFrame firstUnpinned(Set<BufferFrame> first, Set<BufferFrame> second) {
+        for (BufferFrame frame : first) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        for (BufferFrame frame : second) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+}
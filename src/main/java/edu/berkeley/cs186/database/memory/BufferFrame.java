@@ -1,35 +1,100 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Buffer frame.
+ *
+ * Pinning a frame only keeps it from being evicted, and any number of threads may have
+ * a frame pinned at once; the pin count is updated atomically, without locking.
  */
 abstract class BufferFrame {
-    Object tag = null;
-    private int pinCount = 0;
+    // pin count of a frame that has been claimed for eviction, which can no longer be pinned
+    private static final int CLAIMED = -1;
+
+    // eviction policy's bookkeeping; volatile, since policies may set it without a lock
+    volatile Object tag = null;
+    // whether the page was loaded ahead of being fetched (by loadPages or prefetchPages) and
+    // not hit since, in which case eviction policies do not count the first hit as a second
+    // reference to the page
+    volatile boolean loadedAhead = false;
+    private final AtomicInteger pinCount = new AtomicInteger();
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
      * buffer frame gets pinned.
      */
     void pin() {
-        ++pinCount;
+        if (!tryPin()) {
+            throw new IllegalStateException("cannot pin frame claimed for eviction");
+        }
+    }
+
+    /**
+     * Pins the buffer frame, unless it has been claimed for eviction.
+     * @return whether the frame was pinned
+     */
+    boolean tryPin() {
+        int count;
+        do {
+            count = pinCount.get();
+            if (count == CLAIMED) {
+                return false;
+            }
+        } while (!pinCount.compareAndSet(count, count + 1));
+        if (count == 0) {
+            pinned();
+        }
+        return true;
     }
 
     /**
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
-            throw new IllegalStateException("cannot unpin unpinned frame");
+        int count;
+        do {
+            count = pinCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("cannot unpin unpinned frame");
+            }
+        } while (!pinCount.compareAndSet(count, count - 1));
+        if (count == 1) {
+            unpinned();
         }
-        --pinCount;
+    }
+
+    /**
+     * Called when an unpinned frame is pinned.
+     */
+    void pinned() {}
+
+    /**
+     * Called when the last pin of a frame is released.
+     */
+    void unpinned() {}
+
+    /**
+     * Claims the buffer frame for eviction, if it is not pinned. A claimed frame can never
+     * be pinned again, so the claim cannot race with a thread pinning the frame.
+     * @return whether the frame was claimed
+     */
+    boolean tryClaimForEviction() {
+        return pinCount.compareAndSet(0, CLAIMED);
+    }
+
+    /**
+     * @return whether the frame has been claimed for eviction
+     */
+    boolean isClaimed() {
+        return pinCount.get() == CLAIMED;
     }
 
     /**
      * @return whether this frame is pinned
      */
     boolean isPinned() {
-        return pinCount > 0;
+        return pinCount.get() > 0;
     }
 
     /**
@@ -47,6 +112,14 @@ abstract class BufferFrame {
      */
     abstract void flush();
 
+    /**
+     * Flushes this buffer frame like flush, but without forcing the write to disk; the
+     * caller must sync the page's partition afterwards.
+     */
+    void flushWithoutSync() {
+        flush();
+    }
+
     /**
      * Read from the buffer frame.
      * @param position position in buffer frame to start reading
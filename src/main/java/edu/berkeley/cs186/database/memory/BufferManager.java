@@ -8,17 +8,65 @@ import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
+import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.BiConsumer;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
- * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * Data is stored in page-sized slices of direct byte buffers, and returned in a Frame
+ * object specific to the page loaded (evicting and loading a new page into the frame will
+ * result in a new Frame object, with the same underlying slice), with old Frame objects
+ * backed by the same slice marked as invalid.
+ *
+ * The slices are carved out of a few large direct byte buffers (slabs) of up to
+ * PAGES_PER_SLAB pages each, allocated when the buffer manager is created, so that the
+ * contents of the buffer live off the Java heap (and do not add to the work of the garbage
+ * collector however large the buffer is), and pages are read from and written to disk
+ * without being copied through a temporary direct buffer.
+ *
+ * Fetching a page that is already loaded takes no lock: the page table is read without
+ * the manager lock (see PageTable), which is only taken to load, evict, or free pages, and
+ * frames are pinned with an atomic pin count. Frames are claimed for eviction atomically
+ * (see BufferFrame), so a frame is never evicted while a concurrent fetch pins it.
+ *
+ * The buffer can be grown or shrunk while in use (see resize). Frames added by growing
+ * the buffer first reuse the slots of the last slab left unused by shrinking it, and are
+ * then backed by new slabs. Shrinking the buffer releases the slabs that no longer back
+ * any frame, so memory is given back a whole slab at a time: up to PAGES_PER_SLAB pages
+ * may stay allocated beyond the end of the buffer (see getNumAllocatedFrames).
+ *
+ * A background page cleaner (see startPageCleaner) can be started to write dirty pages
+ * back before they are picked for eviction, so that fetches rarely have to write back
+ * a dirty page before reading the page they need.
+ *
+ * Evicting every page (evictAll) and closing the buffer manager first write back every
+ * dirty page at once (see flushAll): in file order, several partitions at a time, with a
+ * single sync per partition instead of one per page.
+ *
+ * Frames can be split into named pools (see addPool), each with its own size and eviction
+ * policy, and partitions assigned to a pool (see setPartitionPool), so that pages of one
+ * class of partitions (e.g. temporary tables) never evict pages of another (e.g. indices).
+ * Each named pool is a buffer manager of its own, owned by the buffer manager of the
+ * default pool; any of them routes accesses to a page to the pool of the page's partition.
+ *
+ * The page numbers of the loaded pages can be saved (see saveLoadedPages, and
+ * startSavingLoadedPages to save them periodically), and loaded again in the background
+ * after a restart (see warmUp), so that the buffer does not start out cold.
  */
 public class BufferManager implements AutoCloseable {
     // We reserve 36 bytes on each page for bookkeeping for recovery
@@ -29,16 +77,50 @@ public class BufferManager implements AutoCloseable {
     // Effective page size available to users of buffer manager.
     public static final short EFFECTIVE_PAGE_SIZE = (short) (DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE);
 
-    // Buffer frames
-    private Frame[] frames;
+    // Name of the pool of the partitions not assigned to a named pool (see addPool).
+    public static final String DEFAULT_POOL = "default";
+
+    // Maximum number of frames backed by a single slab.
+    static final int PAGES_PER_SLAB = 65536; // 256M per slab
+
+    // Maximum number of threads writing back pages at once in flushAll.
+    static final int FLUSH_THREADS = 4;
+
+    // Name of this pool
+    private final String poolName;
+
+    // Buffer manager of the default pool, which owns the named pools (this, for the default pool)
+    private final BufferManager defaultPool;
+
+    // Named pools, by name, in order of creation. Only used in the default pool, and
+    // replaced (under its manager lock) when a pool is added.
+    private volatile Map<String, BufferManager> namedPools = Collections.emptyMap();
+
+    // Named pool of each partition assigned to one, by partition number (null for partitions
+    // of the default pool). Only used in the default pool: replaced (under its manager lock)
+    // when partitions are assigned, and read without the lock to route page accesses.
+    private volatile BufferManager[] partitionPools = new BufferManager[0];
+
+    // Buffer frames. Replaced (under the manager lock) when the buffer is resized, and read
+    // without the manager lock by fetches of loaded pages.
+    private volatile Frame[] frames;
+
+    // Slabs backing the frames, in frame index order (each backing as many frames as it has
+    // pages, except maybe the last one when the buffer was shrunk). Only used while holding
+    // the manager lock.
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    // Number of frames the slabs can back.
+    private volatile int numAllocatedFrames;
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Map of page number to frame index. Read without the manager lock by fetches of loaded
+    // pages, but only modified while holding the manager lock.
+    private PageTable pageTable;
 
-    // Lock on buffer manager
+    // Lock on buffer manager. Not needed to fetch a page that is already loaded.
     private ReentrantLock managerLock;
 
     // Eviction policy
@@ -50,25 +132,291 @@ public class BufferManager implements AutoCloseable {
     // Recovery manager
     private RecoveryManager recoveryManager;
 
-    // Count of number of I/Os
-    private long numIOs = 0;
+    // Count of number of I/Os (also updated by I/O threads, when asynchronous loads complete)
+    private final LongAdder numIOs = new LongAdder();
+
+    // Counters of the pool (see getStats)
+    private final Counters counters = new Counters(null);
+
+    // Counters of the pages of each partition in the pool, indexed by partition number (null
+    // if none of its pages were used yet). Replaced rather than modified, while holding the
+    // pool's counters' lock, so that counting does not take any lock.
+    private volatile Counters[] partitionCounters = new Counters[0];
+
+    // Background writer of dirty pages, or null if not running (see startPageCleaner)
+    private volatile PageCleaner pageCleaner;
+
+    // Background saver of the loaded pages, or null if not running (see startSavingLoadedPages)
+    private volatile LoadedPagesSaver loadedPagesSaver;
+
+    // Background load of saved pages, or null if none was started (see warmUp)
+    private volatile CompletableFuture<Void> warmUp;
+
+    // Set to stop the background load of saved pages
+    private volatile boolean warmUpStopped;
+
+    // Trace that fetched page numbers are recorded in, or null if not recording
+    private volatile PageReferenceTrace referenceTrace;
+
+    /**
+     * Counters of a pool, or of the pages of one partition in a pool, which also count in
+     * the pool's counters. Updated without holding the manager lock.
+     */
+    private static class Counters {
+        // counters of the pool, if these are a partition's
+        private final Counters pool;
+        // fetches of loaded pages (hits), fetches that read the page (misses), pages loaded
+        // ahead of being fetched (by loadPages/prefetch), pages evicted, and of those the
+        // pages that were dirty (and written back by the eviction), and dirty pages written back
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder prefetches = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder dirtyEvictions = new LongAdder();
+        private final LongAdder writebacks = new LongAdder();
+        // times frames went from unpinned to pinned and back, and the total time they stayed pinned
+        private final LongAdder pins = new LongAdder();
+        private final LongAdder pinNanos = new LongAdder();
+        // reads and writes that had to wait for a frame's latch, and the total time waited
+        private final LongAdder latchWaits = new LongAdder();
+        private final LongAdder latchWaitNanos = new LongAdder();
+
+        Counters(Counters pool) {
+            this.pool = pool;
+        }
+
+        void hit() {
+            this.hits.increment();
+            if (this.pool != null) {
+                this.pool.hit();
+            }
+        }
+
+        void missed() {
+            this.misses.increment();
+            if (this.pool != null) {
+                this.pool.missed();
+            }
+        }
+
+        void prefetched() {
+            this.prefetches.increment();
+            if (this.pool != null) {
+                this.pool.prefetched();
+            }
+        }
+
+        void evicted(boolean dirty) {
+            this.evictions.increment();
+            if (dirty) {
+                this.dirtyEvictions.increment();
+            }
+            if (this.pool != null) {
+                this.pool.evicted(dirty);
+            }
+        }
+
+        void writtenBack() {
+            this.writebacks.increment();
+            if (this.pool != null) {
+                this.pool.writtenBack();
+            }
+        }
+
+        void unpinned(long pinNanos) {
+            this.pins.increment();
+            this.pinNanos.add(pinNanos);
+            if (this.pool != null) {
+                this.pool.unpinned(pinNanos);
+            }
+        }
+
+        void latchWaited(long waitNanos) {
+            this.latchWaits.increment();
+            this.latchWaitNanos.add(waitNanos);
+            if (this.pool != null) {
+                this.pool.latchWaited(waitNanos);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the buffer manager's counters (see getStats), or of a pool's or a
+     * partition's (see getPoolStats), along with the number of pages loaded and dirty at
+     * the time of the snapshot.
+     */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long prefetches;
+        public final long evictions;
+        // evictions of dirty pages, out of evictions
+        public final long dirtyEvictions;
+        public final long writebacks;
+        // times frames went from unpinned to pinned and back, and the total time they stayed pinned
+        public final long pins;
+        public final long pinNanos;
+        // reads and writes that had to wait for a frame's latch, and the total time waited
+        public final long latchWaits;
+        public final long latchWaitNanos;
+        public final int loadedPages;
+        public final int dirtyPages;
+
+        private Stats(long[] counts, int loadedPages, int dirtyPages) {
+            this.hits = counts[0];
+            this.misses = counts[1];
+            this.prefetches = counts[2];
+            this.evictions = counts[3];
+            this.dirtyEvictions = counts[4];
+            this.writebacks = counts[5];
+            this.pins = counts[6];
+            this.pinNanos = counts[7];
+            this.latchWaits = counts[8];
+            this.latchWaitNanos = counts[9];
+            this.loadedPages = loadedPages;
+            this.dirtyPages = dirtyPages;
+        }
+
+        private Stats(Counters counters, int loadedPages, int dirtyPages) {
+            this(counts(counters), loadedPages, dirtyPages);
+        }
+
+        private static long[] counts(Counters counters) {
+            return new long[] {
+                counters.hits.sum(), counters.misses.sum(), counters.prefetches.sum(),
+                counters.evictions.sum(), counters.dirtyEvictions.sum(), counters.writebacks.sum(),
+                counters.pins.sum(), counters.pinNanos.sum(),
+                counters.latchWaits.sum(), counters.latchWaitNanos.sum(),
+            };
+        }
+
+        /**
+         * @return the sum of several snapshots
+         */
+        private static Stats sum(List<Stats> stats) {
+            long[] counts = new long[10];
+            int loadedPages = 0;
+            int dirtyPages = 0;
+            for (Stats s : stats) {
+                long[] other = {
+                    s.hits, s.misses, s.prefetches, s.evictions, s.dirtyEvictions, s.writebacks,
+                    s.pins, s.pinNanos, s.latchWaits, s.latchWaitNanos,
+                };
+                for (int i = 0; i < counts.length; ++i) {
+                    counts[i] += other[i];
+                }
+                loadedPages += s.loadedPages;
+                dirtyPages += s.dirtyPages;
+            }
+            return new Stats(counts, loadedPages, dirtyPages);
+        }
+
+        /**
+         * @return fraction of page fetches that found the page loaded, or 0 if there were none
+         */
+        public double getHitRatio() {
+            long fetches = this.hits + this.misses;
+            return fetches == 0 ? 0.0 : (double) this.hits / fetches;
+        }
+
+        /**
+         * @return evictions of pages that were not dirty
+         */
+        public long getCleanEvictions() {
+            return this.evictions - this.dirtyEvictions;
+        }
+
+        /**
+         * @return average time frames stayed pinned, in nanoseconds, or 0 if none was pinned
+         */
+        public double getAveragePinNanos() {
+            return this.pins == 0 ? 0.0 : (double) this.pinNanos / this.pins;
+        }
+
+        /**
+         * @return average time spent waiting for a frame's latch, in nanoseconds, of the
+         * reads and writes that had to wait, or 0 if none had to
+         */
+        public double getAverageLatchWaitNanos() {
+            return this.latchWaits == 0 ? 0.0 : (double) this.latchWaitNanos / this.latchWaits;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d prefetches=%d evictions=%d (dirty=%d) writebacks=%d " +
+                                 "avgPinMicros=%.1f latchWaits=%d avgLatchWaitMicros=%.1f loaded=%d dirty=%d",
+                                 hits, misses, prefetches, evictions, dirtyEvictions, writebacks,
+                                 getAveragePinNanos() / 1000, latchWaits, getAverageLatchWaitNanos() / 1000,
+                                 loadedPages, dirtyPages);
+        }
+    }
+
+    /**
+     * Snapshot of the statistics of one pool (see getPoolStats).
+     */
+    public static class PoolStats {
+        public final String name;
+        public final int numFrames;
+        // statistics of the whole pool
+        public final Stats stats;
+        // statistics of the pages of each partition that was used in the pool, by
+        // partition number
+        public final SortedMap<Integer, Stats> partitions;
+        // the eviction policy's own statistics (see EvictionPolicy#getStats)
+        public final Map<String, Long> policyStats;
+
+        private PoolStats(String name, int numFrames, Stats stats, SortedMap<Integer, Stats> partitions,
+                          Map<String, Long> policyStats) {
+            this.name = name;
+            this.numFrames = numFrames;
+            this.stats = stats;
+            this.partitions = Collections.unmodifiableSortedMap(partitions);
+            this.policyStats = Collections.unmodifiableMap(policyStats);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%d frames): %s", name, numFrames, stats);
+        }
+    }
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
-     * underlying byte array. Free frames use the index field to create a (singly) linked
+     * underlying slice of a slab. Free frames use the index field to create a (singly) linked
      * list between free frames.
+     *
+     * Reads and writes of the frame's contents hold the frame's latch, in shared mode for
+     * reads (short reads first try without it, using an optimistic read) and flushes, and
+     * in exclusive mode for writes, so that concurrent readers of a page never block each
+     * other. The latch is only held for the duration of a single read or write.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
-        byte[] contents;
-        private int index;
-        private long pageNum;
-        private boolean dirty;
-        private ReentrantLock frameLock;
+        // the page's contents; only accessed with absolute gets and puts, or through
+        // duplicates, so that its position is always 0
+        ByteBuffer contents;
+        // volatile, since frames are pinned and checked without holding any lock
+        private volatile int index;
+        private volatile long pageNum;
+        private volatile boolean dirty;
+        private final StampedLock latch;
         private boolean logPage;
+        // completes once a load into this frame is done, or null if no load is in progress
+        private volatile CompletableFuture<Void> loading;
+        // whether the asynchronous load into this frame failed, in which case the frame's
+        // contents are garbage and the page must be loaded again
+        private volatile boolean loadFailed;
+        // lock context of the page under the parent context it was last fetched with, so
+        // that fetching the page again does not look the context up (see frameToPage)
+        private volatile ChildContext childContext;
+        // when the frame was last pinned while unpinned, to measure how long pages stay pinned
+        private volatile long pinnedSince;
+        // set (while holding the frame's monitor) once invalidate is done, so that flushes of
+        // a frame claimed for eviction can wait for the evicting thread's write-back
+        private boolean invalidated;
 
-        Frame(byte[] contents, int nextFree) {
+        Frame(ByteBuffer contents, int nextFree) {
             this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
         }
 
@@ -76,12 +424,12 @@ public class BufferManager implements AutoCloseable {
             this(frame.contents, frame.index, frame.pageNum);
         }
 
-        Frame(byte[] contents, int index, long pageNum) {
+        Frame(ByteBuffer contents, int index, long pageNum) {
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
             this.dirty = false;
-            this.frameLock = new ReentrantLock();
+            this.latch = new StampedLock();
             int partNum = DiskSpaceManager.getPartNum(pageNum);
             this.logPage = partNum == LogManager.LOG_PARTITION;
         }
@@ -92,22 +440,68 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         public void pin() {
-            this.frameLock.lock();
+            if (!this.tryPin()) {
+                throw new IllegalStateException("pinning invalidated frame");
+            }
+        }
 
+        /**
+         * Pins the frame, unless it is invalid or claimed for eviction.
+         * @return whether the frame was pinned
+         */
+        @Override
+        boolean tryPin() {
+            if (!super.tryPin()) {
+                return false;
+            }
             if (!this.isValid()) {
-                throw new IllegalStateException("pinning invalidated frame");
+                super.unpin();
+                return false;
             }
+            return true;
+        }
+
+        @Override
+        void pinned() {
+            this.pinnedSince = System.nanoTime();
+        }
 
-            super.pin();
+        @Override
+        void unpinned() {
+            // a frame that turned out to be invalid was only pinned to check it
+            if (this.isValid()) {
+                countersOf(this.pageNum).unpinned(System.nanoTime() - this.pinnedSince);
+            }
         }
 
         /**
-         * Unpin buffer frame.
+         * Takes the latch in shared mode, counting the time spent waiting for it if it is
+         * held in exclusive mode.
+         * @return stamp to release the latch with
          */
-        @Override
-        public void unpin() {
-            super.unpin();
-            this.frameLock.unlock();
+        private long readLatch() {
+            long stamp = this.latch.tryReadLock();
+            if (stamp == 0) {
+                long start = System.nanoTime();
+                stamp = this.latch.readLock();
+                countersOf(this.pageNum).latchWaited(System.nanoTime() - start);
+            }
+            return stamp;
+        }
+
+        /**
+         * Takes the latch in exclusive mode, counting the time spent waiting for it if it
+         * is held.
+         * @return stamp to release the latch with
+         */
+        private long writeLatch() {
+            long stamp = this.latch.tryWriteLock();
+            if (stamp == 0) {
+                long start = System.nanoTime();
+                stamp = this.latch.writeLock();
+                countersOf(this.pageNum).latchWaited(System.nanoTime() - start);
+            }
+            return stamp;
         }
 
         /**
@@ -126,14 +520,51 @@ public class BufferManager implements AutoCloseable {
         }
 
         /**
-         * Invalidates the frame, flushing it if necessary.
+         * Invalidates the frame, flushing it if necessary. The frame must not be pinned (by
+         * any other thread), and must not be pinned afterwards: it is either claimed for
+         * eviction or the manager lock is held.
          */
         private void invalidate() {
-            if (this.isValid()) {
-                this.flush();
+            try {
+                if (this.isValid()) {
+                    this.writeBack();
+                }
+                this.index = INVALID_INDEX;
+                this.contents = null;
+            } finally {
+                synchronized (this) {
+                    this.invalidated = true;
+                    this.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Waits for the thread evicting the frame to write it back, if the frame has been
+         * claimed for eviction.
+         * @throws PageException if the page was dirty and could not be written back
+         */
+        private void awaitEviction() {
+            if (!this.isClaimed()) {
+                // invalid, so there is nothing to write back
+                return;
+            }
+            boolean interrupted = false;
+            synchronized (this) {
+                while (!this.invalidated) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (this.dirty) {
+                throw new PageException("page " + this.pageNum + " could not be written back when it was evicted");
             }
-            this.index = INVALID_INDEX;
-            this.contents = null;
         }
 
         /**
@@ -170,24 +601,65 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void flush() {
-            this.frameLock.lock();
-            super.pin();
+            // an invalid frame has nothing to flush, and a frame being evicted is flushed
+            // by the evicting thread, which the flush must wait for to be done
+            if (!this.tryPin()) {
+                this.awaitEviction();
+                return;
+            }
+            try {
+                this.writeBack();
+            } finally {
+                super.unpin();
+            }
+        }
+
+        @Override
+        void flushWithoutSync() {
+            if (!this.tryPin()) {
+                this.awaitEviction();
+                return;
+            }
+            try {
+                this.writeBack(false);
+            } finally {
+                super.unpin();
+            }
+        }
+
+        /**
+         * Writes the frame's page to disk if it is dirty. The caller must make sure that the
+         * frame cannot be evicted meanwhile.
+         */
+        private void writeBack() {
+            this.writeBack(true);
+        }
+
+        /**
+         * Writes the frame's page to disk if it is dirty. The caller must make sure that the
+         * frame cannot be evicted meanwhile.
+         * @param sync whether the write is forced to disk as usual; if false, the caller
+         *             must sync the page's partition afterwards
+         */
+        private void writeBack(boolean sync) {
+            long stamp = this.readLatch();
             try {
-                if (!this.isValid()) {
-                    return;
-                }
                 if (!this.dirty) {
                     return;
                 }
                 if (!this.logPage) {
-                    recoveryManager.pageFlushHook(this.getPageLSN());
+                    recoveryManager.pageFlushHook(this.readPageLSN());
+                }
+                if (sync) {
+                    BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
+                } else {
+                    BufferManager.this.diskSpaceManager.writePageWithoutSync(pageNum, contents);
                 }
-                BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
                 BufferManager.this.incrementIOs();
+                countersOf(this.pageNum).writtenBack();
                 this.dirty = false;
             } finally {
-                super.unpin();
-                this.frameLock.unlock();
+                this.latch.unlockRead(stamp);
             }
         }
 
@@ -204,7 +676,17 @@ public class BufferManager implements AutoCloseable {
                 if (!this.isValid()) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
+                long stamp = this.latch.tryOptimisticRead();
+                this.copyOut(position + dataOffset(), num, buf, 0);
+                if (!this.latch.validate(stamp)) {
+                    // overlapped with a write, read again while holding the latch
+                    stamp = this.readLatch();
+                    try {
+                        this.copyOut(position + dataOffset(), num, buf, 0);
+                    } finally {
+                        this.latch.unlockRead(stamp);
+                    }
+                }
                 BufferManager.this.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
@@ -221,25 +703,33 @@ public class BufferManager implements AutoCloseable {
         void writeBytes(short position, short num, byte[] buf) {
             this.pin();
             try {
-                if (!this.isValid()) {
-                    throw new IllegalStateException("writing to invalid buffer frame");
-                }
-                int offset = position + dataOffset();
-                TransactionContext transaction = TransactionContext.getTransaction();
-                if (transaction != null && !logPage) {
-                    List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
-                    for (Pair<Integer, Integer> range : changedRanges) {
-                        int start = range.getFirst();
-                        int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
-                        byte[] after = Arrays.copyOfRange(buf, start, start + len);
-                        long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
-                                       after);
-                        this.setPageLSN(pageLSN);
+                long stamp = this.writeLatch();
+                try {
+                    if (!this.isValid()) {
+                        throw new IllegalStateException("writing to invalid buffer frame");
+                    }
+                    int offset = position + dataOffset();
+                    TransactionContext transaction = TransactionContext.getTransaction();
+                    if (transaction != null && !logPage) {
+                        List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
+                        for (Pair<Integer, Integer> range : changedRanges) {
+                            int start = range.getFirst();
+                            int len = range.getSecond();
+                            byte[] before = new byte[len];
+                            this.copyOut(start + offset, len, before, 0);
+                            byte[] after = Arrays.copyOfRange(buf, start, start + len);
+                            long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
+                                           after);
+                            this.writePageLSN(pageLSN);
+                        }
                     }
+                    ByteBuffer view = this.contents.duplicate();
+                    view.position(offset);
+                    view.put(buf, 0, num);
+                    this.dirty = true;
+                } finally {
+                    this.latch.unlockWrite(stamp);
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
-                this.dirty = true;
                 BufferManager.this.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
@@ -252,19 +742,13 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         Frame requestValidFrame() {
-            this.frameLock.lock();
-            try {
-                if (this.isFreed()) {
-                    throw new PageException("page already freed");
-                }
-                if (this.isValid()) {
-                    this.pin();
-                    return this;
-                }
-                return BufferManager.this.fetchPageFrame(this.pageNum);
-            } finally {
-                this.frameLock.unlock();
+            if (this.isFreed()) {
+                throw new PageException("page already freed");
             }
+            if (this.tryPin()) {
+                return this;
+            }
+            return BufferManager.this.fetchPageFrame(this.pageNum);
         }
 
         @Override
@@ -278,7 +762,31 @@ public class BufferManager implements AutoCloseable {
 
         @Override
         long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+            long stamp = this.latch.tryOptimisticRead();
+            long pageLSN = this.readPageLSN();
+            if (!this.latch.validate(stamp)) {
+                stamp = this.readLatch();
+                try {
+                    pageLSN = this.readPageLSN();
+                } finally {
+                    this.latch.unlockRead(stamp);
+                }
+            }
+            return pageLSN;
+        }
+
+        private long readPageLSN() {
+            return this.contents.getLong(8);
+        }
+
+        /**
+         * Copies num bytes of the frame's contents, starting at offset, into buf. Copies
+         * through a duplicate of the contents, since concurrent readers cannot share its position.
+         */
+        private void copyOut(int offset, int num, byte[] buf, int bufOffset) {
+            ByteBuffer view = this.contents.duplicate();
+            view.position(offset);
+            view.get(buf, bufOffset, num);
         }
 
         @Override
@@ -307,7 +815,7 @@ public class BufferManager implements AutoCloseable {
                     ranges.add(new Pair<>(startIndex, maxRange));
                     startIndex = -1;
                     skip = -1;
-                } else if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                } else if (buf[i] == contents.get(offset + i) && startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
                         ranges.add(new Pair<>(startIndex, i - startIndex - skip));
                         startIndex = -1;
@@ -315,7 +823,7 @@ public class BufferManager implements AutoCloseable {
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
+                } else if (buf[i] != contents.get(offset + i)) {
                     if (startIndex < 0) {
                         startIndex = i;
                     }
@@ -328,8 +836,18 @@ public class BufferManager implements AutoCloseable {
             return ranges;
         }
 
+        @Override
         void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+            long stamp = this.writeLatch();
+            try {
+                this.writePageLSN(pageLSN);
+            } finally {
+                this.latch.unlockWrite(stamp);
+            }
+        }
+
+        private void writePageLSN(long pageLSN) {
+            this.contents.putLong(8, pageLSN);
         }
 
         private short dataOffset() {
@@ -342,110 +860,1197 @@ public class BufferManager implements AutoCloseable {
     }
 
     /**
-     * Creates a new buffer manager.
-     *
-     * @param diskSpaceManager the underlying disk space manager
-     * @param bufferSize size of buffer (in pages)
-     * @param evictionPolicy eviction policy to use
+     * Lock context of a page, cached in its frame with the parent context it belongs to.
      */
-    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
-                         int bufferSize, EvictionPolicy evictionPolicy) {
-        this.frames = new Frame[bufferSize];
-        for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+    private static class ChildContext {
+        private final LockContext parentContext;
+        private final LockContext context;
+
+        ChildContext(LockContext parentContext, LockContext context) {
+            this.parentContext = parentContext;
+            this.context = context;
         }
-        this.firstFreeIndex = 0;
-        this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
-        this.managerLock = new ReentrantLock();
-        this.evictionPolicy = evictionPolicy;
-        this.recoveryManager = recoveryManager;
     }
 
-    @Override
-    public void close() {
-        this.managerLock.lock();
-        try {
-            for (Frame frame : this.frames) {
-                frame.frameLock.lock();
+    /**
+     * Background writer of dirty pages. The cleaner periodically counts the dirty frames, and
+     * once more than a fraction maxDirtyRatio of frames are dirty (or a fetch had to write back
+     * a dirty page it evicted), writes back unpinned dirty frames until at most a fraction
+     * targetDirtyRatio are left.
+     * Frames are visited round-robin, and are written back with flush, so the page's log
+     * records are flushed first (see RecoveryManager#pageFlushHook) like for any other
+     * write back.
+     * A page that fails to be written back for any other reason than having been freed ends
+     * the round, and is tried again in the next one: the failure is recorded (see
+     * getPageCleanerFailure) rather than stopping the cleaner, until a later round writes
+     * back pages without failing.
+     */
+    private class PageCleaner implements Runnable {
+        // how long the cleaner sleeps between rounds, unless woken up by a fetch
+        private static final long INTERVAL_MILLIS = 100;
+
+        private final double targetDirtyRatio;
+        private final double maxDirtyRatio;
+        private final Thread thread;
+        private volatile boolean stopped;
+        // set when a fetch evicts a dirty page, to clean down to the target right away
+        private volatile boolean dirtyEviction;
+        // index of the next frame to visit
+        private int cursor;
+        // last exception a page could not be written back with, if any
+        private volatile RuntimeException failure;
+
+        PageCleaner(double targetDirtyRatio, double maxDirtyRatio) {
+            this.targetDirtyRatio = targetDirtyRatio;
+            this.maxDirtyRatio = maxDirtyRatio;
+            this.thread = new Thread(this, "rookiedb-page-cleaner");
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!this.stopped) {
                 try {
-                    if (frame.isPinned()) {
-                        throw new IllegalStateException("closing buffer manager but frame still pinned");
-                    }
-                    if (!frame.isValid()) {
+                    this.clean();
+                } catch (RuntimeException e) {
+                    this.failure = e;
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS));
+            }
+        }
+
+        /**
+         * Called when a fetch evicted a dirty page, which the fetch had to write back itself.
+         */
+        void wakeUp() {
+            this.dirtyEviction = true;
+            LockSupport.unpark(this.thread);
+        }
+
+        void stop() {
+            this.stopped = true;
+            LockSupport.unpark(this.thread);
+            joinUninterruptibly(this.thread);
+        }
+
+        private void clean() {
+            Frame[] frames = BufferManager.this.frames;
+            int dirty = 0;
+            for (Frame frame : frames) {
+                if (frame.isValid() && frame.dirty) {
+                    ++dirty;
+                }
+            }
+            // thresholds follow the size of the buffer, which may be resized
+            int targetDirty = (int) (this.targetDirtyRatio * frames.length);
+            int maxDirty = (int) (this.maxDirtyRatio * frames.length);
+            if (dirty <= maxDirty && !this.dirtyEviction) {
+                return;
+            }
+            this.dirtyEviction = false;
+            if (this.cursor >= frames.length) {
+                this.cursor = 0;
+            }
+            for (int i = 0; i < frames.length && dirty > targetDirty && !this.stopped; ++i) {
+                Frame frame = frames[this.cursor];
+                this.cursor = (this.cursor + 1) % frames.length;
+                // pinned pages are in use, and likely to be dirtied again soon
+                if (!frame.dirty || frame.isPinned()) {
+                    continue;
+                }
+                try {
+                    frame.flush();
+                } catch (RuntimeException e) {
+                    if (!BufferManager.this.isAllocated(frame.pageNum)) {
+                        // the page was freed meanwhile, and no longer needs to be written
                         continue;
                     }
-                    evictionPolicy.cleanup(frame);
-                    frame.invalidate();
-                } finally {
-                    frame.frameLock.unlock();
+                    // an I/O failure, likely to fail the next writes too
+                    this.failure = e;
+                    return;
+                }
+                if (!frame.dirty) {
+                    --dirty;
                 }
             }
-        } finally {
-            this.managerLock.unlock();
+            // every page of the round was written back, so earlier failures are over
+            this.failure = null;
         }
     }
 
     /**
-     * Fetches a buffer frame with data for the specified page. Reuses existing
-     * buffer frame if page already loaded in memory. Pins the buffer frame.
-     * Cannot be used outside the package.
-     *
-     * @param pageNum page number
-     * @return buffer frame with specified page loaded
+     * Background saver of the page numbers of the loaded pages (see startSavingLoadedPages),
+     * so that the pages loaded before a crash can be loaded again after the restart.
      */
-    Frame fetchPageFrame(long pageNum) {
-        this.managerLock.lock();
-        Frame newFrame;
-        Frame evictedFrame;
-        // figure out what frame to load data to, and update manager state
-        try {
-            if (!this.diskSpaceManager.pageAllocated(pageNum)) {
-                throw new PageException("page " + pageNum + " not allocated");
-            }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
-            }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
-            evictionPolicy.init(newFrame);
+    private class LoadedPagesSaver implements Runnable {
+        private final Path path;
+        private final long intervalMillis;
+        private final Thread thread;
+        private volatile boolean stopped;
 
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
+        LoadedPagesSaver(Path path, long intervalMillis) {
+            this.path = path;
+            this.intervalMillis = intervalMillis;
+            this.thread = new Thread(this, "rookiedb-loaded-pages-saver");
+            this.thread.setDaemon(true);
+        }
 
-            this.pageToFrame.put(pageNum, frameIndex);
-        } finally {
+        @Override
+        public void run() {
+            while (!this.stopped) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.intervalMillis);
+                long remaining;
+                while (!this.stopped && (remaining = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                if (!this.stopped) {
+                    this.save();
+                }
+            }
+        }
+
+        void stop() {
+            this.stopped = true;
+            LockSupport.unpark(this.thread);
+            joinUninterruptibly(this.thread);
+        }
+
+        void save() {
+            try {
+                saveLoadedPages(this.path);
+            } catch (IOException e) {
+                // the saved pages are only a hint for warming up: keep the previous list
+            }
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a new buffer manager.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicy eviction policy to use
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, EvictionPolicy evictionPolicy) {
+        this(null, DEFAULT_POOL, diskSpaceManager, recoveryManager, bufferSize, evictionPolicy);
+    }
+
+    /**
+     * Creates the buffer manager of a pool.
+     *
+     * @param defaultPool buffer manager of the default pool, or null to create the default pool
+     * @param poolName name of the pool
+     */
+    private BufferManager(BufferManager defaultPool, String poolName, DiskSpaceManager diskSpaceManager,
+                          RecoveryManager recoveryManager, int bufferSize, EvictionPolicy evictionPolicy) {
+        this.defaultPool = defaultPool == null ? this : defaultPool;
+        this.poolName = poolName;
+        Frame[] frames = new Frame[bufferSize];
+        this.allocateFrames(frames, 0);
+        this.frames = frames;
+        this.firstFreeIndex = 0;
+        this.diskSpaceManager = diskSpaceManager;
+        this.pageTable = new PageTable(bufferSize);
+        this.managerLock = new ReentrantLock();
+        this.evictionPolicy = evictionPolicy;
+        this.recoveryManager = recoveryManager;
+        evictionPolicy.setCapacity(bufferSize);
+    }
+
+    /**
+     * Creates free frames frames[start], ..., frames[frames.length - 1], linked into a free
+     * list in that order (ending at frames.length), and backs them by the unused slots of
+     * the last slab first, then by new slabs.
+     */
+    private void allocateFrames(Frame[] frames, int start) {
+        for (int i = start; i < frames.length; ++i) {
+            if (i == this.numAllocatedFrames) {
+                int slabPages = Math.min(PAGES_PER_SLAB, frames.length - i);
+                this.slabs.add(ByteBuffer.allocateDirect(slabPages * DiskSpaceManager.PAGE_SIZE));
+                this.numAllocatedFrames += slabPages;
+            }
+            // frames at or after start are always backed by the last slab
+            ByteBuffer slab = this.slabs.get(this.slabs.size() - 1);
+            int slot = i - (this.numAllocatedFrames - slab.capacity() / DiskSpaceManager.PAGE_SIZE);
+            ByteBuffer contents = slab.duplicate();
+            contents.position(slot * DiskSpaceManager.PAGE_SIZE);
+            contents.limit((slot + 1) * DiskSpaceManager.PAGE_SIZE);
+            frames[i] = new Frame(contents.slice(), i + 1);
+        }
+    }
+
+    /**
+     * Adds a named pool of frames, with its own size and eviction policy. Pages of the
+     * partitions assigned to the pool (see setPartitionPool) are only loaded in the pool's
+     * frames, so they only ever evict each other. Pages of other partitions are loaded in the
+     * default pool, whose frames are those the buffer manager was created with.
+     *
+     * @param name name of the pool
+     * @param bufferSize size of the pool (in pages)
+     * @param evictionPolicy eviction policy to use in the pool
+     * @return the buffer manager of the new pool, e.g. to resize it
+     * @throws IllegalArgumentException if there already is a pool with that name
+     */
+    public BufferManager addPool(String name, int bufferSize, EvictionPolicy evictionPolicy) {
+        BufferManager defaultPool = this.defaultPool;
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer pool must have at least one frame");
+        }
+        defaultPool.managerLock.lock();
+        try {
+            if (defaultPool.getPool(name) != null) {
+                throw new IllegalArgumentException("buffer pool " + name + " already exists");
+            }
+            BufferManager pool = new BufferManager(defaultPool, name, this.diskSpaceManager,
+                                                   this.recoveryManager, bufferSize, evictionPolicy);
+            Map<String, BufferManager> namedPools = new LinkedHashMap<>(defaultPool.namedPools);
+            namedPools.put(name, pool);
+            defaultPool.namedPools = Collections.unmodifiableMap(namedPools);
+            return pool;
+        } finally {
+            defaultPool.managerLock.unlock();
+        }
+    }
+
+    /**
+     * @param name name of the pool (DEFAULT_POOL for the default pool)
+     * @return the buffer manager of the pool, or null if there is no pool with that name
+     */
+    public BufferManager getPool(String name) {
+        if (DEFAULT_POOL.equals(name)) {
+            return this.defaultPool;
+        }
+        return this.defaultPool.namedPools.get(name);
+    }
+
+    /**
+     * @return the buffer managers of all pools, starting with the default pool
+     */
+    public List<BufferManager> getPools() {
+        List<BufferManager> pools = new ArrayList<>();
+        pools.add(this.defaultPool);
+        pools.addAll(this.defaultPool.namedPools.values());
+        return pools;
+    }
+
+    /**
+     * @return name of this pool
+     */
+    public String getPoolName() {
+        return this.poolName;
+    }
+
+    /**
+     * Assigns a partition to a pool: pages of the partition are loaded in the pool from then
+     * on. Pages of the partition that are loaded in the pool it was assigned to until then
+     * are written back and evicted from it. Should be called before the partition is in
+     * use, e.g. right after allocating it.
+     *
+     * @param partNum partition number
+     * @param name name of the pool (DEFAULT_POOL for the default pool)
+     * @throws NoSuchElementException if there is no pool with that name
+     * @throws IllegalStateException if a page of the partition is pinned
+     */
+    public void setPartitionPool(int partNum, String name) {
+        BufferManager defaultPool = this.defaultPool;
+        BufferManager pool = this.getPool(name);
+        if (pool == null) {
+            throw new NoSuchElementException("no buffer pool " + name);
+        }
+        defaultPool.managerLock.lock();
+        try {
+            BufferManager previous = this.poolOf(partNum);
+            if (previous == pool) {
+                return;
+            }
+            previous.evictPart(partNum);
+            BufferManager[] pools = defaultPool.partitionPools;
+            if (partNum >= pools.length) {
+                pools = Arrays.copyOf(pools, Math.max(partNum + 1, 2 * pools.length));
+            } else {
+                pools = pools.clone();
+            }
+            pools[partNum] = pool == defaultPool ? null : pool;
+            defaultPool.partitionPools = pools;
+        } finally {
+            defaultPool.managerLock.unlock();
+        }
+    }
+
+    /**
+     * @param partNum partition number
+     * @return the buffer manager of the pool that pages of the partition are loaded in
+     */
+    public BufferManager getPartitionPool(int partNum) {
+        return this.poolOf(partNum);
+    }
+
+    private BufferManager poolOf(int partNum) {
+        BufferManager[] pools = this.defaultPool.partitionPools;
+        BufferManager pool = partNum >= 0 && partNum < pools.length ? pools[partNum] : null;
+        return pool == null ? this.defaultPool : pool;
+    }
+
+    /**
+     * @return the pools that methods called on this buffer manager apply to, when they apply
+     * to every loaded page: all pools for the default pool, only itself for a named pool
+     */
+    private List<BufferManager> coveredPools() {
+        return this.defaultPool == this ? this.getPools() : Collections.singletonList(this);
+    }
+
+    /**
+     * @return number of frames in the buffer (in this pool only, if the buffer is split
+     * into pools)
+     */
+    public int getNumFrames() {
+        return this.frames.length;
+    }
+
+    /**
+     * @return number of frames the memory allocated for the buffer (or this pool only, if
+     * the buffer is split into pools) can back, which is larger than the number of frames
+     * after shrinking the buffer if the last remaining frame's slab was not filled
+     */
+    public int getNumAllocatedFrames() {
+        return this.numAllocatedFrames;
+    }
+
+    /**
+     * Grows or shrinks the buffer (or this pool only, if the buffer is split into pools)
+     * while it is in use. Growing adds free frames. Shrinking
+     * removes frames from the end of the buffer, writing back and evicting the pages loaded
+     * in them, and stops early at the last frame that is pinned (pages being loaded ahead
+     * are waited for first): the buffer is then left larger than requested. Memory is only
+     * released once no frame is left in a slab (see getNumAllocatedFrames); the unused slots
+     * of the last slab are reused when the buffer is grown again.
+     *
+     * @param newNumFrames number of frames the buffer should have
+     * @return number of frames the buffer has after resizing
+     */
+    public int resize(int newNumFrames) {
+        if (newNumFrames < 1) {
+            throw new IllegalArgumentException("buffer must have at least one frame");
+        }
+        this.managerLock.lock();
+        try {
+            Frame[] frames = this.frames;
+            int numFrames = frames.length;
+            if (newNumFrames > numFrames) {
+                frames = Arrays.copyOf(frames, newNumFrames);
+                this.allocateFrames(frames, numFrames);
+            } else {
+                while (numFrames > newNumFrames) {
+                    Frame frame = frames[numFrames - 1];
+                    this.awaitLoad(frame);
+                    if (frame.isValid()) {
+                        if (!frame.tryClaimForEviction()) {
+                            break;
+                        }
+                        this.pageTable.remove(frame.pageNum, frame.index);
+                        evictionPolicy.cleanup(frame);
+                        this.countersOf(frame.pageNum).evicted(frame.dirty);
+                        frame.invalidate();
+                    }
+                    --numFrames;
+                }
+                frames = Arrays.copyOf(frames, numFrames);
+                this.releaseSlabs(numFrames);
+            }
+            this.relinkFreeFrames(frames);
+            this.frames = frames;
+            evictionPolicy.setCapacity(frames.length);
+            return frames.length;
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the slabs that back none of the first numFrames frames, so that their memory
+     * can be released.
+     */
+    private void releaseSlabs(int numFrames) {
+        while (true) {
+            ByteBuffer slab = this.slabs.get(this.slabs.size() - 1);
+            int slabFrames = slab.capacity() / DiskSpaceManager.PAGE_SIZE;
+            if (this.numAllocatedFrames - slabFrames < numFrames) {
+                return;
+            }
+            this.slabs.remove(this.slabs.size() - 1);
+            this.numAllocatedFrames -= slabFrames;
+        }
+    }
+
+    /**
+     * Links the free frames of frames into a new free list, in index order.
+     */
+    private void relinkFreeFrames(Frame[] frames) {
+        int next = frames.length;
+        for (int i = frames.length - 1; i >= 0; --i) {
+            if (frames[i].isFreed()) {
+                frames[i].index = ~next;
+                next = i;
+            }
+        }
+        this.firstFreeIndex = next;
+    }
+
+    /**
+     * Starts a background thread that writes dirty pages back to disk ahead of their
+     * eviction (see PageCleaner), keeping the fraction of dirty frames between
+     * targetDirtyRatio and maxDirtyRatio. The cleaner is stopped by stopPageCleaner or close.
+     * The cleaner only cleans this pool, if the buffer is split into pools.
+     *
+     * @param targetDirtyRatio fraction of frames that may be left dirty once the cleaner runs
+     * @param maxDirtyRatio fraction of frames that may be dirty before the cleaner runs
+     */
+    public void startPageCleaner(double targetDirtyRatio, double maxDirtyRatio) {
+        if (targetDirtyRatio < 0 || targetDirtyRatio > maxDirtyRatio || maxDirtyRatio > 1) {
+            throw new IllegalArgumentException("invalid dirty ratios: target " + targetDirtyRatio +
+                                               ", max " + maxDirtyRatio);
+        }
+        this.managerLock.lock();
+        try {
+            if (this.pageCleaner != null) {
+                throw new IllegalStateException("page cleaner already running");
+            }
+            PageCleaner cleaner = new PageCleaner(targetDirtyRatio, maxDirtyRatio);
+            this.pageCleaner = cleaner;
+            cleaner.thread.start();
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background page cleaner, waiting for it to finish writing the page it is
+     * writing (if any). Does nothing if the cleaner is not running.
+     */
+    public void stopPageCleaner() {
+        PageCleaner cleaner;
+        this.managerLock.lock();
+        try {
+            cleaner = this.pageCleaner;
+            this.pageCleaner = null;
+        } finally {
             this.managerLock.unlock();
         }
-        // flush evicted frame
+        if (cleaner != null) {
+            cleaner.stop();
+        }
+    }
+
+    /**
+     * @return last exception the background page cleaner (see startPageCleaner) failed to
+     * write back a page with, or null if the cleaner is not running or has not failed since
+     * its last round of write backs that all succeeded
+     */
+    public RuntimeException getPageCleanerFailure() {
+        PageCleaner cleaner = this.pageCleaner;
+        return cleaner == null ? null : cleaner.failure;
+    }
+
+    /**
+     * @return page numbers of the loaded pages, from the page the eviction policy would evict
+     * last to the page it would evict first (see EvictionPolicy#evictionOrder), pool by pool
+     * if the buffer is split into pools
+     */
+    public long[] getLoadedPageNums() {
+        List<BufferFrame> order = new ArrayList<>();
+        for (BufferManager pool : this.coveredPools()) {
+            pool.managerLock.lock();
+            try {
+                List<BufferFrame> poolOrder = pool.evictionPolicy.evictionOrder(pool.frames);
+                Collections.reverse(poolOrder);
+                order.addAll(poolOrder);
+            } finally {
+                pool.managerLock.unlock();
+            }
+        }
+        long[] pageNums = new long[order.size()];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = order.get(i).getPageNum();
+        }
+        return pageNums;
+    }
+
+    /**
+     * Writes the page numbers of the loaded pages (see getLoadedPageNums) to a file, as a
+     * sequence of 8-byte page numbers, to load the pages again after a restart with warmUp.
+     * The list is written to a temporary file first, which then replaces the file, so that
+     * a crash while saving leaves the previous list.
+     *
+     * @param path file to write to
+     */
+    public void saveLoadedPages(Path path) throws IOException {
+        long[] pageNums = this.getLoadedPageNums();
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+            for (long pageNum : pageNums) {
+                out.writeLong(pageNum);
+            }
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts a background thread that saves the page numbers of the loaded pages to a file
+     * (see saveLoadedPages) every intervalMillis milliseconds, and once more when stopped by
+     * stopSavingLoadedPages or close. Failures to save are ignored, leaving the list saved
+     * last in place.
+     *
+     * @param path file to write to
+     * @param intervalMillis time between saves, in milliseconds
+     */
+    public void startSavingLoadedPages(Path path, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("invalid interval: " + intervalMillis);
+        }
+        this.managerLock.lock();
+        try {
+            if (this.loadedPagesSaver != null) {
+                throw new IllegalStateException("already saving loaded pages");
+            }
+            LoadedPagesSaver saver = new LoadedPagesSaver(path, intervalMillis);
+            this.loadedPagesSaver = saver;
+            saver.thread.start();
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Stops saving the page numbers of the loaded pages periodically, and saves them one
+     * last time. Should be called before evicting every page (e.g. with evictAll) when
+     * shutting down, so that the list saved is that of the pages in use. Does nothing if
+     * the pages are not being saved.
+     */
+    public void stopSavingLoadedPages() {
+        LoadedPagesSaver saver;
+        this.managerLock.lock();
+        try {
+            saver = this.loadedPagesSaver;
+            this.loadedPagesSaver = null;
+        } finally {
+            this.managerLock.unlock();
+        }
+        if (saver != null) {
+            saver.stop();
+            saver.save();
+        }
+    }
+
+    /**
+     * Starts loading the pages saved by saveLoadedPages (e.g. before a restart) in the
+     * background, so that fetches do not all miss while the buffer fills up again. At most
+     * as many pages as there are frames (in each pool) are loaded, starting from the pages
+     * the eviction policy ranked highest, and pages are read in page number order (the order in which
+     * they are laid out on disk), with one read per run of consecutive pages. Pages are only
+     * loaded into free frames, so warming up never evicts a page fetched meanwhile, and stops
+     * once the buffer is full. Saved pages that are no longer allocated are skipped.
+     *
+     * @param path file written by saveLoadedPages; nothing is loaded if it does not exist
+     * @return future completed once the saved pages are loaded, or warming up stopped
+     */
+    public CompletableFuture<Void> warmUp(Path path) {
+        this.warmUpStopped = false;
+        CompletableFuture<Void> warmUp = CompletableFuture.runAsync(() -> {
+            try {
+                this.loadSavedPages(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, task -> {
+            Thread thread = new Thread(task, "rookiedb-buffer-warm-up");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        this.warmUp = warmUp;
+        return warmUp;
+    }
+
+    /**
+     * Stops warming up the buffer (see warmUp), waiting for the run of pages being read
+     * (if any). Does nothing if the buffer is not warming up.
+     */
+    public void stopWarmUp() {
+        CompletableFuture<Void> warmUp = this.warmUp;
+        if (warmUp == null) {
+            return;
+        }
+        this.warmUpStopped = true;
+        try {
+            warmUp.join();
+        } catch (CompletionException | CancellationException e) {
+            // failing to warm up only leaves the buffer colder
+        }
+    }
+
+    private void loadSavedPages(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        int count = (int) (Files.size(path) / Long.BYTES);
+        long[] pageNums = new long[count];
+        int numAllocated = 0;
+        // number of saved pages kept for each pool, which is at most the size of the pool
+        Map<BufferManager, Integer> numKept = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            for (int i = 0; i < count; ++i) {
+                long pageNum = in.readLong();
+                BufferManager pool = this.poolOf(DiskSpaceManager.getPartNum(pageNum));
+                int kept = numKept.getOrDefault(pool, 0);
+                if (kept < pool.frames.length && this.isAllocated(pageNum)) {
+                    numKept.put(pool, kept + 1);
+                    pageNums[numAllocated++] = pageNum;
+                }
+            }
+        }
+        Arrays.sort(pageNums, 0, numAllocated);
+        int start = 0;
+        while (start < numAllocated && !this.warmUpStopped) {
+            BufferManager pool = this.poolOf(DiskSpaceManager.getPartNum(pageNums[start]));
+            int maxRun = Math.max(1, pool.frames.length / 4);
+            int end = start + 1;
+            while (end < numAllocated && end - start < maxRun && pageNums[end] == pageNums[end - 1] + 1 &&
+                    pool == this.poolOf(DiskSpaceManager.getPartNum(pageNums[end]))) {
+                ++end;
+            }
+            // once a pool is full, its remaining pages are skipped
+            if (pool.hasFreeFrame()) {
+                List<Frame> evictedFrames = new ArrayList<>();
+                List<Frame> newFrames;
+                // setPartitionPool holds the default pool's lock while it moves a partition,
+                // so the partition cannot move between startLoads checking its pool and
+                // loading its pages (in which case they would be left in the old pool)
+                this.defaultPool.managerLock.lock();
+                try {
+                    newFrames = pool.startLoads(pageNums[start], end - start, null, false, evictedFrames);
+                } finally {
+                    this.defaultPool.managerLock.unlock();
+                }
+                pool.readLoads(newFrames, evictedFrames);
+            }
+            start = end;
+        }
+    }
+
+    private boolean isAllocated(long pageNum) {
+        try {
+            return this.diskSpaceManager.pageAllocated(pageNum);
+        } catch (NoSuchElementException e) {
+            // the page's partition was freed
+            return false;
+        }
+    }
+
+    private boolean hasFreeFrame() {
+        this.managerLock.lock();
+        try {
+            return this.firstFreeIndex < this.frames.length;
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.stopWarmUp();
+        this.stopPageCleaner();
+        this.stopSavingLoadedPages();
+        this.flushAll();
+        this.managerLock.lock();
+        try {
+            for (Frame frame : this.frames) {
+                this.awaitLoad(frame);
+                if (frame.isPinned()) {
+                    throw new IllegalStateException("closing buffer manager but frame still pinned");
+                }
+                if (!frame.isValid()) {
+                    continue;
+                }
+                evictionPolicy.cleanup(frame);
+                frame.invalidate();
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
+        if (this.defaultPool == this) {
+            for (BufferManager pool : this.namedPools.values()) {
+                pool.close();
+            }
+        }
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page. Reuses existing
+     * buffer frame if page already loaded in memory. Pins the buffer frame.
+     * Cannot be used outside the package.
+     *
+     * @param pageNum page number
+     * @return buffer frame with specified page loaded
+     */
+    Frame fetchPageFrame(long pageNum) {
+        return this.fetchPageFrame(pageNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page, loading the page through
+     * a buffer ring if it is not loaded yet (see BufferRing).
+     *
+     * @param pageNum page number
+     * @param ring buffer ring to load the page through, or null to use the whole buffer
+     * @return buffer frame with specified page loaded
+     */
+    Frame fetchPageFrame(long pageNum, BufferRing ring) {
+        BufferManager pool = this.poolOf(DiskSpaceManager.getPartNum(pageNum));
+        if (pool != this) {
+            return pool.fetchPageFrame(pageNum, ring);
+        }
+        PageReferenceTrace trace = this.defaultPool.referenceTrace;
+        if (trace != null) {
+            trace.record(pageNum);
+        }
+        Frame newFrame = this.fetchLoadedPageFrame(pageNum);
+        if (newFrame != null) {
+            return newFrame;
+        }
+        Frame evictedFrame;
+        CompletableFuture<Void> loading;
+        // figure out what frame to load data to, and update manager state
+        while (true) {
+            CompletableFuture<Void> pendingLoad = null;
+            this.managerLock.lock();
+            try {
+                if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+                    throw new PageException("page " + pageNum + " not allocated");
+                }
+                int loadedIndex = this.pageTable.get(pageNum);
+                if (loadedIndex != PageTable.NOT_FOUND) {
+                    newFrame = this.frames[loadedIndex];
+                    if (newFrame.loadFailed) {
+                        // discard the frame and read the page synchronously instead
+                        this.evict(newFrame.index);
+                    } else if (newFrame.loading == null) {
+                        newFrame.pin();
+                        this.countersOf(pageNum).hit();
+                        return newFrame;
+                    } else {
+                        pendingLoad = newFrame.loading;
+                    }
+                }
+                if (pendingLoad == null) {
+                    evictedFrame = this.claimFrame(ring);
+                    int frameIndex = evictedFrame.index;
+                    newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
+                    evictionPolicy.init(newFrame);
+                    if (ring != null) {
+                        ring.add(frameIndex, pageNum);
+                    }
+
+                    // pinned for the caller, and marked as loading, before other threads can find it
+                    loading = newFrame.loading = new CompletableFuture<>();
+                    newFrame.pin();
+
+                    this.pageTable.put(pageNum, frameIndex);
+                    break;
+                }
+            } finally {
+                this.managerLock.unlock();
+            }
+            // the page is being loaded asynchronously; wait for that instead of reading it again
+            pendingLoad.join();
+        }
+        // flush evicted frame, and read new page into frame
         try {
             evictedFrame.invalidate();
-        } finally {
-            evictedFrame.frameLock.unlock();
+            this.diskSpaceManager.readPage(pageNum, newFrame.contents);
+        } catch (RuntimeException e) {
+            this.completeLoad(newFrame, e);
+            newFrame.unpin();
+            throw e;
+        }
+        this.incrementIOs();
+        this.countersOf(pageNum).missed();
+        this.completeLoad(newFrame, null);
+        return newFrame;
+    }
+
+    /**
+     * Fetches a page that is already loaded, without taking any lock. Pins the buffer frame.
+     *
+     * @param pageNum page number
+     * @return buffer frame of the page, or null if the page is not loaded (or is still
+     * being loaded, or its frame is being evicted)
+     */
+    private Frame fetchLoadedPageFrame(long pageNum) {
+        int frameIndex = this.pageTable.get(pageNum);
+        Frame[] frames = this.frames;
+        // the frame may have been removed by shrinking the buffer since the lookup
+        if (frameIndex == PageTable.NOT_FOUND || frameIndex >= frames.length) {
+            return null;
+        }
+        Frame frame = frames[frameIndex];
+        // the page may have been evicted since it was looked up; once pinned, it cannot be
+        if (frame.pageNum != pageNum || !frame.tryPin()) {
+            return null;
+        }
+        if (frame.pageNum != pageNum || frame.loading != null || frame.loadFailed) {
+            frame.unpin();
+            return null;
+        }
+        this.countersOf(pageNum).hit();
+        return frame;
+    }
+
+    /**
+     * Picks the frame to load a new page into, preferring free frames over evicting
+     * a loaded page, and removes the frame's current page (if any) from the page table.
+     * The caller must hold the manager lock.
+     *
+     * @return the frame to reuse (which must still be invalidated by the caller)
+     * @throws IllegalStateException if no frame is free and every frame is pinned
+     */
+    private Frame claimFrame() {
+        // prioritize free frames over eviction
+        if (this.firstFreeIndex < this.frames.length) {
+            Frame freeFrame = this.frames[this.firstFreeIndex];
+            freeFrame.setUsed();
+            return freeFrame;
+        }
+        while (true) {
+            Frame evictedFrame = (Frame) evictionPolicy.evict(frames);
+            // loaded pages are pinned without the manager lock, so the frame may have been
+            // pinned since the eviction policy picked it
+            if (evictedFrame.tryClaimForEviction()) {
+                PageCleaner cleaner = this.pageCleaner;
+                if (cleaner != null && evictedFrame.dirty) {
+                    cleaner.wakeUp();
+                }
+                this.pageTable.remove(evictedFrame.pageNum, evictedFrame.index);
+                evictionPolicy.cleanup(evictedFrame);
+                this.countersOf(evictedFrame.pageNum).evicted(evictedFrame.dirty);
+                return evictedFrame;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Picks the frame to load a new page into through a buffer ring: once the ring is full,
+     * this is the ring's oldest frame, unless it is in use. The caller must hold the manager
+     * lock, and must add the frame to the ring once the new page is assigned to it.
+     *
+     * @param ring buffer ring to load the page through, or null to use the whole buffer
+     * @return the frame to reuse (which must still be invalidated by the caller)
+     * @throws IllegalStateException if no frame is free and every frame is pinned
+     */
+    private Frame claimFrame(BufferRing ring) {
+        // the ring's frame may have been removed by shrinking the buffer
+        if (ring != null && ring.isFull() && ring.nextFrameIndex() < this.frames.length) {
+            Frame frame = this.frames[ring.nextFrameIndex()];
+            // the frame may have been evicted and reused for another page meanwhile
+            if (frame.isValid() && frame.pageNum == ring.nextPageNum() && frame.loading == null &&
+                    frame.tryClaimForEviction()) {
+                this.pageTable.remove(frame.pageNum, frame.index);
+                evictionPolicy.cleanup(frame);
+                this.countersOf(frame.pageNum).evicted(frame.dirty);
+                return frame;
+            }
+        }
+        return this.claimFrame();
+    }
+
+    /**
+     * Loads a run of consecutive pages into memory, without pinning them. Pages of the run
+     * that are not already loaded are read from disk with as few reads as possible, so this
+     * should be preferred to fetching the pages one at a time when the pages are known to be
+     * needed soon (e.g. in a sequential scan).
+     *
+     * At most a quarter of the buffer is used for a single run. Loading stops early at the
+     * first page that is not allocated, or when no more frames can be evicted.
+     *
+     * @param firstPageNum page number of the first page of the run
+     * @param count number of pages in the run
+     */
+    public void loadPages(long firstPageNum, int count) {
+        this.loadPages(firstPageNum, count, null);
+    }
+
+    /**
+     * Loads a run of consecutive pages into memory through a buffer ring (see loadPages
+     * and BufferRing).
+     *
+     * @param firstPageNum page number of the first page of the run
+     * @param count number of pages in the run
+     * @param ring buffer ring to load the pages through, or null to use the whole buffer
+     */
+    public void loadPages(long firstPageNum, int count, BufferRing ring) {
+        BufferManager pool = this.poolOf(DiskSpaceManager.getPartNum(firstPageNum));
+        if (pool != this) {
+            pool.loadPages(firstPageNum, count, ring);
+            return;
+        }
+        List<Frame> evictedFrames = new ArrayList<>();
+        List<Frame> newFrames = this.startLoads(firstPageNum, count, ring, true, evictedFrames);
+        this.readLoads(newFrames, evictedFrames);
+    }
+
+    /**
+     * Invalidates every frame evicted by startLoads, even if writing one of them back fails,
+     * since flushes of the evicted pages wait for their frames to be invalidated.
+     * @throws RuntimeException the first failure to write back an evicted frame
+     */
+    private static void invalidateAll(List<Frame> evictedFrames) {
+        RuntimeException failure = null;
+        for (Frame evictedFrame : evictedFrames) {
+            try {
+                evictedFrame.invalidate();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
         }
-        // read new page into frame
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Reads the pages of a run into the frames claimed for them by startLoads, after
+     * flushing the pages evicted from the frames.
+     */
+    private void readLoads(List<Frame> newFrames, List<Frame> evictedFrames) {
+        int loaded = 0;
         try {
-            newFrame.pageNum = pageNum;
-            newFrame.pin();
-            BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
-            this.incrementIOs();
-            return newFrame;
-        } catch (PageException e) {
-            newFrame.unpin();
+            // flush evicted frames
+            invalidateAll(evictedFrames);
+            // read new pages into frames, one read per run of consecutive page numbers
+            while (loaded < newFrames.size()) {
+                int end = runEnd(newFrames, loaded);
+                this.diskSpaceManager.readPages(newFrames.get(loaded).pageNum, end - loaded,
+                                                contentsOf(newFrames, loaded, end));
+                for (; loaded < end; ++loaded) {
+                    this.finishLoad(newFrames.get(loaded), null);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (; loaded < newFrames.size(); ++loaded) {
+                this.finishLoad(newFrames.get(loaded), e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Schedules a run of consecutive pages to be loaded into memory, like loadPages, but
+     * without pinning them and without waiting for them to be read: the pages are read by
+     * the disk space manager's I/O threads, with one read per run of pages that are not
+     * loaded yet. Fetching a page while it is being loaded waits for the load to finish.
+     * Prefetching is only a hint: pages that are already loaded or not allocated, and pages
+     * for which no frame can be evicted, are skipped.
+     *
+     * Dirty pages evicted to make room for the prefetched pages are still flushed by the
+     * calling thread.
+     *
+     * @param firstPageNum page number of the first page of the run
+     * @param count number of pages in the run
+     */
+    public void prefetchPages(long firstPageNum, int count) {
+        this.prefetchPages(firstPageNum, count, null);
+    }
+
+    /**
+     * Schedules a run of consecutive pages to be loaded into memory through a buffer ring
+     * (see prefetchPages and BufferRing).
+     *
+     * @param firstPageNum page number of the first page of the run
+     * @param count number of pages in the run
+     * @param ring buffer ring to load the pages through, or null to use the whole buffer
+     */
+    public void prefetchPages(long firstPageNum, int count, BufferRing ring) {
+        BufferManager pool = this.poolOf(DiskSpaceManager.getPartNum(firstPageNum));
+        if (pool != this) {
+            pool.prefetchPages(firstPageNum, count, ring);
+            return;
+        }
+        List<Frame> evictedFrames = new ArrayList<>();
+        List<Frame> newFrames = this.startLoads(firstPageNum, count, ring, true, evictedFrames);
+        try {
+            invalidateAll(evictedFrames);
+        } catch (RuntimeException e) {
+            for (Frame newFrame : newFrames) {
+                this.finishLoad(newFrame, e);
+            }
             throw e;
+        }
+        // read new pages into frames in the background
+        int start = 0;
+        while (start < newFrames.size()) {
+            int end = runEnd(newFrames, start);
+            List<Frame> run = newFrames.subList(start, end);
+            this.diskSpaceManager.readPagesAsync(run.get(0).pageNum, run.size(), contentsOf(newFrames, start, end))
+                    .whenComplete((Void v, Throwable e) -> {
+                        for (Frame frame : run) {
+                            this.finishLoad(frame, e);
+                        }
+                    });
+            start = end;
+        }
+    }
+
+    /**
+     * Schedules the specified page to be loaded into memory (see prefetchPages).
+     *
+     * @param pageNum page number of the page to prefetch
+     */
+    public void prefetch(long pageNum) {
+        this.prefetchPages(pageNum, 1);
+    }
+
+    /**
+     * Claims frames for the pages of a run that are not loaded yet (see loadPages), and
+     * marks them as loading. The new frames are pinned until the load finishes (see
+     * finishLoad), so that they cannot be evicted (and their byte arrays reused) while the
+     * pages are read into them, e.g. by later pages of the run.
+     *
+     * @param firstPageNum page number of the first page of the run
+     * @param count number of pages in the run
+     * @param ring buffer ring to load the pages through, or null to use the whole buffer
+     * @param evict whether to evict loaded pages once no frame is free, or stop loading
+     * @param evictedFrames list to add the frames claimed to, which must still be invalidated
+     * @return the new frames, in page order
+     */
+    private List<Frame> startLoads(long firstPageNum, int count, BufferRing ring, boolean evict,
+                                   List<Frame> evictedFrames) {
+        count = Math.min(count, Math.max(1, this.frames.length / 4));
+        if (ring != null) {
+            // the pages of a run are pinned until read, so must not reuse each other's frames
+            count = Math.min(count, ring.capacity());
+        }
+        List<Frame> newFrames = new ArrayList<>();
+        this.managerLock.lock();
+        try {
+            for (int i = 0; i < count; ++i) {
+                long pageNum = firstPageNum + i;
+                // the partition may have been moved to another pool since the caller picked
+                // this one (see loadSavedPages)
+                if (this.poolOf(DiskSpaceManager.getPartNum(pageNum)) != this ||
+                        !this.diskSpaceManager.pageAllocated(pageNum)) {
+                    break;
+                }
+                if (this.pageTable.get(pageNum) != PageTable.NOT_FOUND) {
+                    continue;
+                }
+                if (!evict && this.firstFreeIndex >= this.frames.length) {
+                    break;
+                }
+                Frame evictedFrame;
+                try {
+                    evictedFrame = this.claimFrame(ring);
+                } catch (IllegalStateException e) {
+                    // everything else is pinned, load what we have so far
+                    break;
+                }
+                int frameIndex = evictedFrame.index;
+                Frame newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
+                newFrame.loadedAhead = true;
+                evictionPolicy.init(newFrame);
+                if (ring != null) {
+                    ring.add(frameIndex, pageNum);
+                }
+
+                newFrame.loading = new CompletableFuture<>();
+                newFrame.pin();
+
+                this.pageTable.put(pageNum, frameIndex);
+                evictedFrames.add(evictedFrame);
+                newFrames.add(newFrame);
+            }
         } finally {
-            newFrame.frameLock.unlock();
+            this.managerLock.unlock();
+        }
+        return newFrames;
+    }
+
+    /**
+     * @return the end (exclusive) of the run of frames with consecutive page numbers
+     * starting at frames[start]
+     */
+    private static int runEnd(List<Frame> frames, int start) {
+        int end = start + 1;
+        while (end < frames.size() && frames.get(end).pageNum == frames.get(end - 1).pageNum + 1) {
+            ++end;
+        }
+        return end;
+    }
+
+    private static ByteBuffer[] contentsOf(List<Frame> frames, int start, int end) {
+        ByteBuffer[] bufs = new ByteBuffer[end - start];
+        for (int i = start; i < end; ++i) {
+            bufs[i - start] = frames.get(i).contents;
+        }
+        return bufs;
+    }
+
+    /**
+     * Marks a load of a page ahead of it being fetched (by loadPages or prefetchPages) as
+     * finished, and unpins the frame. Does not require the manager lock, since it is
+     * called from I/O threads.
+     *
+     * @param frame frame that was being loaded
+     * @param error exception the load failed with, or null if it succeeded
+     */
+    private void finishLoad(Frame frame, Throwable error) {
+        frame.unpin();
+        if (error == null) {
+            this.incrementIOs();
+            this.countersOf(frame.pageNum).prefetched();
+        }
+        this.completeLoad(frame, error);
+    }
+
+    /**
+     * Marks a load into a frame as finished, letting fetches of the page that were waiting
+     * for it proceed. If the load failed, the frame is only flagged, and discarded by the
+     * next fetch of the page.
+     *
+     * @param frame frame that was being loaded
+     * @param error exception the load failed with, or null if it succeeded
+     */
+    private void completeLoad(Frame frame, Throwable error) {
+        CompletableFuture<Void> loading = frame.loading;
+        if (error != null) {
+            frame.loadFailed = true;
+        }
+        frame.loading = null;
+        loading.complete(null);
+    }
+
+    /**
+     * Waits for an asynchronous load into a frame (if any) to finish.
+     */
+    private void awaitLoad(Frame frame) {
+        CompletableFuture<Void> loading = frame.loading;
+        if (loading != null) {
+            loading.join();
         }
     }
 
@@ -457,7 +2062,20 @@ public class BufferManager implements AutoCloseable {
      * @return specified page
      */
     public Page fetchPage(LockContext parentContext, long pageNum) {
-        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum));
+        return this.fetchPage(parentContext, pageNum, null);
+    }
+
+    /**
+     * Fetches the specified page, with a loaded and pinned buffer frame, loading the page
+     * through a buffer ring if it is not loaded yet (see BufferRing).
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number
+     * @param ring          buffer ring to load the page through, or null to use the whole buffer
+     * @return specified page
+     */
+    public Page fetchPage(LockContext parentContext, long pageNum, BufferRing ring) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, ring));
     }
 
     /**
@@ -467,10 +2085,26 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame for the new page
      */
     Frame fetchNewPageFrame(int partNum) {
+        return this.fetchNewPageFrame(partNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame for a new page, loaded through a buffer ring (see BufferRing).
+     * Pins the buffer frame. Cannot be used outside the package.
+     *
+     * @param partNum partition number for new page
+     * @param ring buffer ring to load the page through, or null to use the whole buffer
+     * @return buffer frame for the new page
+     */
+    Frame fetchNewPageFrame(int partNum, BufferRing ring) {
+        BufferManager pool = this.poolOf(partNum);
+        if (pool != this) {
+            return pool.fetchNewPageFrame(partNum, ring);
+        }
         long pageNum = this.diskSpaceManager.allocPage(partNum);
         this.managerLock.lock();
         try {
-            return fetchPageFrame(pageNum);
+            return fetchPageFrame(pageNum, ring);
         } finally {
             this.managerLock.unlock();
         }
@@ -484,7 +2118,20 @@ public class BufferManager implements AutoCloseable {
      * @return the new page
      */
     public Page fetchNewPage(LockContext parentContext, int partNum) {
-        Frame newFrame = this.fetchNewPageFrame(partNum);
+        return this.fetchNewPage(parentContext, partNum, null);
+    }
+
+    /**
+     * Fetches a new page, with a loaded and pinned buffer frame taken from a buffer ring
+     * (see BufferRing).
+     *
+     * @param parentContext parent lock context of the new page
+     * @param partNum       partition number for new page
+     * @param ring          buffer ring to load the page through, or null to use the whole buffer
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, int partNum, BufferRing ring) {
+        Frame newFrame = this.fetchNewPageFrame(partNum, ring);
         return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
     }
 
@@ -496,14 +2143,19 @@ public class BufferManager implements AutoCloseable {
      * @param page page to free
      */
     public void freePage(Page page) {
+        BufferManager pool = this.poolOf(DiskSpaceManager.getPartNum(page.getPageNum()));
+        if (pool != this) {
+            pool.freePage(page);
+            return;
+        }
         this.managerLock.lock();
         try {
             TransactionContext transaction = TransactionContext.getTransaction();
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
+            int frameIndex = this.pageTable.get(page.getPageNum());
 
             Frame frame = this.frames[frameIndex];
             if (transaction != null) page.flush();
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
+            this.pageTable.remove(page.getPageNum(), frameIndex);
             evictionPolicy.cleanup(frame);
             frame.setFree();
 
@@ -522,12 +2174,18 @@ public class BufferManager implements AutoCloseable {
      * @param partNum partition number to free
      */
     public void freePart(int partNum) {
+        BufferManager pool = this.poolOf(partNum);
+        if (pool != this) {
+            pool.freePart(partNum);
+            return;
+        }
         this.managerLock.lock();
         try {
             for (int i = 0; i < frames.length; ++i) {
                 Frame frame = frames[i];
+                this.awaitLoad(frame);
                 if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
+                    this.pageTable.remove(frame.getPageNum(), i);
                     evictionPolicy.cleanup(frame);
                     frame.flush();
                     frame.setFree();
@@ -539,6 +2197,48 @@ public class BufferManager implements AutoCloseable {
         } finally {
             this.managerLock.unlock();
         }
+        // the partition number may be reused, and its statistics should start over
+        synchronized (this.counters) {
+            if (partNum < this.partitionCounters.length && this.partitionCounters[partNum] != null) {
+                Counters[] partitionCounters = this.partitionCounters.clone();
+                partitionCounters[partNum] = null;
+                this.partitionCounters = partitionCounters;
+            }
+        }
+        if (this.defaultPool != this) {
+            // the partition number may be reused for a partition of another class
+            this.defaultPool.managerLock.lock();
+            try {
+                BufferManager[] pools = this.defaultPool.partitionPools.clone();
+                pools[partNum] = null;
+                this.defaultPool.partitionPools = pools;
+            } finally {
+                this.defaultPool.managerLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes back and evicts every loaded page of a partition.
+     *
+     * @throws IllegalStateException if a page of the partition is pinned
+     */
+    private void evictPart(int partNum) {
+        this.managerLock.lock();
+        try {
+            for (int i = 0; i < this.frames.length; ++i) {
+                Frame frame = this.frames[i];
+                this.awaitLoad(frame);
+                if (frame.isValid() && DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
+                    this.evict(i);
+                    if (frame.isValid()) {
+                        throw new IllegalStateException("page " + frame.pageNum + " is pinned");
+                    }
+                }
+            }
+        } finally {
+            this.managerLock.unlock();
+        }
     }
 
     /**
@@ -547,71 +2247,293 @@ public class BufferManager implements AutoCloseable {
      * @param pageNum page number of page to evict
      */
     public void evict(long pageNum) {
+        BufferManager pool = this.poolOf(DiskSpaceManager.getPartNum(pageNum));
+        if (pool != this) {
+            pool.evict(pageNum);
+            return;
+        }
         managerLock.lock();
         try {
-            if (!pageToFrame.containsKey(pageNum)) {
+            int frameIndex = pageTable.get(pageNum);
+            if (frameIndex == PageTable.NOT_FOUND) {
                 return;
             }
-            evict(pageToFrame.get(pageNum));
+            evict(frameIndex);
         } finally {
             managerLock.unlock();
         }
     }
 
     private void evict(int i) {
+        // the buffer may have been shrunk since i was picked
+        if (i >= frames.length) {
+            return;
+        }
         Frame frame = frames[i];
-        frame.frameLock.lock();
-        try {
-            if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
-                evictionPolicy.cleanup(frame);
+        if (frame.isValid() && frame.tryClaimForEviction()) {
+            this.pageTable.remove(frame.pageNum, frame.index);
+            evictionPolicy.cleanup(frame);
 
-                frames[i] = new Frame(frame.contents, this.firstFreeIndex);
-                this.firstFreeIndex = i;
+            frames[i] = new Frame(frame.contents, this.firstFreeIndex);
+            this.firstFreeIndex = i;
 
-                frame.invalidate();
+            this.countersOf(frame.pageNum).evicted(frame.dirty);
+            frame.invalidate();
+        }
+    }
+
+    /**
+     * Writes back every dirty page (of every pool, if called on the default pool), without
+     * evicting any. The pages are written in order of partition and page number, i.e. in the
+     * order they are stored in, each partition by a single thread, with up to FLUSH_THREADS
+     * partitions written at once. The writes are not forced to disk one by one; instead,
+     * every partition written to is synced once all its pages are written. Pages dirtied
+     * again while this runs may be left dirty.
+     */
+    public void flushAll() {
+        List<Frame> dirtyFrames = new ArrayList<>();
+        for (BufferManager pool : this.coveredPools()) {
+            for (Frame frame : pool.frames) {
+                // pinned, so that the frame is not evicted until it is written back
+                if (frame.dirty && frame.tryPin()) {
+                    dirtyFrames.add(frame);
+                }
+            }
+        }
+        try {
+            dirtyFrames.sort(Comparator.comparingLong(frame -> frame.pageNum));
+            List<List<Frame>> partitions = new ArrayList<>();
+            int start = 0;
+            for (int i = 1; i <= dirtyFrames.size(); ++i) {
+                int partNum = DiskSpaceManager.getPartNum(dirtyFrames.get(start).pageNum);
+                if (i == dirtyFrames.size() || DiskSpaceManager.getPartNum(dirtyFrames.get(i).pageNum) != partNum) {
+                    partitions.add(dirtyFrames.subList(start, i));
+                    start = i;
+                }
             }
+            this.writeBackPartitions(partitions);
         } finally {
-            frame.frameLock.unlock();
+            for (Frame frame : dirtyFrames) {
+                frame.unpin();
+            }
+        }
+    }
+
+    /**
+     * Writes back the dirty frames of each partition, and syncs the partition, with up to
+     * FLUSH_THREADS threads (including the calling one) each taking the next partition.
+     * Pages of the log partition are forced one by one as usual, since they are written
+     * back ahead of data pages anyway to honor the write-ahead rule (see
+     * RecoveryManager#pageFlushHook).
+     *
+     * @param partitions runs of dirty frames, each of a single partition, sorted by page number
+     */
+    private void writeBackPartitions(List<List<Frame>> partitions) {
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<RuntimeException> error = new AtomicReference<>();
+        Runnable writer = () -> {
+            int i;
+            while (error.get() == null && (i = next.getAndIncrement()) < partitions.size()) {
+                List<Frame> run = partitions.get(i);
+                int partNum = DiskSpaceManager.getPartNum(run.get(0).pageNum);
+                boolean sync = partNum == LogManager.LOG_PARTITION;
+                try {
+                    for (Frame frame : run) {
+                        frame.writeBack(sync);
+                    }
+                    if (!sync) {
+                        this.diskSpaceManager.sync(partNum);
+                    }
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        };
+        Thread[] threads = new Thread[Math.max(0, Math.min(FLUSH_THREADS, partitions.size()) - 1)];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(writer, "rookiedb-flush-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        writer.run();
+        for (Thread thread : threads) {
+            joinUninterruptibly(thread);
         }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    /**
+     * Forces every write made to a partition so far to disk, e.g. after writing back pages
+     * with Page#flushWithoutSync.
+     * @param partNum partition to sync
+     */
+    public void syncPart(int partNum) {
+        this.diskSpaceManager.sync(partNum);
     }
 
     /**
-     * Calls evict on every frame in sequence.
+     * Calls evict on every frame in sequence (of every pool, if called on the default pool),
+     * after writing back every dirty page at once (see flushAll).
      */
     public void evictAll() {
-        for (int i = 0; i < frames.length; ++i) {
-            evict(i);
+        this.flushAll();
+        for (BufferManager pool : this.coveredPools()) {
+            for (int i = 0; i < pool.frames.length; ++i) {
+                pool.evict(i);
+            }
         }
     }
 
     /**
-     * Calls the passed in method with the page number of every loaded page.
+     * Calls the passed in method with the page number of every loaded page (of every pool,
+     * if called on the default pool).
      * @param process method to consume page numbers. The first parameter is the page number,
      *                and the second parameter is a boolean indicating whether the page is dirty
      *                (has an unflushed change).
      */
     public void iterPageNums(BiConsumer<Long, Boolean> process) {
-        for (Frame frame : frames) {
-            frame.frameLock.lock();
-            try {
+        for (BufferManager pool : this.coveredPools()) {
+            for (Frame frame : pool.frames) {
                 if (frame.isValid()) {
                     process.accept(frame.pageNum, frame.dirty);
                 }
-            } finally {
-                frame.frameLock.unlock();
             }
         }
     }
 
+    /**
+     * Starts recording the page number of every page fetched (including new pages) in a
+     * trace, e.g. to compare eviction policies on a real workload (see PageReferenceTrace).
+     * Loading pages ahead of their fetch (loadPages/prefetchPages) is not recorded. Fetches
+     * of every pool are recorded in the same trace.
+     * @param trace trace to record in, or null to stop recording
+     */
+    public void setReferenceTrace(PageReferenceTrace trace) {
+        this.defaultPool.referenceTrace = trace;
+    }
+
     /**
      * Get the number of I/Os since the buffer manager was started, excluding anything used in disk
      * space management, and not counting allocation/free. This is not really useful except as a
      * relative measure.
-     * @return number of I/Os
+     * @return number of I/Os (of every pool, if called on the default pool)
      */
     public long getNumIOs() {
-        return numIOs;
+        long total = 0;
+        for (BufferManager pool : this.coveredPools()) {
+            total += pool.numIOs.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Gets a snapshot of the buffer manager's counters since it was started. Counters are
+     * read one at a time while the buffer manager is in use, so they are not necessarily
+     * consistent with each other.
+     * @return counts of hits, misses, prefetched pages, evictions and dirty page writebacks,
+     * pin and latch wait times, and the number of loaded and dirty pages (of every pool, if
+     * called on the default pool)
+     */
+    public Stats getStats() {
+        List<Stats> stats = new ArrayList<>();
+        for (BufferManager pool : this.coveredPools()) {
+            int[] pages = pool.countPages();
+            stats.add(new Stats(pool.counters, pages[0], pages[1]));
+        }
+        return Stats.sum(stats);
+    }
+
+    /**
+     * Gets a snapshot of the statistics of each pool, and of the pages of each partition
+     * used in it since the partition was last freed, as with getStats.
+     * @return statistics of each pool (of every pool, default pool first, if called on the
+     * default pool)
+     */
+    public List<PoolStats> getPoolStats() {
+        List<PoolStats> stats = new ArrayList<>();
+        for (BufferManager pool : this.coveredPools()) {
+            stats.add(pool.poolStats());
+        }
+        return stats;
+    }
+
+    private PoolStats poolStats() {
+        Frame[] frames = this.frames;
+        // loaded and dirty pages of each partition
+        SortedMap<Integer, int[]> pages = new TreeMap<>();
+        for (Frame frame : frames) {
+            if (frame.isValid()) {
+                int[] counts = pages.computeIfAbsent(DiskSpaceManager.getPartNum(frame.pageNum), p -> new int[2]);
+                ++counts[0];
+                if (frame.dirty) {
+                    ++counts[1];
+                }
+            }
+        }
+        SortedMap<Integer, Stats> partitions = new TreeMap<>();
+        Counters[] partitionCounters = this.partitionCounters;
+        int loadedPages = 0;
+        int dirtyPages = 0;
+        for (int partNum = 0; partNum < partitionCounters.length; ++partNum) {
+            if (partitionCounters[partNum] != null) {
+                int[] counts = pages.getOrDefault(partNum, new int[2]);
+                partitions.put(partNum, new Stats(partitionCounters[partNum], counts[0], counts[1]));
+            }
+        }
+        for (int[] counts : pages.values()) {
+            loadedPages += counts[0];
+            dirtyPages += counts[1];
+        }
+        return new PoolStats(this.poolName, frames.length, new Stats(this.counters, loadedPages, dirtyPages),
+                             partitions, this.evictionPolicy.getStats(frames));
+    }
+
+    /**
+     * Counts the loaded and dirty pages of the pool.
+     * @return number of loaded pages, and number of dirty pages
+     */
+    private int[] countPages() {
+        int[] counts = new int[2];
+        for (Frame frame : this.frames) {
+            if (frame.isValid()) {
+                ++counts[0];
+                if (frame.dirty) {
+                    ++counts[1];
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return counters of the partition of a page, or of the pool if the page number is invalid
+     */
+    private Counters countersOf(long pageNum) {
+        if (pageNum == DiskSpaceManager.INVALID_PAGE_NUM) {
+            return this.counters;
+        }
+        int partNum = DiskSpaceManager.getPartNum(pageNum);
+        Counters[] partitionCounters = this.partitionCounters;
+        if (partNum < partitionCounters.length && partitionCounters[partNum] != null) {
+            return partitionCounters[partNum];
+        }
+        // not the manager lock, since this is called from I/O threads while a thread
+        // holding the manager lock may be waiting for them
+        synchronized (this.counters) {
+            partitionCounters = this.partitionCounters;
+            if (partNum >= partitionCounters.length) {
+                partitionCounters = Arrays.copyOf(partitionCounters, partNum + 1);
+            } else if (partitionCounters[partNum] == null) {
+                partitionCounters = partitionCounters.clone();
+            } else {
+                return partitionCounters[partNum];
+            }
+            partitionCounters[partNum] = new Counters(this.counters);
+            this.partitionCounters = partitionCounters;
+            return partitionCounters[partNum];
+        }
     }
 
     public static boolean logIOs;
@@ -626,17 +2548,25 @@ public class BufferManager implements AutoCloseable {
                 }
             }
         }
-        ++numIOs;
+        numIOs.increment();
     }
 
     /**
-     * Wraps a frame in a page object.
+     * Wraps a frame in a page object. The page's lock context is cached in the frame, so
+     * that fetching a loaded page again under the same parent context (as e.g. every lookup
+     * in a table or an index does) takes neither the parent context's lock nor allocates a
+     * new context.
      * @param parentContext parent lock context of the page
      * @param pageNum page number
      * @param frame frame for the page
      * @return page object
      */
     private Page frameToPage(LockContext parentContext, long pageNum, Frame frame) {
-        return new Page(parentContext.childContext(pageNum), frame);
+        ChildContext childContext = frame.childContext;
+        if (childContext == null || childContext.parentContext != parentContext) {
+            childContext = new ChildContext(parentContext, parentContext.childContext(pageNum));
+            frame.childContext = childContext;
+        }
+        return new Page(childContext.context, frame);
     }
 }
@@ -0,0 +1,78 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Buffer access strategy for large sequential scans and bulk writes, which would otherwise
+ * flush the rest of the buffer: pages loaded through a ring (see e.g.
+ * BufferManager#fetchPage(LockContext, long, BufferRing)) are loaded into frames taken from
+ * the buffer as usual until the ring is full, and from then on into the ring's own frames,
+ * reusing the frame of the page that was loaded through the ring the longest ago. A frame
+ * that cannot be reused (because it is pinned, or its page was evicted meanwhile) is
+ * replaced in the ring by a frame taken from the buffer.
+ *
+ * A ring is only accessed while holding the buffer manager's lock.
+ */
+public class BufferRing {
+    // frame indices and page numbers of the pages loaded through the ring, with the
+    // oldest at next once the ring is full
+    private final int[] frameIndices;
+    private final long[] pageNums;
+    private int size;
+    private int next;
+
+    /**
+     * @param capacity maximum number of frames used by the ring
+     */
+    public BufferRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("buffer ring capacity must be positive");
+        }
+        this.frameIndices = new int[capacity];
+        this.pageNums = new long[capacity];
+        this.size = 0;
+        this.next = 0;
+    }
+
+    /**
+     * @return maximum number of frames used by the ring
+     */
+    public int capacity() {
+        return this.frameIndices.length;
+    }
+
+    /**
+     * @return whether the next page loaded through the ring should reuse one of its frames
+     */
+    boolean isFull() {
+        return this.size == this.frameIndices.length;
+    }
+
+    /**
+     * @return index of the frame to reuse next, if the ring is full
+     */
+    int nextFrameIndex() {
+        return this.frameIndices[this.next];
+    }
+
+    /**
+     * @return page number the frame to reuse next was loaded with, if the ring is full
+     */
+    long nextPageNum() {
+        return this.pageNums[this.next];
+    }
+
+    /**
+     * Adds the frame a page was loaded into to the ring. Once the ring is full, the frame
+     * replaces the one that was to be reused next (which is the same frame if it was reused).
+     *
+     * @param frameIndex index of the frame the page was loaded into
+     * @param pageNum page number of the page loaded
+     */
+    void add(int frameIndex, long pageNum) {
+        this.frameIndices[this.next] = frameIndex;
+        this.pageNums[this.next] = pageNum;
+        if (this.size < this.frameIndices.length) {
+            ++this.size;
+        }
+        this.next = (this.next + 1) % this.frameIndices.length;
+    }
+}
@@ -1,8 +1,19 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Implementation of clock eviction policy, which works by adding a reference
  * bit to each frame, and running the algorithm.
+ *
+ * The reference bit is the frame's tag. Hits only ever set it, without any lock, and only
+ * write it if it is not set yet, so that hits of the same page from many threads do not
+ * contend on it; the arm (which only moves while the buffer manager holds its lock) is the
+ * only one to clear it. A hit racing with the arm either sets the bit after the arm cleared
+ * it, or found it still set and so happened before the arm passed the frame.
  */
 public class ClockEvictionPolicy implements EvictionPolicy {
     private int arm;
@@ -28,18 +39,24 @@ public class ClockEvictionPolicy implements EvictionPolicy {
      */
     @Override
     public void hit(BufferFrame frame) {
-        frame.tag = ACTIVE;
+        if (frame.tag != ACTIVE) {
+            frame.tag = ACTIVE;
+        }
     }
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
     @Override
     public BufferFrame evict(BufferFrame[] frames) {
         int iters = 0;
+        if (this.arm >= frames.length) {
+            // the buffer was shrunk
+            this.arm = 0;
+        }
         // loop around the frames looking for a frame that has bit 0
         // iters is used to ensure that we don't loop forever - after two
         // passes through the frames, every frame has bit 0, so if we still haven't
@@ -66,4 +83,48 @@ public class ClockEvictionPolicy implements EvictionPolicy {
      */
     @Override
     public void cleanup(BufferFrame frame) {}
+
+    /**
+     * Called to rank the loaded pages, e.g. to save the pages most worth loading again
+     * after a restart. Frames are ranked in the order the arm reaches them, frames
+     * with their reference bit cleared first.
+     * @param frames Array of all frames
+     * @return the valid frames, in the order the policy would evict them if none was pinned
+     */
+    @Override
+    public List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>();
+        List<BufferFrame> active = new ArrayList<>();
+        for (int i = 0; i < frames.length; ++i) {
+            BufferFrame frame = frames[(this.arm + i) % frames.length];
+            if (!frame.isValid()) {
+                continue;
+            }
+            if (frame.tag == ACTIVE) {
+                active.add(frame);
+            } else {
+                order.add(frame);
+            }
+        }
+        order.addAll(active);
+        return order;
+    }
+
+    /**
+     * Called to report the policy's own bookkeeping.
+     * @param frames Array of all frames
+     * @return number of loaded frames with their reference bit set
+     */
+    @Override
+    public Map<String, Long> getStats(BufferFrame[] frames) {
+        long referenced = 0;
+        for (BufferFrame frame : frames) {
+            if (frame.isValid() && frame.tag == ACTIVE) {
+                ++referenced;
+            }
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("referenced", referenced);
+        return stats;
+    }
 }
@@ -1,9 +1,25 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Interface for eviction policies for the buffer manager.
+ *
+ * The buffer manager calls setCapacity, init, evict and cleanup while holding its lock, but hit is called
+ * without any lock, from any number of threads at once, and may run concurrently with the
+ * other methods.
  */
 public interface EvictionPolicy {
+    /**
+     * Called when the buffer is created, before any other call, and whenever it is resized.
+     * Policies that remember pages no longer loaded size that history from this.
+     * @param numFrames number of frames in the buffer
+     */
+    default void setCapacity(int numFrames) {}
+
     /**
      * Called to initiaize a new buffer frame.
      * @param frame new frame to be initialized
@@ -18,7 +34,7 @@ public interface EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
@@ -31,4 +47,31 @@ public interface EvictionPolicy {
      * @param frame frame being removed
      */
     void cleanup(BufferFrame frame);
+
+    /**
+     * Called to rank the loaded pages, e.g. to save the pages most worth loading again
+     * after a restart (see BufferManager#getLoadedPageNums). Policies that do not keep
+     * frames in any order of use rank them in index order.
+     * @param frames Array of all frames
+     * @return the valid frames, in the order the policy would evict them if none was pinned
+     */
+    default List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>();
+        for (BufferFrame frame : frames) {
+            if (frame.isValid()) {
+                order.add(frame);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Called to report the policy's own bookkeeping, e.g. the sizes of its queues (see
+     * BufferManager#getPoolStats). Policies without any report nothing.
+     * @param frames Array of all frames
+     * @return statistic names mapped to their current values, in the order to show them
+     */
+    default Map<String, Long> getStats(BufferFrame[] frames) {
+        return Collections.emptyMap();
+    }
 }
@@ -1,13 +1,53 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * Implementation of LRU eviction policy, which works by creating a
  * doubly-linked list between frames in order of ascending use time.
+ *
+ * The buffer manager reports hits without holding its lock, from many threads at once, so
+ * hits do not move frames in the list right away: each thread records its hits in one of
+ * several small buffers, and the list is only updated by whichever thread fills a buffer
+ * (if no other thread is updating it), and before any other method uses it. A hit that
+ * finds its buffer full is dropped, so under heavy contention the order is approximate;
+ * this is the same trade as in Caffeine's read buffers. The list itself is only accessed
+ * while holding the policy's lock.
  */
 public class LRUEvictionPolicy implements EvictionPolicy {
+    // Hits recorded in each buffer; a power of two
+    private static final int HIT_BUFFER_SIZE = 16;
+
     private Tag listHead;
     private Tag listTail;
 
+    // Lock on the list
+    private final ReentrantLock lock = new ReentrantLock();
+    // Buffers of hits not yet applied to the list; a thread records its hits in the buffer
+    // picked by its id. The number of buffers is a power of two.
+    private final HitBuffer[] hitBuffers;
+    // Hits dropped because their buffer was full
+    private final LongAdder droppedHits = new LongAdder();
+
+    /**
+     * Ring buffer of hits, which any number of threads can record hits in, and which is
+     * drained while holding the policy's lock.
+     */
+    private static class HitBuffer {
+        // frames hit, or null where a hit was drained (or is still being recorded)
+        final AtomicReferenceArray<BufferFrame> frames = new AtomicReferenceArray<>(HIT_BUFFER_SIZE);
+        // number of hits ever recorded, and ever drained
+        final AtomicLong writes = new AtomicLong();
+        volatile long reads;
+    }
+
     // Doubly-linked list between frames, in order of least to most
     // recently used.
     private class Tag {
@@ -29,6 +69,11 @@ public class LRUEvictionPolicy implements EvictionPolicy {
         this.listTail = new Tag();
         this.listHead.next = this.listTail;
         this.listTail.prev = this.listHead;
+        int numBuffers = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.hitBuffers = new HitBuffer[numBuffers];
+        for (int i = 0; i < numBuffers; ++i) {
+            this.hitBuffers[i] = new HitBuffer();
+        }
     }
 
     /**
@@ -37,22 +82,74 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      */
     @Override
     public void init(BufferFrame frame) {
-        Tag frameTag = new Tag();
-        frameTag.next = listTail;
-        frameTag.prev = listTail.prev;
-        listTail.prev = frameTag;
-        frameTag.prev.next = frameTag;
-        frameTag.cur = frame;
-        frame.tag = frameTag;
+        this.lock.lock();
+        try {
+            this.drainHits();
+            Tag frameTag = new Tag();
+            frameTag.next = listTail;
+            frameTag.prev = listTail.prev;
+            listTail.prev = frameTag;
+            frameTag.prev.next = frameTag;
+            frameTag.cur = frame;
+            frame.tag = frameTag;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     /**
-     * Called when a frame is hit.
+     * Called when a frame is hit. Only records the hit, without taking the policy's lock,
+     * unless the hit fills its buffer.
      * @param frame Frame object that is being read from/written to
      */
     @Override
     public void hit(BufferFrame frame) {
-        Tag frameTag = (Tag) frame.tag;
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        HitBuffer buffer = this.hitBuffers[(hash ^ (hash >>> 16)) & (this.hitBuffers.length - 1)];
+        long write = buffer.writes.get();
+        if (write - buffer.reads >= HIT_BUFFER_SIZE || !buffer.writes.compareAndSet(write, write + 1)) {
+            // the buffer is full, or another thread is recording a hit in it
+            this.droppedHits.increment();
+            return;
+        }
+        buffer.frames.lazySet((int) write & (HIT_BUFFER_SIZE - 1), frame);
+        if (write + 1 - buffer.reads >= HIT_BUFFER_SIZE && this.lock.tryLock()) {
+            try {
+                this.drainHits();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves the frames of the recorded hits to the end of the list, in the order each
+     * buffer recorded them. The caller must hold the policy's lock.
+     */
+    private void drainHits() {
+        for (HitBuffer buffer : this.hitBuffers) {
+            long read = buffer.reads;
+            long write = buffer.writes.get();
+            for (; read < write; ++read) {
+                int i = (int) read & (HIT_BUFFER_SIZE - 1);
+                BufferFrame frame = buffer.frames.get(i);
+                if (frame == null) {
+                    // still being recorded; drained next time
+                    break;
+                }
+                buffer.frames.lazySet(i, null);
+                Tag frameTag = (Tag) frame.tag;
+                // the frame may have been cleaned up since it was hit
+                if (frameTag != null && frameTag.next != frameTag) {
+                    this.moveToTail(frameTag);
+                }
+            }
+            buffer.reads = read;
+        }
+    }
+
+    private void moveToTail(Tag frameTag) {
         frameTag.prev.next = frameTag.next;
         frameTag.next.prev = frameTag.prev;
         frameTag.next = this.listTail;
@@ -63,20 +160,26 @@ public class LRUEvictionPolicy implements EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
     @Override
     public BufferFrame evict(BufferFrame[] frames) {
-        Tag frameTag = this.listHead.next;
-        while (frameTag.cur != null && frameTag.cur.isPinned()) {
-            frameTag = frameTag.next;
-        }
-        if (frameTag.cur == null) {
-            throw new IllegalStateException("cannot evict anything - everything pinned");
+        this.lock.lock();
+        try {
+            this.drainHits();
+            Tag frameTag = this.listHead.next;
+            while (frameTag.cur != null && frameTag.cur.isPinned()) {
+                frameTag = frameTag.next;
+            }
+            if (frameTag.cur == null) {
+                throw new IllegalStateException("cannot evict anything - everything pinned");
+            }
+            return frameTag.cur;
+        } finally {
+            this.lock.unlock();
         }
-        return frameTag.cur;
     }
 
     /**
@@ -87,9 +190,48 @@ public class LRUEvictionPolicy implements EvictionPolicy {
      */
     @Override
     public void cleanup(BufferFrame frame) {
-        Tag frameTag = (Tag) frame.tag;
-        frameTag.prev.next = frameTag.next;
-        frameTag.next.prev = frameTag.prev;
-        frameTag.prev = frameTag.next = frameTag;
+        this.lock.lock();
+        try {
+            this.drainHits();
+            Tag frameTag = (Tag) frame.tag;
+            frameTag.prev.next = frameTag.next;
+            frameTag.next.prev = frameTag.prev;
+            frameTag.prev = frameTag.next = frameTag;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Called to rank the loaded pages, e.g. to save the pages most worth loading again
+     * after a restart.
+     * @param frames Array of all frames
+     * @return the valid frames, in the order the policy would evict them if none was pinned
+     */
+    @Override
+    public List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        this.lock.lock();
+        try {
+            this.drainHits();
+            List<BufferFrame> order = new ArrayList<>();
+            for (Tag frameTag = this.listHead.next; frameTag.cur != null; frameTag = frameTag.next) {
+                order.add(frameTag.cur);
+            }
+            return order;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Called to report the policy's own bookkeeping.
+     * @param frames Array of all frames
+     * @return number of hits dropped because their buffer was full
+     */
+    @Override
+    public Map<String, Long> getStats(BufferFrame[] frames) {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("dropped hits", this.droppedHits.sum());
+        return stats;
     }
 }
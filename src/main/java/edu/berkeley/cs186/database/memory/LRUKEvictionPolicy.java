@@ -0,0 +1,233 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Implementation of the LRU-K eviction policy (O'Neil, O'Neil and Weikum), which evicts the
+ * page whose K-th most recent reference is the oldest. Pages referenced fewer than K times
+ * are evicted first (in LRU order), so a page read once by a scan never displaces a page
+ * that is referenced repeatedly. As in the original algorithm, hits within a correlated
+ * reference period of the page's last hit are correlated, and do not count as new
+ * references. Time is logical, and only advances when a page is loaded or a page other than
+ * the last page hit is hit, so that a scan, which fetches each page once per record (with
+ * only a header page hit in between), makes a single reference to each page, while pages
+ * that queries keep coming back to are referenced again. The first hit on a page loaded
+ * ahead of its fetch is not a new reference either.
+ * The reference history of evicted pages is retained for as many pages as there are frames,
+ * so that a page evicted shortly before it is referenced again keeps its history.
+ *
+ * Methods are synchronized, since the buffer manager reports hits without holding its lock.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+    /**
+     * Default correlated reference period: a hit is a new reference if the logical time
+     * advanced by more than this since the page's last hit.
+     */
+    public static final int DEFAULT_CORRELATED_PERIOD = 2;
+
+    private final int k;
+    private final int correlatedPeriod;
+    // Logical time, incremented on every load and every hit of another page than the last
+    private long time;
+    // Page number of the page last loaded or hit
+    private long lastPageNum = DiskSpaceManager.INVALID_PAGE_NUM;
+    // Tags of loaded frames, ordered by K-th most recent reference (0 if there is none),
+    // then by most recent reference
+    private final TreeSet<Tag> tags;
+    // Reference histories of evicted pages, in order of eviction
+    private final LinkedHashMap<Long, long[]> retained;
+    // Number of frames, set by the buffer manager
+    private int capacity;
+
+    private class Tag {
+        // Times of the K most recent references, most recent first
+        long[] history;
+        // Time of the last hit, correlated or not
+        long last;
+        BufferFrame cur;
+
+        @Override
+        public String toString() {
+            return cur + " (last=" + history[0] + ", kth=" + history[k - 1] + ")";
+        }
+    }
+
+    /**
+     * Creates an LRU-2 policy.
+     */
+    public LRUKEvictionPolicy() {
+        this(2);
+    }
+
+    /**
+     * @param k number of most recent references considered
+     */
+    public LRUKEvictionPolicy(int k) {
+        this(k, DEFAULT_CORRELATED_PERIOD);
+    }
+
+    /**
+     * @param k number of most recent references considered
+     * @param correlatedPeriod logical time after a page's last hit during which hits on the
+     *                         page are correlated
+     */
+    public LRUKEvictionPolicy(int k, int correlatedPeriod) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        if (correlatedPeriod < 0) {
+            throw new IllegalArgumentException("correlated reference period must not be negative");
+        }
+        this.k = k;
+        this.correlatedPeriod = correlatedPeriod;
+        this.time = 0;
+        this.tags = new TreeSet<>(Comparator.<Tag>comparingLong(t -> t.history[this.k - 1])
+                                  .thenComparingLong(t -> t.history[0]));
+        this.retained = new LinkedHashMap<>();
+    }
+
+    /**
+     * Called when the buffer is created and whenever it is resized.
+     * @param numFrames number of frames in the buffer
+     */
+    @Override
+    public synchronized void setCapacity(int numFrames) {
+        this.capacity = numFrames;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        Tag frameTag = new Tag();
+        frameTag.cur = frame;
+        frameTag.history = this.retained.remove(frame.getPageNum());
+        if (frameTag.history == null) {
+            frameTag.history = new long[this.k];
+        }
+        this.lastPageNum = frame.getPageNum();
+        this.reference(frameTag, ++this.time);
+        this.tags.add(frameTag);
+        frame.tag = frameTag;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        Tag frameTag = (Tag) frame.tag;
+        if (frameTag == null) {
+            return;
+        }
+        if (frame.getPageNum() != this.lastPageNum) {
+            this.lastPageNum = frame.getPageNum();
+            ++this.time;
+        }
+        long now = this.time;
+        long last = frameTag.last;
+        frameTag.last = now;
+        if (frame.loadedAhead) {
+            // the page is referenced when it is first fetched, rather than when it was loaded
+            frame.loadedAhead = false;
+            this.tags.remove(frameTag);
+            frameTag.history[0] = now;
+            this.tags.add(frameTag);
+        } else if (now - last > this.correlatedPeriod) {
+            this.tags.remove(frameTag);
+            this.reference(frameTag, now);
+            this.tags.add(frameTag);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        for (Tag frameTag : this.tags) {
+            if (!frameTag.cur.isPinned()) {
+                return frameTag.cur;
+            }
+        }
+        throw new IllegalStateException("cannot evict anything - everything pinned");
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        Tag frameTag = (Tag) frame.tag;
+        if (frameTag == null) {
+            return;
+        }
+        this.tags.remove(frameTag);
+        this.retained.put(frame.getPageNum(), frameTag.history);
+        Iterator<Long> iter = this.retained.keySet().iterator();
+        while (this.retained.size() > this.capacity) {
+            iter.next();
+            iter.remove();
+        }
+        frame.tag = null;
+    }
+
+    /**
+     * Called to rank the loaded pages, e.g. to save the pages most worth loading again
+     * after a restart.
+     * @param frames Array of all frames
+     * @return the valid frames, in the order the policy would evict them if none was pinned
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>();
+        for (Tag frameTag : this.tags) {
+            order.add(frameTag.cur);
+        }
+        return order;
+    }
+
+    /**
+     * Called to report the policy's own bookkeeping.
+     * @param frames Array of all frames
+     * @return number of loaded pages referenced fewer than K times, and number of evicted
+     * pages whose history is retained
+     */
+    @Override
+    public synchronized Map<String, Long> getStats(BufferFrame[] frames) {
+        long young = 0;
+        for (Tag frameTag : this.tags) {
+            if (frameTag.history[this.k - 1] == 0) {
+                ++young;
+            }
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("below k", young);
+        stats.put("retained", (long) this.retained.size());
+        return stats;
+    }
+
+    // records a reference at a logical time; the tag must not be in tags
+    private void reference(Tag frameTag, long now) {
+        System.arraycopy(frameTag.history, 0, frameTag.history, 1, this.k - 1);
+        frameTag.history[0] = now;
+        frameTag.last = now;
+    }
+}
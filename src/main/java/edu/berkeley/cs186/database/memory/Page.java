@@ -133,6 +133,17 @@ public class Page {
         this.frame.flush();
     }
 
+    /**
+     * Writes the page to disk like flush, but without forcing the write to stable storage;
+     * the page is only durable once its partition is synced (see BufferManager#syncPart).
+     * Used to write several pages with a single sync. If the page is being evicted, this
+     * instead waits for the evicting thread to write it, which forces the write as usual, so
+     * the page is written once this returns either way.
+     */
+    public void flushWithoutSync() {
+        this.frame.flushWithoutSync();
+    }
+
     /**
      * Loads the page into a frame (if necessary) and pins it.
      */
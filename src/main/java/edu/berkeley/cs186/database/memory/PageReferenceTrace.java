@@ -0,0 +1,168 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Page reference string: the sequence of page numbers fetched from a buffer manager
+ * (see BufferManager#setReferenceTrace). A trace recorded from a real workload can be
+ * saved, and replayed against different eviction policies and buffer sizes (see hitRatio)
+ * to compare them without running the workload again.
+ */
+public class PageReferenceTrace {
+    private long[] pageNums;
+    private int size;
+
+    public PageReferenceTrace() {
+        this.pageNums = new long[1024];
+        this.size = 0;
+    }
+
+    private PageReferenceTrace(long[] pageNums) {
+        this.pageNums = pageNums;
+        this.size = pageNums.length;
+    }
+
+    /**
+     * Appends a reference to the trace.
+     * @param pageNum page number of the page fetched
+     */
+    public synchronized void record(long pageNum) {
+        if (this.size == this.pageNums.length) {
+            this.pageNums = Arrays.copyOf(this.pageNums, 2 * this.size);
+        }
+        this.pageNums[this.size++] = pageNum;
+    }
+
+    /**
+     * @return number of references in the trace
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * @return page numbers of the references in the trace, in order
+     */
+    public synchronized long[] toArray() {
+        return Arrays.copyOf(this.pageNums, this.size);
+    }
+
+    /**
+     * Writes the trace to a file, as a sequence of 8-byte page numbers.
+     * @param path file to write to
+     */
+    public void save(Path path) throws IOException {
+        long[] refs = this.toArray();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            for (long pageNum : refs) {
+                out.writeLong(pageNum);
+            }
+        }
+    }
+
+    /**
+     * Reads a trace written by save.
+     * @param path file to read from
+     * @return the trace
+     */
+    public static PageReferenceTrace load(Path path) throws IOException {
+        long[] refs = new long[(int) (Files.size(path) / Long.BYTES)];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            for (int i = 0; i < refs.length; ++i) {
+                refs[i] = in.readLong();
+            }
+        }
+        return new PageReferenceTrace(refs);
+    }
+
+    /**
+     * Replays the trace against an eviction policy, simulating a buffer of numFrames frames
+     * that starts out empty. Each reference pins the page's frame, reads from it once, and
+     * unpins it, as a fetch does.
+     *
+     * @param policy eviction policy to use, which must not have been used yet
+     * @param numFrames size of the simulated buffer, in pages
+     * @return fraction of references that found their page loaded, or 0 if there were none
+     */
+    public double hitRatio(EvictionPolicy policy, int numFrames) {
+        long[] refs = this.toArray();
+        SimulatedFrame[] frames = new SimulatedFrame[numFrames];
+        policy.setCapacity(numFrames);
+        Map<Long, SimulatedFrame> pageTable = new HashMap<>();
+        int numLoaded = 0;
+        long hits = 0;
+        for (long pageNum : refs) {
+            SimulatedFrame frame = pageTable.get(pageNum);
+            if (frame != null) {
+                ++hits;
+            } else {
+                int index;
+                if (numLoaded < numFrames) {
+                    index = numLoaded++;
+                } else {
+                    SimulatedFrame evicted = (SimulatedFrame) policy.evict(frames);
+                    policy.cleanup(evicted);
+                    pageTable.remove(evicted.pageNum);
+                    index = evicted.index;
+                }
+                frame = frames[index] = new SimulatedFrame(index, pageNum);
+                pageTable.put(pageNum, frame);
+                policy.init(frame);
+            }
+            frame.pin();
+            policy.hit(frame);
+            frame.unpin();
+        }
+        return refs.length == 0 ? 0.0 : (double) hits / refs.length;
+    }
+
+    /**
+     * Frame of the buffer simulated by hitRatio, which only has a page number.
+     */
+    private static class SimulatedFrame extends BufferFrame {
+        private final int index;
+        private final long pageNum;
+
+        SimulatedFrame(int index, long pageNum) {
+            this.index = index;
+            this.pageNum = pageNum;
+        }
+
+        @Override
+        boolean isValid() {
+            return true;
+        }
+
+        @Override
+        long getPageNum() {
+            return this.pageNum;
+        }
+
+        @Override
+        void flush() {}
+
+        @Override
+        void readBytes(short position, short num, byte[] buf) {}
+
+        @Override
+        void writeBytes(short position, short num, byte[] buf) {}
+
+        @Override
+        BufferFrame requestValidFrame() {
+            return this;
+        }
+
+        @Override
+        void setPageLSN(long pageLSN) {}
+
+        @Override
+        long getPageLSN() {
+            return 0;
+        }
+    }
+}
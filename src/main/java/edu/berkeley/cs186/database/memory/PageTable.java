@@ -0,0 +1,203 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Map from page number to the index of the buffer frame the page is loaded in, used
+ * by the buffer manager to find loaded pages.
+ *
+ * Keys and values are stored unboxed, in open addressing tables (with linear probing).
+ * The map is split into segments by hash, each with its own lock; lookups use the
+ * segment lock's optimistic read mode, so a lookup never blocks (or is blocked by) other
+ * lookups, and is only retried with a read lock if the segment was modified meanwhile.
+ */
+class PageTable {
+    private static final int NUM_SEGMENTS = 16; // must be a power of two
+    private static final long EMPTY_KEY = Long.MIN_VALUE; // page numbers are never negative
+    static final int NOT_FOUND = -1;
+
+    private static class Segment {
+        private final StampedLock lock = new StampedLock();
+
+        // Entries, as (key, value) pairs: the i-th entry is table[2i] (the page number, or
+        // EMPTY_KEY if the slot is empty) and table[2i + 1] (the frame index). Keys and
+        // values share one array, so that a lookup always sees a consistent pair of
+        // arrays, even while the table is being resized.
+        private long[] table;
+        private int size;
+
+        Segment(int capacity) {
+            this.table = newTable(capacity);
+        }
+    }
+
+    private final Segment[] segments;
+
+    /**
+     * @param expectedSize number of entries the table is expected to hold at most
+     *                     (the table grows as needed)
+     */
+    PageTable(int expectedSize) {
+        int capacity = 8;
+        // keep segments at most half full
+        while (capacity < 2 * expectedSize / NUM_SEGMENTS) {
+            capacity *= 2;
+        }
+        this.segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < NUM_SEGMENTS; ++i) {
+            this.segments[i] = new Segment(capacity);
+        }
+    }
+
+    /**
+     * @param pageNum page number
+     * @return frame index of the page, or NOT_FOUND if the page is not in the table
+     */
+    int get(long pageNum) {
+        long hash = hash(pageNum);
+        Segment segment = this.segmentFor(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        int value = find(segment.table, pageNum, hash);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                value = find(segment.table, pageNum, hash);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Maps a page to a frame, replacing any existing mapping of the page.
+     * @param pageNum page number
+     * @param frameIndex frame index (non-negative)
+     */
+    void put(long pageNum, int frameIndex) {
+        long hash = hash(pageNum);
+        Segment segment = this.segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            long[] table = segment.table;
+            int slot = findSlot(table, pageNum, hash);
+            if (table[2 * slot] == EMPTY_KEY) {
+                if (2 * (segment.size + 1) > table.length / 2) {
+                    table = segment.table = rehash(table, table.length);
+                    slot = findSlot(table, pageNum, hash);
+                }
+                ++segment.size;
+            }
+            table[2 * slot + 1] = frameIndex;
+            table[2 * slot] = pageNum;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the mapping of a page, if it maps to the given frame.
+     * @param pageNum page number
+     * @param frameIndex frame index the page is expected to be mapped to
+     * @return whether the mapping was removed
+     */
+    boolean remove(long pageNum, int frameIndex) {
+        long hash = hash(pageNum);
+        Segment segment = this.segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            long[] table = segment.table;
+            int slot = findSlot(table, pageNum, hash);
+            if (table[2 * slot] != pageNum || table[2 * slot + 1] != frameIndex) {
+                return false;
+            }
+            // shift later entries of the probe sequence back, so that no lookup stops early
+            // at the emptied slot
+            int mask = table.length / 2 - 1;
+            int hole = slot;
+            for (int i = (slot + 1) & mask; table[2 * i] != EMPTY_KEY; i = (i + 1) & mask) {
+                int home = (int) hash(table[2 * i]) & mask;
+                // move the entry into the hole unless its home slot is cyclically in (hole, i]
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    table[2 * hole] = table[2 * i];
+                    table[2 * hole + 1] = table[2 * i + 1];
+                    hole = i;
+                }
+            }
+            table[2 * hole] = EMPTY_KEY;
+            --segment.size;
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return this.segments[(int) (hash >>> 32) & (NUM_SEGMENTS - 1)];
+    }
+
+    /**
+     * Looks up a key. May be called without a lock (the result is then only meaningful if
+     * the segment was not modified meanwhile), so it never loops more than once around the table.
+     */
+    private static int find(long[] table, long key, long hash) {
+        int capacity = table.length / 2;
+        int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        for (int i = 0; i < capacity; ++i) {
+            long k = table[2 * slot];
+            if (k == key) {
+                return (int) table[2 * slot + 1];
+            }
+            if (k == EMPTY_KEY) {
+                return NOT_FOUND;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return slot of the key, or the empty slot ending its probe sequence if it is not in the
+     * table. The caller must hold the segment's write lock.
+     */
+    private static int findSlot(long[] table, long key, long hash) {
+        int mask = table.length / 2 - 1;
+        int slot = (int) hash & mask;
+        while (table[2 * slot] != key && table[2 * slot] != EMPTY_KEY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long[] rehash(long[] table, int newCapacity) {
+        long[] newTable = newTable(newCapacity);
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != EMPTY_KEY) {
+                int slot = findSlot(newTable, table[i], hash(table[i]));
+                newTable[2 * slot] = table[i];
+                newTable[2 * slot + 1] = table[i + 1];
+            }
+        }
+        return newTable;
+    }
+
+    private static long[] newTable(int capacity) {
+        long[] table = new long[2 * capacity];
+        for (int i = 0; i < table.length; i += 2) {
+            table[i] = EMPTY_KEY;
+        }
+        return table;
+    }
+
+    private static long hash(long key) {
+        // finalizer of MurmurHash3: page numbers of a partition are consecutive, and
+        // partitions are 10^10 apart, so the bits need to be mixed well
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
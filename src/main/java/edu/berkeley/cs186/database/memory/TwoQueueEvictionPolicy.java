@@ -0,0 +1,153 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the 2Q eviction policy (Johnson and Shasha), which resists being
+ * flushed out by large scans. Pages loaded for the first time go into a FIFO queue (A1in),
+ * where hits are ignored, and are evicted from it first as long as it holds more than a
+ * quarter of the frames. The page numbers of pages evicted from A1in are remembered in a
+ * bounded ghost queue (A1out); only pages loaded again while still in A1out are considered
+ * hot, and go into an LRU queue (Am). A page that is only read once (e.g. by a scan)
+ * therefore never displaces the pages in Am.
+ *
+ * Methods are synchronized, since the buffer manager reports hits without holding its lock.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+    private static final Object A1IN = "A1in";
+    private static final Object AM = "Am";
+
+    // Frames of pages loaded once, in order of loading
+    private final LinkedHashSet<BufferFrame> a1in = new LinkedHashSet<>();
+    // Frames of hot pages, in order of least to most recently used
+    private final LinkedHashSet<BufferFrame> am = new LinkedHashSet<>();
+    // Page numbers of pages evicted from A1in, in order of eviction
+    private final LinkedHashSet<Long> a1out = new LinkedHashSet<>();
+
+    // Number of frames, set by the buffer manager
+    private int capacity;
+
+    /**
+     * Called when the buffer is created and whenever it is resized.
+     * @param numFrames number of frames in the buffer
+     */
+    @Override
+    public synchronized void setCapacity(int numFrames) {
+        this.capacity = numFrames;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        if (this.a1out.remove(frame.getPageNum())) {
+            this.am.add(frame);
+            frame.tag = AM;
+        } else {
+            this.a1in.add(frame);
+            frame.tag = A1IN;
+        }
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (frame.tag == AM) {
+            this.am.remove(frame);
+            this.am.add(frame);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call, unless the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        BufferFrame evicted;
+        if (this.a1in.size() > Math.max(1, this.capacity / 4)) {
+            evicted = firstUnpinned(this.a1in, this.am);
+        } else {
+            evicted = firstUnpinned(this.am, this.a1in);
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag == A1IN) {
+            this.a1in.remove(frame);
+            this.a1out.add(frame.getPageNum());
+            Iterator<Long> iter = this.a1out.iterator();
+            while (this.a1out.size() > this.capacity / 2) {
+                iter.next();
+                iter.remove();
+            }
+        } else if (frame.tag == AM) {
+            this.am.remove(frame);
+        }
+        frame.tag = null;
+    }
+
+    /**
+     * Called to rank the loaded pages, e.g. to save the pages most worth loading again
+     * after a restart. Pages loaded once are ranked before hot pages.
+     * @param frames Array of all frames
+     * @return the valid frames, in the order the policy would evict them if none was pinned
+     */
+    @Override
+    public synchronized List<BufferFrame> evictionOrder(BufferFrame[] frames) {
+        List<BufferFrame> order = new ArrayList<>(this.a1in);
+        order.addAll(this.am);
+        return order;
+    }
+
+    /**
+     * Called to report the policy's own bookkeeping.
+     * @param frames Array of all frames
+     * @return sizes of A1in, Am and A1out
+     */
+    @Override
+    public synchronized Map<String, Long> getStats(BufferFrame[] frames) {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("a1in", (long) this.a1in.size());
+        stats.put("am", (long) this.am.size());
+        stats.put("a1out", (long) this.a1out.size());
+        return stats;
+    }
+
+    private static BufferFrame firstUnpinned(LinkedHashSet<BufferFrame> first, LinkedHashSet<BufferFrame> second) {
+        for (BufferFrame frame : first) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        for (BufferFrame frame : second) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+}
@@ -415,6 +415,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // Ensure checkpoint is fully flushed before updating the master record
         flushToLSN(endRecord.getLSN());
 
+        // Pages removed from the DPT above may have only been written to the OS
+        // page cache; make them durable before the checkpoint becomes the restart point
+        diskSpaceManager.syncAll();
+
         // Update master record
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
         logManager.rewriteMasterRecord(masterRecord);
@@ -33,6 +33,13 @@ import java.util.*;
  * manager when pages are fetched and evicted (fetchPageHook, fetchNewPageHook, and pageEvictHook).
  * These must be called from the buffer manager to ensure that pageLSN is up to date, and
  * that flushedLSN >= any pageLSN on disk.
+ *
+ * Flushes are grouped (group commit): flushToLSN seals the log pages up to the requested
+ * LSN, so that no more records are appended to them, and queues them. A single thread at a
+ * time then writes every queued page, of every waiting caller, without forcing the writes
+ * one by one, and syncs the log partition once; callers whose LSN that covers return, and
+ * the rest wait for the next such flush, which one of them performs. Appending records
+ * does not wait for flushes in progress.
  */
 public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private BufferManager bufferManager;
@@ -40,7 +47,17 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private Page logTail;
     private Buffer logTailBuffer;
     private boolean logTailPinned = false;
-    private long flushedLSN;
+    // Updated while holding flushLock, but read without it
+    private volatile long flushedLSN;
+
+    // Lock on the fields below, taken after the LogManager's monitor if both are needed
+    private final Object flushLock = new Object();
+    // Log pages sealed by flushToLSN but not yet written, in order
+    private final List<Page> sealedPages = new ArrayList<>();
+    // LSN up to which the log is durable once the sealed pages are written
+    private long sealedLSN;
+    // Whether a thread is writing sealed pages
+    private boolean flushing = false;
 
     public static final int LOG_PARTITION = 0;
 
@@ -54,6 +71,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         this.logTail.unpin();
 
         this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+        this.sealedLSN = this.flushedLSN;
     }
 
     /**
@@ -130,20 +148,39 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * Flushes the log to at least the specified record,
      * essentially flushing up to and including the page
      * that contains the record specified by the LSN.
+     * Concurrent calls share a single write of the pages
+     * and a single sync (see the class comment).
      * @param LSN LSN up to which the log should be flushed
      */
-    public synchronized void flushToLSN(long LSN) {
-        Iterator<Page> iter = unflushedLogTail.iterator();
-        long pageNum = getLSNPage(LSN);
-        while (iter.hasNext()) {
-            Page page = iter.next();
-            if (page.getPageNum() > pageNum) {
-                break;
+    public void flushToLSN(long LSN) {
+        if (LSN <= flushedLSN) {
+            return;
+        }
+        synchronized (this) {
+            this.sealPages(getLSNPage(LSN));
+        }
+        this.awaitFlush(LSN);
+    }
+
+    /**
+     * Queues the unflushed log pages up to a page to be written by the next group flush.
+     * No more records are appended to them: if the log tail is among them, the next record
+     * starts a new page. Must be called while holding the LogManager's monitor.
+     * @param pageNum page number of the last page to queue
+     */
+    private void sealPages(long pageNum) {
+        synchronized (flushLock) {
+            Iterator<Page> iter = unflushedLogTail.iterator();
+            while (iter.hasNext()) {
+                Page page = iter.next();
+                if (page.getPageNum() > pageNum) {
+                    break;
+                }
+                sealedPages.add(page);
+                iter.remove();
             }
-            page.flush();
-            iter.remove();
+            sealedLSN = Math.max(sealedLSN, maxLSN(pageNum));
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
         if (unflushedLogTail.size() == 0) {
             if (!logTailPinned) {
                 logTail = null;
@@ -152,6 +189,63 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         }
     }
 
+    /**
+     * Waits until the log is flushed up to an LSN whose page has been sealed, writing the
+     * sealed pages (of every caller) itself if no other thread is writing them. Does not
+     * take the LogManager's monitor, so a caller may hold it (e.g. when appending a record
+     * evicts a dirty page, which must first flush the log).
+     * @param LSN LSN up to which the log should be flushed
+     */
+    private void awaitFlush(long LSN) {
+        List<Page> pages;
+        long targetLSN;
+        synchronized (flushLock) {
+            boolean interrupted = false;
+            while (flushing && flushedLSN < LSN) {
+                try {
+                    flushLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (flushedLSN >= LSN) {
+                return;
+            }
+            flushing = true;
+            pages = new ArrayList<>(sealedPages);
+            sealedPages.clear();
+            targetLSN = sealedLSN;
+        }
+        boolean flushed = false;
+        try {
+            // sealed pages are unpinned, so they may be evicted meanwhile: flushWithoutSync
+            // then waits for the evicting thread's (forced) write, so that every page is
+            // written before flushedLSN moves past it. Pinning the pages until the sync
+            // instead could pin the whole buffer when many callers are waiting.
+            for (Page page : pages) {
+                page.flushWithoutSync();
+            }
+            if (!pages.isEmpty()) {
+                bufferManager.syncPart(LOG_PARTITION);
+            }
+            flushed = true;
+        } finally {
+            synchronized (flushLock) {
+                if (flushed) {
+                    flushedLSN = Math.max(flushedLSN, targetLSN);
+                } else {
+                    // leave the pages to the next flush
+                    sealedPages.addAll(0, pages);
+                }
+                flushing = false;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
     /**
      * @return flushedLSN
      */
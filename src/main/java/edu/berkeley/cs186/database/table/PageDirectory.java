@@ -12,6 +12,7 @@ import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferRing;
 import edu.berkeley.cs186.database.memory.Page;
 
 import java.util.NoSuchElementException;
@@ -50,6 +51,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // size of the header in data pages
     private static final short DATA_HEADER_SIZE = 10;
 
+    // maximum number of physically adjacent data pages loaded with a single read
+    // when iterating over the data pages; scans read ahead by one such run
+    private static final int MAX_READ_RUN = 32;
+
     // effective page size
     public static final short EFFECTIVE_PAGE_SIZE = BufferManager.EFFECTIVE_PAGE_SIZE -
             DATA_HEADER_SIZE;
@@ -73,6 +78,9 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // page directory id
     private int pageDirectoryId;
 
+    // buffer ring to load data pages through, or null to use the whole buffer
+    private BufferRing bufferRing;
+
     /**
      * Creates a new heap file, or loads existing file if one already
      * exists at partNum.
@@ -100,8 +108,18 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
 
+    /**
+     * Loads all data pages of the heap file through a buffer ring from now on, so that
+     * filling or reading the heap file does not flush the rest of the buffer (e.g. for
+     * temporary tables, which are written and read once).
+     * @param bufferRing buffer ring to use, or null to use the whole buffer
+     */
+    public void setBufferRing(BufferRing bufferRing) {
+        this.bufferRing = bufferRing;
+    }
+
     public Page getPage(long pageNum) {
-        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum));
+        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum, bufferRing));
     }
 
     public Page getPageWithSpace(short requiredSpace) {
@@ -146,7 +164,15 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
     @Override
     public BacktrackingIterator<Page> iterator() {
-        return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
+        return this.iterator(this.bufferRing);
+    }
+
+    /**
+     * Iterates over the data pages, loading them through a buffer ring.
+     * @param ring buffer ring to load the data pages through, or null to use the whole buffer
+     */
+    public BacktrackingIterator<Page> iterator(BufferRing ring) {
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(ring));
     }
 
     public int getNumDataPages() {
@@ -242,8 +268,9 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
         private HeaderPage(long pageNum, int headerOffset, boolean firstHeader) {
             this.page = bufferManager.fetchPage(lockContext, pageNum);
-            // We do not lock header pages for the entirety of the transaction. Instead, we simply
-            // use the buffer frame lock (from pinning) to ensure that one transaction writes at a time.
+            // We do not lock header pages for the entirety of the transaction. Instead, we rely on the
+            // table serializing its modifications (Table's methods are synchronized) to ensure that one
+            // transaction writes at a time; pinning a page does not exclude other threads.
             // This does mean that we do not have complete isolation in the header pages, but this does not
             // really matter, as the only observable effect is that a transaction may be told to use a different
             // data page, which is perfectly fine.
@@ -332,13 +359,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                         b.position(b.position() - DataPageEntry.SIZE);
                         dpe.toBytes(b);
 
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum);
+                        return bufferManager.fetchPage(lockContext, dpe.pageNum, bufferRing);
                     }
                 }
 
                 // if we have any unused slot in this header page, allocate a new data page
                 if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum);
+                    Page page = bufferManager.fetchNewPage(lockContext, partNum, bufferRing);
                     DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
                                                           (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
 
@@ -389,13 +416,32 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
         @Override
         public BacktrackingIterator<Page> iterator() {
-            return new HeaderPageIterator();
+            return new HeaderPageIterator(null);
+        }
+
+        private BacktrackingIterator<Page> iterator(BufferRing ring) {
+            return new HeaderPageIterator(ring);
         }
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
-            private HeaderPageIterator() {
+            // buffer ring to load data pages through, or null
+            private final BufferRing ring;
+            // maximum number of data pages loaded with a single read
+            private final int maxReadRun;
+            // index of the last entry whose data page was loaded as part of a run
+            private int runEnd;
+            // index of the last entry whose data page was prefetched (read ahead)
+            private int readAheadEnd;
+
+            private HeaderPageIterator(BufferRing ring) {
                 super(HEADER_ENTRY_COUNT);
+                this.ring = ring;
+                // a run and the run read ahead are pinned until read, and must fit in the
+                // ring together without reusing each other's frames
+                this.maxReadRun = ring == null ? MAX_READ_RUN : Math.max(1, Math.min(MAX_READ_RUN, ring.capacity() / 4));
+                this.runEnd = -1;
+                this.readAheadEnd = -1;
             }
 
             @Override
@@ -403,14 +449,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                 HeaderPage.this.page.pin();
                 try {
                     Buffer b = HeaderPage.this.page.getBuffer();
-                    b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * ++currentIndex);
-                    for (int i = currentIndex; i < HEADER_ENTRY_COUNT; ++i) {
-                        DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                        if (dpe.isValid()) {
-                            return i;
-                        }
-                    }
-                    return HEADER_ENTRY_COUNT;
+                    return this.nextValidEntry(b, currentIndex + 1);
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
@@ -421,13 +460,68 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                 HeaderPage.this.page.pin();
                 try {
                     Buffer b = HeaderPage.this.page.getBuffer();
-                    b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
-                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum));
+                    long pageNum = this.entryAt(b, index).pageNum;
+                    if (index > this.runEnd) {
+                        // data pages are usually allocated in order, so the next entries often
+                        // refer to physically adjacent pages, which can all be read in at once
+                        boolean sequential = this.runEnd >= 0;
+                        int runLength = this.runLength(b, index);
+                        if (index > this.readAheadEnd && runLength > 1) {
+                            bufferManager.loadPages(pageNum, runLength, this.ring);
+                        }
+                        this.runEnd = index + runLength - 1;
+                        if (sequential) {
+                            // past the first run, the scan is likely to read the entire heap
+                            // file: start reading the next run while this one is processed
+                            this.readAhead(b);
+                        }
+                    }
+                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, pageNum, this.ring));
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
             }
+
+            // prefetches the data pages of the run after the current one, unless already done
+            private void readAhead(Buffer b) {
+                int next = this.nextValidEntry(b, this.runEnd + 1);
+                if (next >= HEADER_ENTRY_COUNT || next <= this.readAheadEnd) {
+                    return;
+                }
+                int runLength = this.runLength(b, next);
+                bufferManager.prefetchPages(this.entryAt(b, next).pageNum, runLength, this.ring);
+                this.readAheadEnd = next + runLength - 1;
+            }
+
+            // number of entries starting at index (at most maxReadRun) whose data pages are adjacent
+            private int runLength(Buffer b, int index) {
+                long firstPageNum = this.entryAt(b, index).pageNum;
+                int runLength = 1;
+                for (int i = index + 1; i < HEADER_ENTRY_COUNT && runLength < this.maxReadRun; ++i) {
+                    if (DataPageEntry.fromBytes(b).pageNum != firstPageNum + runLength) {
+                        break;
+                    }
+                    ++runLength;
+                }
+                return runLength;
+            }
+
+            // index of the first valid entry at or after index, or HEADER_ENTRY_COUNT if none
+            private int nextValidEntry(Buffer b, int index) {
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+                for (int i = index; i < HEADER_ENTRY_COUNT; ++i) {
+                    if (DataPageEntry.fromBytes(b).isValid()) {
+                        return i;
+                    }
+                }
+                return HEADER_ENTRY_COUNT;
+            }
+
+            // reads the entry at index, leaving the buffer positioned at the next entry
+            private DataPageEntry entryAt(Buffer b, int index) {
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+                return DataPageEntry.fromBytes(b);
+            }
         }
     }
 
@@ -435,11 +529,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
      * Iterator over header pages.
      */
     private class HeaderPageIterator implements BacktrackingIterator<BacktrackingIterable<Page>> {
+        private final BufferRing ring;
         private HeaderPage nextPage;
         private HeaderPage prevPage;
         private HeaderPage markedPage;
 
-        private HeaderPageIterator() {
+        private HeaderPageIterator(BufferRing ring) {
+            this.ring = ring;
             this.nextPage = firstHeader;
             this.prevPage = null;
             this.markedPage = null;
@@ -451,14 +547,14 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         @Override
-        public HeaderPage next() {
+        public BacktrackingIterable<Page> next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
             HeaderPage next = this.nextPage;
             this.prevPage = next;
             this.nextPage = next.nextPage;
-            return next;
+            return () -> next.iterator(this.ring);
         }
 
         @Override
@@ -11,6 +11,7 @@ import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferRing;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -405,10 +406,20 @@ public class Table implements BacktrackingIterable<Record> {
      * records
      */
     public BacktrackingIterator<RecordId> ridIterator() {
+        return this.ridIterator(null);
+    }
+
+    /**
+     * @param ring buffer ring to load the table's pages through, so that scanning a
+     * large table does not flush the rest of the buffer, or null to use the whole buffer
+     * @return Performs a full scan on the table to return id's of all existing
+     * records
+     */
+    public BacktrackingIterator<RecordId> ridIterator(BufferRing ring) {
         // TODO(proj4_part2): Update the following line
         LockUtil.ensureSufficientLockHeld(tableContext, LockType.NL);
 
-        BacktrackingIterator<Page> iter = pageDirectory.iterator();
+        BacktrackingIterator<Page> iter = ring == null ? pageDirectory.iterator() : pageDirectory.iterator(ring);
         return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
     }
 
@@ -434,6 +445,14 @@ public class Table implements BacktrackingIterable<Record> {
         return new RecordIterator(ridIterator());
     }
 
+    /**
+     * @param ring buffer ring to load the table's pages through (see ridIterator)
+     * @return an iterator over all the records in this table
+     */
+    public BacktrackingIterator<Record> iterator(BufferRing ring) {
+        return new RecordIterator(ridIterator(ring));
+    }
+
     /**
      * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
      * page of the table.
@@ -3,10 +3,14 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.StorageBackend;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -23,6 +27,7 @@ import java.util.Iterator;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -148,6 +153,50 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testCompressedTable() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(200));
+        String tableName = "compressedTable";
+        int numRecords = 2000;
+
+        // more pages than the buffer holds, so pages are written to disk and read back
+        int partNum;
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, tableName, true);
+            for (int i = 0; i < numRecords; ++i) {
+                t1.insert(tableName, i, "name" + i);
+            }
+            partNum = t1.getTransactionContext().getTable(tableName).getPartNum();
+        }
+        assertTrue(new File(this.filename, partNum + ".z").exists());
+        assertTrue(db.getDiskSpaceManager().getCompressionRatio(partNum) > 1.0);
+
+        try(Transaction t2 = db.beginTransaction()) {
+            t2.update(tableName, "name", (Record r) -> new StringDataBox("updated", 200),
+                      (Record r) -> new BoolDataBox(r.getValue(0).getInt() % 2 == 0));
+            t2.delete(tableName, (Record r) -> new BoolDataBox(r.getValue(0).getInt() % 3 == 0));
+        }
+
+        db.close();
+        db = new Database(this.filename, 32);
+
+        try(Transaction t3 = db.beginTransaction()) {
+            int count = 0;
+            Iterator<Record> records = t3.getTransactionContext().getRecordIterator(tableName);
+            while (records.hasNext()) {
+                Record record = records.next();
+                int id = record.getValue(0).getInt();
+                assertTrue(id % 3 != 0);
+                assertEquals(id % 2 == 0 ? "updated" : "name" + id, record.getValue(1).getString());
+                ++count;
+            }
+            assertEquals(numRecords - (numRecords + 2) / 3, count);
+        }
+        assertTrue(db.getDiskSpaceManager().getCompressionRatio(partNum) > 1.0);
+    }
+
     @Test
     public void testREADMESample() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -306,4 +355,42 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    @Test
+    public void testInMemoryDatabase() {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+
+        Database memDb = new Database(null, 32, new DummyLockManager(), new ClockEvictionPolicy(),
+                                      false, StorageBackend.IN_MEMORY);
+        try(Transaction t = memDb.beginTransaction()) {
+            t.createTable(s, "testTable1");
+            RecordId rid = t.getTransactionContext().addRecord("testTable1", input);
+            assertEquals(input, t.getTransactionContext().getRecord("testTable1", rid));
+        }
+        memDb.close();
+    }
+
+    @Test
+    public void testInMemorySnapshot() throws Exception {
+        Schema s = TestUtils.createSchemaWithAllTypes();
+        Record input = TestUtils.createRecordWithAllTypes();
+        String snapshotDir = tempFolder.newFolder("snapshot").getAbsolutePath();
+
+        Database memDb = new Database(snapshotDir, 32, new DummyLockManager(), new ClockEvictionPolicy(),
+                                      false, StorageBackend.IN_MEMORY_SNAPSHOT);
+        RecordId rid;
+        try(Transaction t = memDb.beginTransaction()) {
+            t.createTable(s, "testTable1");
+            rid = t.getTransactionContext().addRecord("testTable1", input);
+        }
+        memDb.close();
+
+        memDb = new Database(snapshotDir, 32, new DummyLockManager(), new ClockEvictionPolicy(),
+                             false, StorageBackend.IN_MEMORY_SNAPSHOT);
+        try(Transaction t = memDb.beginTransaction()) {
+            assertEquals(input, t.getTransactionContext().getRecord("testTable1", rid));
+        }
+        memDb.close();
+    }
 }
@@ -119,4 +119,11 @@ public class TestBits {
             assertArrayEquals(expectedsZero[i], bytes);
         }
     }
+
+    @Test
+    public void testCountBits() {
+        assertEquals(2, Bits.countBits((byte) 0b00001010));
+        assertEquals(7, Bits.countBits((byte) 0b11111101));
+        assertEquals(9, Bits.countBits(new byte[] {(byte) 0b10000000, (byte) 0b11111111}));
+    }
 }
@@ -0,0 +1,106 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.recovery.LogManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures page allocation throughput of DiskSpaceManagerImpl with 1, 2, 4, ... threads,
+ * each allocating pages in its own partition, as concurrent inserts into different tables
+ * would. Every configuration is run with syncOnWrite enabled (each allocation forces the
+ * new page to disk) and disabled (syncs are left to the caller, as when the database runs
+ * with a recovery manager), and the two are reported side by side.
+ *
+ * Each configuration is first run a few times without being measured, so that the JIT has
+ * compiled the allocation path before any measurement, and then reported as the median
+ * of several measured runs. Not run as part of the test suite; run with
+ *
+ *     java edu.berkeley.cs186.database.io.AllocationBenchmark [pages per thread] [max threads]
+ *         [warm-up runs] [measured runs]
+ *
+ * from the test classpath.
+ */
+public class AllocationBenchmark {
+    public static void main(String[] args) throws Exception {
+        int pagesPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int warmUpRuns = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int measuredRuns = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        for (int i = 0; i < warmUpRuns; ++i) {
+            for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+                run(numThreads, pagesPerThread, true);
+                run(numThreads, pagesPerThread, false);
+            }
+        }
+
+        System.out.printf("%8s %22s %22s%n", "threads", "syncOnWrite (pages/s)", "deferred sync (pages/s)");
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+            long totalPages = (long) numThreads * pagesPerThread;
+            double synced = totalPages / (median(numThreads, pagesPerThread, true, measuredRuns) / 1e9);
+            double deferred = totalPages / (median(numThreads, pagesPerThread, false, measuredRuns) / 1e9);
+            System.out.printf("%8d %22.0f %22.0f%n", numThreads, synced, deferred);
+        }
+    }
+
+    /**
+     * @return median elapsed time in nanoseconds of several runs of one configuration
+     */
+    private static long median(int numThreads, int pagesPerThread, boolean syncOnWrite, int runs)
+            throws IOException, InterruptedException {
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; ++i) {
+            nanos[i] = run(numThreads, pagesPerThread, syncOnWrite);
+        }
+        Arrays.sort(nanos);
+        return nanos[runs / 2];
+    }
+
+    /**
+     * Runs one round of the benchmark in a fresh directory.
+     * @return elapsed time in nanoseconds
+     */
+    private static long run(int numThreads, int pagesPerThread, boolean syncOnWrite)
+            throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("rookiedb-alloc-bench").toFile();
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getPath(),
+                new DummyRecoveryManager(), syncOnWrite);
+        try {
+            // the log partition is forced on every write whatever syncOnWrite is, so it
+            // would make the first thread a measure of fsync latency
+            diskSpaceManager.allocPart(LogManager.LOG_PARTITION);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < numThreads; ++i) {
+                int partNum = diskSpaceManager.allocPart();
+                threads.add(new Thread(() -> {
+                    for (int j = 0; j < pagesPerThread; ++j) {
+                        diskSpaceManager.allocPage(partNum);
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            diskSpaceManager.close();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.io;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * "Disk" space manager that really just keeps things in memory. Not thread safe.
@@ -32,6 +33,11 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
         return partNum;
     }
 
+    @Override
+    public int allocCompressedPart() {
+        return allocPart();
+    }
+
     @Override
     public void freePart(int partNum) {
         if (!partitions.containsKey(partNum)) {
@@ -56,6 +62,18 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
         return pageNum;
     }
 
+    @Override
+    public long allocExtent(int partNum, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("extent size must be positive");
+        }
+        long firstPage = allocPage(partNum);
+        for (int i = 1; i < count; ++i) {
+            allocPage(partNum);
+        }
+        return firstPage;
+    }
+
     @Override
     public long allocPage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
@@ -94,6 +112,13 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
         System.arraycopy(pages.get(page), 0, buf, 0, DiskSpaceManager.PAGE_SIZE);
     }
 
+    @Override
+    public void readPages(long firstPage, int count, byte[][] bufs) {
+        for (int i = 0; i < count; ++i) {
+            readPage(firstPage + i, bufs[i]);
+        }
+    }
+
     @Override
     public void writePage(long page, byte[] buf) {
         if (buf.length != DiskSpaceManager.PAGE_SIZE) {
@@ -105,8 +130,67 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
         System.arraycopy(buf, 0, pages.get(page), 0, DiskSpaceManager.PAGE_SIZE);
     }
 
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            readPage(page, buf);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> readPagesAsync(long firstPage, int count, byte[][] bufs) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            readPages(firstPage, count, bufs);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            writePage(page, buf);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     @Override
     public boolean pageAllocated(long page) {
         return pages.containsKey(page);
     }
+
+    @Override
+    public Map<Integer, IOStats.Snapshot> getIOStats() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public double getCompressionRatio(int partNum) {
+        if (!partitions.containsKey(partNum)) {
+            throw new NoSuchElementException("partition " + partNum + " not allocated");
+        }
+        return 1.0;
+    }
+
+    @Override
+    public void sync(int partNum) {
+        if (!partitions.containsKey(partNum)) {
+            throw new NoSuchElementException("partition " + partNum + " not allocated");
+        }
+    }
+
+    @Override
+    public void syncAll() {}
 }
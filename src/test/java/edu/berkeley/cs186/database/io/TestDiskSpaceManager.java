@@ -9,9 +9,16 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.Assert.*;
 
@@ -298,5 +305,507 @@ public class TestDiskSpaceManager {
         diskSpaceManager.freePart(partNum2);
         diskSpaceManager.close();
     }
-}
 
+    @Test
+    public void testReadWriteDeferredSyncPersistent() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), false);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum, buf);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(buf, readbuf);
+
+        diskSpaceManager.sync(partNum);
+        diskSpaceManager.syncAll();
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+
+        assertArrayEquals(buf, readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testSyncBadPart() {
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.sync(0);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testMemoryMappedReadWritePersistent() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                true, true);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf1.length; ++i) {
+            buf1[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+            buf2[i] = (byte) ((Integer.valueOf(i).hashCode() >> 8) & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.writePage(pageNum2, buf2);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.close();
+
+        // master page, header page, and two data pages; the mapping's extra space is trimmed
+        assertEquals(4 * DiskSpaceManager.PAGE_SIZE, managerRoot.resolve("" + partNum).toFile().length());
+
+        // file format is shared with the positional read/write backend
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        diskSpaceManager.close();
+
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(),
+                false, true);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        // run spans the first two header pages
+        int firstPage = DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER - 2;
+        byte[][] bufs = new byte[4][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < 4; ++i) {
+            long pageNum = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, firstPage + i));
+            Arrays.fill(bufs[i], (byte) (i + 1));
+            diskSpaceManager.writePage(pageNum, bufs[i]);
+        }
+
+        byte[][] readbufs = new byte[4][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(DiskSpaceManager.getVirtualPageNum(partNum, firstPage), 4, readbufs);
+        for (int i = 0; i < 4; ++i) {
+            assertArrayEquals(bufs[i], readbufs[i]);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = PageException.class)
+    public void testReadPagesUnallocated() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.readPages(DiskSpaceManager.getVirtualPageNum(partNum, 0), 2,
+                                   new byte[2][DiskSpaceManager.PAGE_SIZE]);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteAsync() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+        }
+        diskSpaceManager.writePageAsync(pageNum, buf).join();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPageAsync(pageNum, readbuf).join();
+        diskSpaceManager.close();
+
+        assertArrayEquals(buf, readbuf);
+    }
+
+    @Test
+    public void testReadWriteDirectBuffer() {
+        diskSpaceManager = getDiskSpaceManager();
+        int[] partNums = { diskSpaceManager.allocPart(), diskSpaceManager.allocCompressedPart() };
+        for (int partNum : partNums) {
+            long firstPage = diskSpaceManager.allocExtent(partNum, 2);
+            // pages are read and written at the buffer's position, which is left unchanged
+            ByteBuffer buf = ByteBuffer.allocateDirect(3 * DiskSpaceManager.PAGE_SIZE);
+            for (int i = 0; i < buf.capacity(); ++i) {
+                buf.put(i, (byte) (i / 7));
+            }
+            buf.position(DiskSpaceManager.PAGE_SIZE);
+            diskSpaceManager.writePage(firstPage, buf);
+            assertEquals(DiskSpaceManager.PAGE_SIZE, buf.position());
+            diskSpaceManager.writePage(firstPage + 1, new byte[DiskSpaceManager.PAGE_SIZE]);
+
+            ByteBuffer[] readbufs = { ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE),
+                                      ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE) };
+            diskSpaceManager.readPagesAsync(firstPage, 2, readbufs).join();
+            assertEquals(0, readbufs[0].position());
+            buf.limit(2 * DiskSpaceManager.PAGE_SIZE);
+            assertEquals(buf, readbufs[0]);
+            assertEquals(ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE), readbufs[1]);
+
+            ByteBuffer readbuf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+            diskSpaceManager.readPage(firstPage, readbuf);
+            assertEquals(buf, readbuf);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadAsyncUnallocated() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = DiskSpaceManager.getVirtualPageNum(partNum, 0);
+        CompletableFuture<Void> future = diskSpaceManager.readPageAsync(pageNum,
+                                         new byte[DiskSpaceManager.PAGE_SIZE]);
+        try {
+            future.join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof PageException);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPageExtent() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long page0 = diskSpaceManager.allocPage(partNum);
+        long page1 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.freePage(page0);
+
+        // pages are handed out in order from the current extent, even if earlier pages are free
+        long page2 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.close();
+
+        assertEquals(DiskSpaceManager.getVirtualPageNum(partNum, 0), page0);
+        assertEquals(page0 + 1, page1);
+        assertEquals(page1 + 1, page2);
+    }
+
+    @Test
+    public void testAllocExtent() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long page0 = diskSpaceManager.allocPage(partNum);
+        long firstPage = diskSpaceManager.allocExtent(partNum, 10);
+
+        // the extent follows the extent allocPage reserved
+        assertEquals(page0 + DiskSpaceManagerImpl.EXTENT_SIZE, firstPage);
+        byte[][] bufs = new byte[10][DiskSpaceManager.PAGE_SIZE];
+        for (byte[] buf : bufs) {
+            Arrays.fill(buf, (byte) 1);
+        }
+        diskSpaceManager.readPages(firstPage, 10, bufs);
+        for (byte[] buf : bufs) {
+            assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(diskSpaceManager.pageAllocated(firstPage + i));
+        }
+        assertFalse(diskSpaceManager.pageAllocated(firstPage + 10));
+        assertFalse(diskSpaceManager.pageAllocated(page0 + 1));
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAllocExtentTooLarge() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        try {
+            diskSpaceManager.allocExtent(partNum, DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER + 1);
+        } finally {
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testHeaderWritesWithoutSync() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), false);
+        int partNum = diskSpaceManager.allocPart();
+        long page0 = diskSpaceManager.allocPage(partNum);
+        long page1 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.freePage(page0);
+        long extent = diskSpaceManager.allocExtent(partNum, 20);
+        long lastHeaderPage = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum,
+                DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER * 2 + 5));
+
+        // allocations and frees reach the OS file without a sync or close, as if the
+        // process crashed right after them
+        DiskSpaceManager reopened = getDiskSpaceManager();
+        try {
+            assertFalse(reopened.pageAllocated(page0));
+            assertTrue(reopened.pageAllocated(page1));
+            for (int i = 0; i < 20; ++i) {
+                assertTrue(reopened.pageAllocated(extent + i));
+            }
+            assertFalse(reopened.pageAllocated(extent + 20));
+            assertTrue(reopened.pageAllocated(lastHeaderPage));
+            assertFalse(reopened.pageAllocated(lastHeaderPage - 1));
+        } finally {
+            reopened.close();
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentAllocPage() throws InterruptedException {
+        diskSpaceManager = getDiskSpaceManager();
+        int numThreads = 4;
+        int pagesPerThread = 100;
+        int[] partNums = new int[numThreads];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; ++i) {
+            int partNum = partNums[i] = diskSpaceManager.allocPart();
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < pagesPerThread; ++j) {
+                    diskSpaceManager.allocPage(partNum);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int partNum : partNums) {
+            for (int j = 0; j < pagesPerThread; ++j) {
+                assertTrue(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, j)));
+            }
+            assertFalse(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, pagesPerThread)));
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocExtentReusesFreedPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long firstPage = diskSpaceManager.allocExtent(partNum, 200);
+        diskSpaceManager.freePage(firstPage + 70);
+        diskSpaceManager.freePage(firstPage + 130);
+        diskSpaceManager.freePage(firstPage + 131);
+
+        assertEquals(firstPage + 70, diskSpaceManager.allocExtent(partNum, 1));
+        assertEquals(firstPage + 130, diskSpaceManager.allocExtent(partNum, 2));
+        assertEquals(firstPage + 200, diskSpaceManager.allocExtent(partNum, 2));
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < 202; ++i) {
+            assertTrue(diskSpaceManager.pageAllocated(firstPage + i));
+        }
+        assertFalse(diskSpaceManager.pageAllocated(firstPage + 202));
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testCompressedReadWritePersistent() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocCompressedPart();
+        long[] pages = new long[20];
+        byte[][] contents = new byte[pages.length][DiskSpaceManager.PAGE_SIZE];
+        Random random = new Random(186);
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(partNum);
+            if (i % 5 == 0) {
+                // incompressible
+                random.nextBytes(contents[i]);
+            } else {
+                Arrays.fill(contents[i], 0, i * 10, (byte) i);
+            }
+            diskSpaceManager.writePage(pages[i], contents[i]);
+        }
+        // overwrite a page, and free another
+        contents[3][4000] = 42;
+        diskSpaceManager.writePage(pages[3], contents[3]);
+        diskSpaceManager.freePage(pages[4]);
+        assertTrue(diskSpaceManager.getCompressionRatio(partNum) > 1.0);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages.length; ++i) {
+            if (i == 4) {
+                assertFalse(diskSpaceManager.pageAllocated(pages[i]));
+                continue;
+            }
+            diskSpaceManager.readPage(pages[i], buf);
+            assertArrayEquals(contents[i], buf);
+        }
+        assertTrue(diskSpaceManager.getCompressionRatio(partNum) > 1.0);
+        // partitions that are not compressed are not affected
+        assertEquals(1.0, diskSpaceManager.getCompressionRatio(diskSpaceManager.allocPart()), 0.0);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+        assertFalse(managerRoot.resolve(partNum + CompressedPartitionHandle.DATA_FILE_SUFFIX).toFile().exists());
+    }
+
+    @Test
+    public void testCompressedCompaction() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocCompressedPart();
+        long page = diskSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < 100; ++i) {
+            buf[i] = (byte) i;
+            diskSpaceManager.writePage(page, buf);
+        }
+        diskSpaceManager.close();
+
+        // only the latest version of the page is kept once the partition is closed
+        long dataFileSize = managerRoot.resolve(partNum + CompressedPartitionHandle.DATA_FILE_SUFFIX).toFile().length();
+        assertTrue(dataFileSize < 200);
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(page, readbuf);
+        diskSpaceManager.close();
+        assertArrayEquals(buf, readbuf);
+    }
+
+    @Test
+    public void testCompressedCompactionWhileOpen() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocCompressedPart();
+        long page = diskSpaceManager.allocPage(partNum);
+        File dataFile = managerRoot.resolve(partNum + CompressedPartitionHandle.DATA_FILE_SUFFIX).toFile();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Random random = new Random(186);
+        long maxSize = 0;
+        for (int i = 0; i < 2000; ++i) {
+            // incompressible, so that every write appends a full page
+            random.nextBytes(buf);
+            diskSpaceManager.writePage(page, buf);
+            maxSize = Math.max(maxSize, dataFile.length());
+        }
+
+        // stale records are dropped without closing the partition
+        assertTrue(maxSize <= CompressedPartitionHandle.MIN_COMPACT_BYTES + 2 * (DiskSpaceManager.PAGE_SIZE + 12));
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(page, readbuf);
+        assertArrayEquals(buf, readbuf);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(page, readbuf);
+        diskSpaceManager.close();
+        assertArrayEquals(buf, readbuf);
+    }
+
+    @Test
+    public void testCompressedTornRecord() throws IOException {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocCompressedPart();
+        long page1 = diskSpaceManager.allocPage(partNum);
+        long page2 = diskSpaceManager.allocPage(partNum);
+        byte[] contents1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(contents1, 0, 100, (byte) 1);
+        diskSpaceManager.writePage(page1, contents1);
+        diskSpaceManager.close();
+        File dataFile = managerRoot.resolve(partNum + CompressedPartitionHandle.DATA_FILE_SUFFIX).toFile();
+        long validLength = dataFile.length();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] contents2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(contents2, 0, 200, (byte) 2);
+        diskSpaceManager.writePage(page2, contents2);
+        diskSpaceManager.close();
+
+        // tear the last record, and leave a zero-filled tail after it, as a crash might
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            long length = file.length();
+            file.seek(length - 1);
+            int last = file.read();
+            file.seek(length - 1);
+            file.write(last ^ 0xFF);
+            file.setLength(length + DiskSpaceManager.PAGE_SIZE);
+        }
+
+        // the torn record and everything after it are dropped
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(page1, buf);
+        assertArrayEquals(contents1, buf);
+        diskSpaceManager.readPage(page2, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+        diskSpaceManager.close();
+        assertEquals(validLength, dataFile.length());
+    }
+
+    @Test
+    public void testIOStats() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pages = new long[4];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(partNum);
+        }
+        // allocating pages zeroes them
+        IOStats.Snapshot before = diskSpaceManager.getIOStats().get(partNum);
+        assertEquals(0, before.reads);
+        assertEquals(4, before.writes);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.writePage(pages[0], buf);
+        diskSpaceManager.writePage(pages[1], buf);
+        diskSpaceManager.readPage(pages[0], buf);
+        // a run of consecutive pages is a single read
+        byte[][] bufs = new byte[4][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(pages[0], 4, bufs);
+
+        IOStats.Snapshot stats = diskSpaceManager.getIOStats().get(partNum);
+        assertEquals(2, stats.reads);
+        assertEquals(5L * DiskSpaceManager.PAGE_SIZE, stats.bytesRead);
+        assertEquals(2, stats.writes - before.writes);
+        assertEquals(2L * DiskSpaceManager.PAGE_SIZE, stats.bytesWritten - before.bytesWritten);
+        // every write is synced, since syncOnWrite is on
+        assertEquals(stats.writes, stats.syncs);
+        assertEquals(2, stats.readLatency.getCount());
+        assertEquals(stats.writes, stats.writeLatency.getCount());
+        assertEquals(stats.syncs, stats.syncLatency.getCount());
+
+        // statistics of freed partitions are kept
+        diskSpaceManager.freePart(partNum);
+        assertEquals(2, diskSpaceManager.getIOStats().get(partNum).reads);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testWritePageWithoutSync() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long page = diskSpaceManager.allocPage(partNum);
+        long syncs = diskSpaceManager.getIOStats().get(partNum).syncs;
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        buf[0] = 42;
+        diskSpaceManager.writePageWithoutSync(page, ByteBuffer.wrap(buf));
+        assertEquals(syncs, diskSpaceManager.getIOStats().get(partNum).syncs);
+        diskSpaceManager.sync(partNum);
+        assertEquals(syncs + 1, diskSpaceManager.getIOStats().get(partNum).syncs);
+
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(page, readbuf);
+        assertArrayEquals(buf, readbuf);
+        diskSpaceManager.close();
+    }
+}
@@ -0,0 +1,184 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestInMemoryDiskSpaceManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DiskSpaceManager diskSpaceManager = new InMemoryDiskSpaceManager(new DummyRecoveryManager());
+
+    @Test
+    public void testAllocPageZeroed() {
+        int partNum = diskSpaceManager.allocPart();
+        long page = diskSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, (byte) 1);
+        diskSpaceManager.writePage(page, buf);
+        diskSpaceManager.freePage(page);
+
+        // the freed page's slot is reused, but must be zeroed
+        long page2 = diskSpaceManager.allocPage(partNum);
+        assertEquals(page, page2);
+        diskSpaceManager.readPage(page2, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+    }
+
+    @Test
+    public void testReadWriteMultiplePartitions() {
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart(5);
+        assertEquals(6, diskSpaceManager.allocPart());
+        byte[][] bufs = new byte[600][DiskSpaceManager.PAGE_SIZE];
+        long[] pages = new long[bufs.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(i % 2 == 0 ? partNum1 : partNum2);
+            Arrays.fill(bufs[i], (byte) i);
+            diskSpaceManager.writePage(pages[i], bufs[i]);
+        }
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < bufs.length; ++i) {
+            diskSpaceManager.readPage(pages[i], buf);
+            assertArrayEquals(bufs[i], buf);
+        }
+    }
+
+    @Test
+    public void testAllocExtent() {
+        int partNum = diskSpaceManager.allocPart();
+        long page0 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, 3));
+        assertEquals(page0 + 4, diskSpaceManager.allocExtent(partNum, 3));
+        assertEquals(page0 + 1, diskSpaceManager.allocExtent(partNum, 2));
+    }
+
+    @Test(expected = PageException.class)
+    public void testReadUnallocated() {
+        int partNum = diskSpaceManager.allocPart();
+        diskSpaceManager.readPage(DiskSpaceManager.getVirtualPageNum(partNum, 0),
+                                  new byte[DiskSpaceManager.PAGE_SIZE]);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testReadBadPart() {
+        diskSpaceManager.readPage(0, new byte[DiskSpaceManager.PAGE_SIZE]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAllocPageTwice() {
+        int partNum = diskSpaceManager.allocPart();
+        long page = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.allocPage(page);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testFreePart() {
+        int partNum = diskSpaceManager.allocPart();
+        long page = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.pageAllocated(page);
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        String snapshotDir = tempFolder.newFolder("snapshot").getPath();
+        diskSpaceManager = new InMemoryDiskSpaceManager(snapshotDir, new DummyRecoveryManager());
+        int partNum = diskSpaceManager.allocPart();
+        long page0 = diskSpaceManager.allocPage(partNum);
+        long page1 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.freePage(page0);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, (byte) 42);
+        diskSpaceManager.writePage(page1, buf);
+        diskSpaceManager.close();
+
+        // snapshots are regular partition files
+        DiskSpaceManager fileDiskSpaceManager = new DiskSpaceManagerImpl(snapshotDir, new DummyRecoveryManager());
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        fileDiskSpaceManager.readPage(page1, readbuf);
+        assertArrayEquals(buf, readbuf);
+        fileDiskSpaceManager.close();
+
+        diskSpaceManager = new InMemoryDiskSpaceManager(snapshotDir, new DummyRecoveryManager());
+        assertFalse(diskSpaceManager.pageAllocated(page0));
+        Arrays.fill(readbuf, (byte) 0);
+        diskSpaceManager.readPage(page1, readbuf);
+        assertArrayEquals(buf, readbuf);
+        assertEquals(partNum + 1, diskSpaceManager.allocPart());
+        diskSpaceManager.close();
+    }
+
+    /**
+     * Stores a snapshot with a single page filled with value in dir, and returns its page number.
+     */
+    private long storeSnapshot(File dir, byte value) {
+        DiskSpaceManager snapshotting = new InMemoryDiskSpaceManager(dir.getPath(), new DummyRecoveryManager());
+        int partNum = snapshotting.allocPart();
+        long page = snapshotting.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, value);
+        snapshotting.writePage(page, buf);
+        snapshotting.close();
+        return page;
+    }
+
+    private void assertSnapshot(File dir, long page, byte value) {
+        diskSpaceManager = new InMemoryDiskSpaceManager(dir.getPath(), new DummyRecoveryManager());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(page, buf);
+        byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(expected, value);
+        assertArrayEquals(expected, buf);
+        assertFalse(new File(dir.getPath() + ".tmp").exists());
+        assertFalse(new File(dir.getPath() + ".old").exists());
+    }
+
+    @Test
+    public void testSnapshotRecovery() throws IOException {
+        File root = tempFolder.newFolder("snapshots");
+        File dir = new File(root, "snapshot");
+        File tmpDir = new File(root, "snapshot.tmp");
+        File oldDir = new File(root, "snapshot.old");
+
+        // crash while writing the new snapshot: the old one is kept
+        long page = storeSnapshot(dir, (byte) 1);
+        assertTrue(tmpDir.mkdir());
+        Files.write(new File(tmpDir, "0").toPath(), new byte[] { 1, 2, 3 });
+        assertSnapshot(dir, page, (byte) 1);
+        diskSpaceManager.close();
+
+        // crash after the old snapshot was moved aside: the new one is complete
+        storeSnapshot(new File(root, "new"), (byte) 2);
+        assertTrue(dir.renameTo(oldDir));
+        assertTrue(new File(root, "new").renameTo(tmpDir));
+        assertSnapshot(dir, page, (byte) 2);
+        diskSpaceManager.close();
+
+        // crash after the new snapshot was moved into place: the old one is deleted
+        storeSnapshot(new File(root, "new"), (byte) 3);
+        assertTrue(dir.renameTo(oldDir));
+        assertTrue(new File(root, "new").renameTo(dir));
+        assertSnapshot(dir, page, (byte) 3);
+        diskSpaceManager.close();
+
+        // old snapshot moved aside, but no new one: the old one is moved back
+        assertTrue(dir.renameTo(oldDir));
+        assertSnapshot(dir, page, (byte) 3);
+        diskSpaceManager.close();
+    }
+}
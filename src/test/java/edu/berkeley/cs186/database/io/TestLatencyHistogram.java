@@ -0,0 +1,48 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestLatencyHistogram {
+    @Test
+    public void testEmpty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMeanNanos());
+        assertEquals(0, snapshot.getPercentileNanos(50));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; ++i) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; ++i) {
+            histogram.record(5000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals((90 * 100 + 10 * 5000) / 100, snapshot.getMeanNanos());
+        // 100ns falls in [64, 128), 5000ns in [4096, 8192)
+        assertEquals(127, snapshot.getPercentileNanos(50));
+        assertEquals(127, snapshot.getPercentileNanos(90));
+        assertEquals(8191, snapshot.getPercentileNanos(99));
+        assertEquals(8191, snapshot.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testZeroAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(-5);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileNanos(100));
+    }
+}
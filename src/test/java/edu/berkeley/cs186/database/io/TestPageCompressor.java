@@ -0,0 +1,73 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestPageCompressor {
+    private PageCompressor compressor = new PageCompressor();
+
+    private int roundTrip(byte[] page) {
+        byte[] compressed = new byte[DiskSpaceManager.PAGE_SIZE - 1];
+        int length = compressor.compress(page, compressed);
+        if (length >= 0) {
+            byte[] decompressed = new byte[page.length];
+            compressor.decompress(compressed, length, decompressed);
+            assertArrayEquals(page, decompressed);
+        }
+        return length;
+    }
+
+    @Test
+    public void testZeroPage() {
+        int length = roundTrip(new byte[DiskSpaceManager.PAGE_SIZE]);
+        assertTrue(length > 0 && length < 32);
+    }
+
+    @Test
+    public void testPaddedRecords() {
+        // fixed-width string columns: a few bytes of text followed by NUL padding
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        Random random = new Random(186);
+        for (int offset = 0; offset + 64 <= page.length; offset += 64) {
+            for (int i = 0; i < 8; ++i) {
+                page[offset + i] = (byte) ('a' + random.nextInt(26));
+            }
+        }
+        int length = roundTrip(page);
+        assertTrue(length > 0 && length < page.length / 4);
+    }
+
+    @Test
+    public void testLongLiteralsAndMatches() {
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        Random random = new Random(186);
+        // 1000 random bytes (a long literal run), then a long repetition of them
+        for (int i = 0; i < 1000; ++i) {
+            page[i] = (byte) random.nextInt();
+        }
+        for (int i = 1000; i < page.length; ++i) {
+            page[i] = page[i - 1000];
+        }
+        assertTrue(roundTrip(page) > 0);
+    }
+
+    @Test
+    public void testIncompressible() {
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        new Random(186).nextBytes(page);
+        assertEquals(-1, roundTrip(page));
+    }
+
+    @Test(expected = PageException.class)
+    public void testCorrupt() {
+        byte[] compressed = new byte[] { 0x0F, 0x00, 0x10, 0x00 };
+        compressor.decompress(compressed, compressed.length, new byte[DiskSpaceManager.PAGE_SIZE]);
+    }
+}
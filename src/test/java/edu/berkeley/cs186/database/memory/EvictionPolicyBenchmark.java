@@ -0,0 +1,122 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.StorageBackend;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the hit ratios of the eviction policies on a page reference trace (see
+ * PageReferenceTrace), for a range of buffer sizes. Not run as part of the test suite;
+ * run with
+ *
+ *     java edu.berkeley.cs186.database.memory.EvictionPolicyBenchmark [trace file]
+ *
+ * from the test classpath. If the trace file exists, the trace in it is replayed (e.g. one
+ * recorded from a real workload with BufferManager#setReferenceTrace). Otherwise, a trace
+ * is recorded from a mixed workload of point reads and updates of a small set of hot
+ * records, interrupted by full scans of the table as reports would do, and is saved to the
+ * trace file if one is given.
+ */
+public class EvictionPolicyBenchmark {
+    private static final int NUM_RECORDS = 10000;
+    private static final int NUM_ROUNDS = 20;
+    private static final int LOOKUPS_PER_ROUND = 2000;
+    private static final int RECORDING_BUFFER_SIZE = 128;
+
+    public static void main(String[] args) throws Exception {
+        Path path = args.length > 0 ? Paths.get(args[0]) : null;
+        PageReferenceTrace trace;
+        if (path != null && Files.exists(path)) {
+            trace = PageReferenceTrace.load(path);
+        } else {
+            trace = record();
+            if (path != null) {
+                trace.save(path);
+            }
+        }
+        System.out.printf("%d page references%n", trace.size());
+
+        String[] names = { "clock", "lru", "2q", "lru-2", "arc" };
+        List<Supplier<EvictionPolicy>> policies = new ArrayList<>();
+        policies.add(ClockEvictionPolicy::new);
+        policies.add(LRUEvictionPolicy::new);
+        policies.add(TwoQueueEvictionPolicy::new);
+        policies.add(LRUKEvictionPolicy::new);
+        policies.add(ARCEvictionPolicy::new);
+
+        System.out.printf("%8s", "frames");
+        for (String name : names) {
+            System.out.printf(" %8s", name);
+        }
+        System.out.println();
+        for (int numFrames = 16; numFrames <= 512; numFrames *= 2) {
+            System.out.printf("%8d", numFrames);
+            for (Supplier<EvictionPolicy> policy : policies) {
+                System.out.printf(" %8.4f", trace.hitRatio(policy.get(), numFrames));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Runs the mixed workload on an in-memory database, recording its page references.
+     */
+    private static PageReferenceTrace record() {
+        Database db = new Database(null, RECORDING_BUFFER_SIZE, new DummyLockManager(),
+                                   new ClockEvictionPolicy(), false, StorageBackend.IN_MEMORY);
+        Schema schema = new Schema()
+                .add("id", Type.intType())
+                .add("amount", Type.intType())
+                .add("note", Type.stringType(100));
+        List<RecordId> rids = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(schema, "orders");
+            TransactionContext context = t.getTransactionContext();
+            for (int i = 0; i < NUM_RECORDS; ++i) {
+                rids.add(context.addRecord("orders", new Record(i, 0, "order " + i)));
+            }
+        }
+
+        PageReferenceTrace trace = new PageReferenceTrace();
+        db.getBufferManager().setReferenceTrace(trace);
+        Random random = new Random(186);
+        int numHot = NUM_RECORDS / 20;
+        for (int round = 0; round < NUM_ROUNDS; ++round) {
+            try (Transaction t = db.beginTransaction()) {
+                TransactionContext context = t.getTransactionContext();
+                for (int i = 0; i < LOOKUPS_PER_ROUND; ++i) {
+                    // 90% of the lookups are of the hot 5% of the records
+                    int index = random.nextInt(10) == 0 ? random.nextInt(NUM_RECORDS) : random.nextInt(numHot);
+                    Record record = context.getRecord("orders", rids.get(index));
+                    if (i % 10 == 0) {
+                        context.updateRecord("orders", rids.get(index),
+                                new Record(index, record.getValue(1).getInt() + 1, record.getValue(2).getString()));
+                    }
+                }
+                // report
+                BacktrackingIterator<Record> records = context.getRecordIterator("orders");
+                while (records.hasNext()) {
+                    records.next();
+                }
+            }
+        }
+        db.getBufferManager().setReferenceTrace(null);
+        db.close();
+        return trace;
+    }
+}
@@ -0,0 +1,96 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated on the Java heap per fetch of a page that is already
+ * loaded, as index lookups and record reads do several times per key: the page is fetched,
+ * either an int (as when reading a node's header) or a record's bytes are read from it,
+ * and it is unpinned. Not run as part of the test suite; run with
+ *
+ *     java edu.berkeley.cs186.database.memory.FetchAllocationBenchmark [fetches]
+ *
+ * from the test classpath (on a JVM whose ThreadMXBean supports allocation measurement,
+ * e.g. HotSpot). Fetches are made under the lock context of a table, as for a table with
+ * locking, and under a DummyLockContext, as for temporary and metadata tables.
+ */
+public class FetchAllocationBenchmark {
+    private static final int NUM_PAGES = 64;
+
+    public static void main(String[] args) {
+        int numFetches = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                                                        NUM_PAGES, new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[NUM_PAGES];
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            pageNums[i] = page.getPageNum();
+            page.unpin();
+        }
+
+        LockContext tableContext = new LockManager().databaseContext().childContext("table");
+        LockContext dummyContext = new DummyLockContext("table");
+
+        // warm up
+        for (boolean readInt : new boolean[] { true, false }) {
+            run(bufferManager, tableContext, pageNums, numFetches, readInt);
+            run(bufferManager, dummyContext, pageNums, numFetches, readInt);
+        }
+
+        System.out.printf("%16s %8s %12s%n", "context", "read", "bytes/fetch");
+        for (boolean readInt : new boolean[] { true, false }) {
+            String read = readInt ? "int" : "record";
+            System.out.printf("%16s %8s %12.1f%n", "LockContext", read,
+                              run(bufferManager, tableContext, pageNums, numFetches, readInt));
+            System.out.printf("%16s %8s %12.1f%n", "DummyLockContext", read,
+                              run(bufferManager, dummyContext, pageNums, numFetches, readInt));
+        }
+
+        bufferManager.close();
+        diskSpaceManager.close();
+    }
+
+    /**
+     * Fetches loaded pages round-robin, reading an int or 64 bytes from each.
+     * @return bytes allocated by the current thread per fetch
+     */
+    private static double run(BufferManager bufferManager, LockContext context, long[] pageNums,
+                              int numFetches, boolean readInt) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        byte[] record = new byte[64];
+        long sum = 0;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < numFetches; ++i) {
+            Page page = bufferManager.fetchPage(context, pageNums[i % pageNums.length]);
+            try {
+                Buffer buffer = page.getBuffer();
+                if (readInt) {
+                    sum += buffer.getInt(0);
+                } else {
+                    buffer.get(record);
+                    sum += record[0];
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        if (sum != 0) {
+            // keeps the reads from being optimized away
+            System.out.println(sum);
+        }
+        return (double) allocated / numFetches;
+    }
+}
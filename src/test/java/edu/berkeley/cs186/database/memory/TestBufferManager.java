@@ -9,10 +9,22 @@ import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -21,6 +33,9 @@ public class TestBufferManager {
     private DiskSpaceManager diskSpaceManager;
     private BufferManager bufferManager;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Before
     public void beforeEach() {
         diskSpaceManager = new MemoryDiskSpaceManager();
@@ -330,4 +345,651 @@ public class TestBufferManager {
         int partNum = diskSpaceManager.allocPart(1);
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0));
     }
+
+    @Test
+    public void testLoadPages() {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long firstPage = diskSpaceManager.allocPage(partNum);
+        for (int i = 1; i < 4; ++i) {
+            diskSpaceManager.allocPage(partNum);
+        }
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        System.arraycopy(expected, 0, page, BufferManager.RESERVED_SPACE, expected.length);
+        diskSpaceManager.writePage(firstPage + 2, page);
+
+        // loading stops at the first unallocated page
+        bufferManager.loadPages(firstPage, 6);
+        assertEquals(4, bufferManager.getNumIOs());
+
+        BufferFrame frame = bufferManager.fetchPageFrame(firstPage + 2);
+        byte[] actual = new byte[4];
+        frame.readBytes((short) 0, (short) 4, actual);
+        frame.unpin();
+        assertArrayEquals(expected, actual);
+
+        // already loaded pages are not read again
+        bufferManager.loadPages(firstPage + 1, 3);
+        for (int i = 0; i < 4; ++i) {
+            bufferManager.fetchPageFrame(firstPage + i).unpin();
+        }
+        assertEquals(4, bufferManager.getNumIOs());
+        bufferManager.close();
+    }
+
+    @Test
+    public void testPrefetch() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        System.arraycopy(expected, 0, page, BufferManager.RESERVED_SPACE, expected.length);
+        diskSpaceManager.writePage(pageNum, page);
+
+        bufferManager.prefetch(pageNum);
+        // prefetching an already loaded page does nothing
+        bufferManager.prefetch(pageNum);
+        // prefetching an unallocated page does nothing
+        bufferManager.prefetch(pageNum + 1);
+
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNum);
+        byte[] actual = new byte[4];
+        frame.readBytes((short) 0, (short) 4, actual);
+        frame.unpin();
+        assertArrayEquals(expected, actual);
+        assertEquals(1, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testPrefetchAllPinned() {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame[] frames = new BufferFrame[5];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+        }
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        long numIOs = bufferManager.getNumIOs();
+
+        // no frame to load into, so the hint is ignored
+        bufferManager.prefetch(pageNum);
+        for (BufferFrame frame : frames) {
+            frame.unpin();
+        }
+        assertEquals(numIOs, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testBufferRing() {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame hot1 = bufferManager.fetchNewPageFrame(partNum);
+        BufferFrame hot2 = bufferManager.fetchNewPageFrame(partNum);
+        hot1.unpin();
+        hot2.unpin();
+        long[] pageNums = new long[10];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+
+        // the scan only ever uses two frames, and leaves the other pages loaded
+        BufferRing ring = new BufferRing(2);
+        BufferFrame[] frames = new BufferFrame[pageNums.length];
+        for (int i = 0; i < pageNums.length; ++i) {
+            frames[i] = bufferManager.fetchPageFrame(pageNums[i], ring);
+            frames[i].unpin();
+        }
+        assertTrue(hot1.isValid());
+        assertTrue(hot2.isValid());
+        for (int i = 0; i < pageNums.length - 2; ++i) {
+            assertFalse(frames[i].isValid());
+        }
+        assertTrue(frames[8].isValid());
+        assertTrue(frames[9].isValid());
+
+        // a pinned ring frame is replaced by another frame of the buffer
+        BufferFrame pinned = bufferManager.fetchPageFrame(pageNums[8]);
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[0], ring);
+        frame.unpin();
+        assertTrue(pinned.isValid());
+        pinned.unpin();
+        assertTrue(frame.isValid());
+
+        // pages loaded ahead through the ring also reuse its frames
+        bufferManager.loadPages(pageNums[1], 1, ring);
+        bufferManager.loadPages(pageNums[2], 1, ring);
+        assertTrue(hot1.isValid());
+        assertTrue(hot2.isValid());
+        assertFalse(frames[9].isValid());
+        assertFalse(frame.isValid());
+    }
+
+    @Test
+    public void testResize() {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame[] frames = new BufferFrame[8];
+        for (int i = 0; i < 5; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].unpin();
+        }
+
+        // growing adds free frames, so nothing is evicted
+        assertEquals(8, bufferManager.resize(8));
+        for (int i = 5; i < 8; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].unpin();
+        }
+        for (BufferFrame frame : frames) {
+            assertTrue(frame.isValid());
+        }
+
+        // shrinking stops at the last pinned frame
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        frames[7].pin();
+        frames[7].writeBytes((short) 67, (short) 4, expected);
+        frames[7].unpin();
+        frames[6].pin();
+        assertEquals(7, bufferManager.resize(3));
+        assertTrue(frames[6].isValid());
+        assertFalse(frames[7].isValid());
+        frames[6].unpin();
+
+        assertEquals(3, bufferManager.resize(3));
+        assertEquals(3, bufferManager.getNumFrames());
+        for (int i = 0; i < 8; ++i) {
+            assertEquals(i < 3, frames[i].isValid());
+        }
+
+        // evicted pages were written back, and can be loaded into the remaining frames
+        BufferFrame frame = bufferManager.fetchPageFrame(frames[7].getPageNum());
+        byte[] actual = new byte[4];
+        frame.readBytes((short) 67, (short) 4, actual);
+        frame.unpin();
+        assertArrayEquals(expected, actual);
+        for (int i = 0; i < 8; ++i) {
+            bufferManager.fetchPageFrame(frames[i].getPageNum()).unpin();
+        }
+    }
+
+    @Test
+    public void testPolicyHistoryBeforeFirstEviction() {
+        bufferManager.close();
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                          new TwoQueueEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[5];
+        for (int i = 0; i < 5; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+
+        // pages dropped by shrinking the buffer are remembered, although nothing was evicted
+        assertEquals(3, bufferManager.resize(3));
+        assertEquals(Long.valueOf(2), bufferManager.getPoolStats().get(0).policyStats.get("a1out"));
+        assertEquals(5, bufferManager.resize(5));
+        bufferManager.fetchPageFrame(pageNums[4]).unpin();
+        assertEquals(Long.valueOf(1), bufferManager.getPoolStats().get(0).policyStats.get("am"));
+    }
+
+    @Test
+    public void testResizeReusesSlab() {
+        int partNum = diskSpaceManager.allocPart(1);
+        assertEquals(5, bufferManager.getNumAllocatedFrames());
+
+        // shrinking keeps the slab of the remaining frames
+        assertEquals(2, bufferManager.resize(2));
+        assertEquals(5, bufferManager.getNumAllocatedFrames());
+
+        // growing fills the slab's unused slots before allocating a new slab
+        assertEquals(4, bufferManager.resize(4));
+        assertEquals(5, bufferManager.getNumAllocatedFrames());
+        assertEquals(8, bufferManager.resize(8));
+        assertEquals(8, bufferManager.getNumAllocatedFrames());
+
+        // every frame is backed by its own slot
+        BufferFrame[] frames = new BufferFrame[8];
+        for (int i = 0; i < 8; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].writeBytes((short) 0, (short) 4, ByteBuffer.allocate(4).putInt(i).array());
+        }
+        for (int i = 0; i < 8; ++i) {
+            byte[] actual = new byte[4];
+            frames[i].readBytes((short) 0, (short) 4, actual);
+            assertEquals(i, ByteBuffer.wrap(actual).getInt());
+            frames[i].unpin();
+        }
+
+        // shrinking back to the first slab releases the new one
+        assertEquals(5, bufferManager.resize(5));
+        assertEquals(5, bufferManager.getNumAllocatedFrames());
+    }
+
+    @Test
+    public void testPools() {
+        int partNum = diskSpaceManager.allocPart(1);
+        int tempPartNum = diskSpaceManager.allocPart(2);
+        BufferManager tempPool = bufferManager.addPool("temp", 2, new LRUEvictionPolicy());
+        bufferManager.setPartitionPool(tempPartNum, "temp");
+        assertSame(tempPool, bufferManager.getPool("temp"));
+        assertSame(bufferManager, bufferManager.getPool(BufferManager.DEFAULT_POOL));
+        assertSame(tempPool, bufferManager.getPartitionPool(tempPartNum));
+        assertSame(bufferManager, tempPool.getPartitionPool(partNum));
+
+        BufferFrame[] frames = new BufferFrame[5];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].unpin();
+        }
+        // pages of the temporary partition only evict each other
+        BufferFrame[] tempFrames = new BufferFrame[4];
+        for (int i = 0; i < tempFrames.length; ++i) {
+            tempFrames[i] = bufferManager.fetchNewPageFrame(tempPartNum);
+            tempFrames[i].unpin();
+        }
+        for (BufferFrame frame : frames) {
+            assertTrue(frame.isValid());
+        }
+        for (int i = 0; i < tempFrames.length; ++i) {
+            assertEquals(i >= 2, tempFrames[i].isValid());
+        }
+        assertSame(tempFrames[3], tempPool.fetchPageFrame(tempFrames[3].getPageNum()));
+        tempFrames[3].unpin();
+
+        // counts cover every pool
+        assertEquals(5, bufferManager.getNumFrames());
+        assertEquals(2, tempPool.getNumFrames());
+        assertEquals(9, bufferManager.getStats().misses);
+        assertEquals(4, tempPool.getStats().misses);
+        assertEquals(2, tempPool.getStats().evictions);
+
+        // moving a partition to another pool evicts its pages from the previous pool
+        bufferManager.setPartitionPool(tempPartNum, BufferManager.DEFAULT_POOL);
+        assertFalse(tempFrames[2].isValid());
+        assertFalse(tempFrames[3].isValid());
+        BufferFrame frame = bufferManager.fetchPageFrame(tempFrames[3].getPageNum());
+        frame.unpin();
+        assertFalse(frames[0].isValid());
+
+        bufferManager.setPartitionPool(tempPartNum, "temp");
+        bufferManager.freePart(tempPartNum);
+        assertSame(bufferManager, bufferManager.getPartitionPool(tempPartNum));
+    }
+
+    @Test
+    public void testWarmUp() throws IOException {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        Path path = tempFolder.newFolder().toPath().resolve("buffer.pages");
+
+        // saved from most to least recently used
+        BufferManager before = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                                                 new LRUEvictionPolicy());
+        for (int i = 0; i < 5; ++i) {
+            BufferFrame frame = before.fetchPageFrame(pageNums[i]);
+            frame.readBytes((short) 0, (short) 1, new byte[1]);
+            frame.unpin();
+        }
+        BufferFrame frame = before.fetchPageFrame(pageNums[1]);
+        frame.readBytes((short) 0, (short) 1, new byte[1]);
+        frame.unpin();
+        assertArrayEquals(new long[] { pageNums[1], pageNums[4], pageNums[3], pageNums[2], pageNums[0] },
+                          before.getLoadedPageNums());
+        before.saveLoadedPages(path);
+        before.close();
+
+        // as many of the most recently used pages as fit are loaded again, skipping pages
+        // freed meanwhile
+        diskSpaceManager.freePage(pageNums[3]);
+        BufferManager after = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 3,
+                                                new LRUEvictionPolicy());
+        after.warmUp(path).join();
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[1], pageNums[4], pageNums[2])), loadedPages(after));
+        assertEquals(3, after.getStats().prefetches);
+        after.close();
+
+        // warming up never evicts pages
+        after = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 3,
+                                  new LRUEvictionPolicy());
+        for (int i = 5; i < 8; ++i) {
+            after.fetchPageFrame(pageNums[i]).unpin();
+        }
+        after.warmUp(path).join();
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[5], pageNums[6], pageNums[7])), loadedPages(after));
+        after.close();
+    }
+
+    private static Set<Long> loadedPages(BufferManager bufferManager) {
+        Set<Long> pageNums = new HashSet<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> pageNums.add(pageNum));
+        return pageNums;
+    }
+
+    @Test
+    public void testStats() {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[6];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+
+        // fill the buffer, dirtying the first page
+        for (int i = 0; i < 5; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+            if (i == 0) {
+                frame.writeBytes((short) 0, (short) 1, new byte[] { 1 });
+            }
+            frame.unpin();
+        }
+        bufferManager.fetchPageFrame(pageNums[1]).unpin();
+        bufferManager.evict(pageNums[0]);
+        // loaded into the frame freed by the eviction
+        bufferManager.fetchPageFrame(pageNums[5]).unpin();
+
+        BufferManager.Stats stats = bufferManager.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(6, stats.misses);
+        assertEquals(0, stats.prefetches);
+        assertEquals(1, stats.evictions);
+        assertEquals(1, stats.writebacks);
+        assertEquals(1.0 / 7, stats.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    public void testPoolStats() {
+        int partA = diskSpaceManager.allocPart(1);
+        int partB = diskSpaceManager.allocPart(2);
+        long[] pagesA = { diskSpaceManager.allocPage(partA), diskSpaceManager.allocPage(partA) };
+        long[] pagesB = { diskSpaceManager.allocPage(partB), diskSpaceManager.allocPage(partB),
+                          diskSpaceManager.allocPage(partB) };
+
+        for (long pageNum : pagesA) {
+            bufferManager.fetchPageFrame(pageNum).unpin();
+        }
+        for (long pageNum : pagesB) {
+            bufferManager.fetchPageFrame(pageNum).unpin();
+        }
+        BufferFrame frame = bufferManager.fetchPageFrame(pagesA[0]);
+        frame.writeBytes((short) 0, (short) 1, new byte[] { 1 });
+        frame.unpin();
+        frame = bufferManager.fetchPageFrame(pagesB[1]);
+        frame.writeBytes((short) 0, (short) 1, new byte[] { 1 });
+        frame.unpin();
+        // a dirty and a clean eviction
+        bufferManager.evict(pagesA[0]);
+        bufferManager.evict(pagesB[0]);
+
+        BufferManager.Stats stats = bufferManager.getStats();
+        assertEquals(2, stats.hits);
+        assertEquals(5, stats.misses);
+        assertEquals(2, stats.evictions);
+        assertEquals(1, stats.dirtyEvictions);
+        assertEquals(1, stats.getCleanEvictions());
+        assertEquals(7, stats.pins);
+        assertEquals(3, stats.loadedPages);
+        assertEquals(1, stats.dirtyPages);
+
+        assertEquals(1, bufferManager.getPoolStats().size());
+        BufferManager.PoolStats pool = bufferManager.getPoolStats().get(0);
+        assertEquals(BufferManager.DEFAULT_POOL, pool.name);
+        assertEquals(5, pool.numFrames);
+        assertEquals(3, pool.stats.loadedPages);
+        assertEquals(Long.valueOf(1), pool.policyStats.get("referenced"));
+        assertEquals(new HashSet<>(Arrays.asList(partA, partB)), pool.partitions.keySet());
+
+        BufferManager.Stats statsA = pool.partitions.get(partA);
+        assertEquals(1, statsA.hits);
+        assertEquals(2, statsA.misses);
+        assertEquals(1, statsA.evictions);
+        assertEquals(1, statsA.dirtyEvictions);
+        assertEquals(1, statsA.writebacks);
+        assertEquals(1, statsA.loadedPages);
+        assertEquals(0, statsA.dirtyPages);
+
+        BufferManager.Stats statsB = pool.partitions.get(partB);
+        assertEquals(1, statsB.hits);
+        assertEquals(3, statsB.misses);
+        assertEquals(1, statsB.evictions);
+        assertEquals(0, statsB.dirtyEvictions);
+        assertEquals(2, statsB.loadedPages);
+        assertEquals(1, statsB.dirtyPages);
+
+        // a freed partition's statistics start over, but still count for the pool
+        bufferManager.freePart(partA);
+        pool = bufferManager.getPoolStats().get(0);
+        assertEquals(Collections.singleton(partB), pool.partitions.keySet());
+        assertEquals(2, pool.stats.evictions);
+    }
+
+    @Test
+    public void testFlushAll() {
+        int[] partNums = { diskSpaceManager.allocPart(1), diskSpaceManager.allocPart(2),
+                           diskSpaceManager.allocPart(3) };
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+
+        // dirty pages of several partitions, one of them still pinned
+        BufferFrame[] frames = new BufferFrame[4];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNums[i % partNums.length]);
+            frames[i].writeBytes((short) 67, (short) 4, expected);
+        }
+        for (int i = 1; i < frames.length; ++i) {
+            frames[i].unpin();
+        }
+
+        bufferManager.flushAll();
+        BufferManager.Stats stats = bufferManager.getStats();
+        assertEquals(4, stats.writebacks);
+        assertEquals(0, stats.evictions);
+        assertEquals(4, stats.loadedPages);
+        assertEquals(0, stats.dirtyPages);
+        for (BufferFrame frame : frames) {
+            diskSpaceManager.readPage(frame.getPageNum(), actual);
+            assertArrayEquals(expected, Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                              71 + BufferManager.RESERVED_SPACE));
+        }
+
+        // nothing left to write back
+        bufferManager.flushAll();
+        assertEquals(4, bufferManager.getStats().writebacks);
+        frames[0].unpin();
+    }
+
+    @Test
+    public void testPageCleaner() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
+        frame1.writeBytes((short) 67, (short) 4, expected);
+        frame1.unpin();
+        BufferFrame frame2 = bufferManager.fetchNewPageFrame(partNum);
+        frame2.writeBytes((short) 67, (short) 4, expected);
+
+        // the cleaner writes back unpinned dirty pages, but leaves pinned ones alone
+        bufferManager.startPageCleaner(0.0, 0.0);
+        for (int i = 0; i < 100 && bufferManager.getStats().writebacks == 0; ++i) {
+            Thread.sleep(50);
+        }
+        bufferManager.stopPageCleaner();
+        assertEquals(1, bufferManager.getStats().writebacks);
+        diskSpaceManager.readPage(frame1.getPageNum(), actual);
+        assertArrayEquals(expected, Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                          71 + BufferManager.RESERVED_SPACE));
+        diskSpaceManager.readPage(frame2.getPageNum(), actual);
+        assertArrayEquals(new byte[4], Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
+                          71 + BufferManager.RESERVED_SPACE));
+        frame2.unpin();
+    }
+
+    @Test
+    public void testPageCleanerFailure() throws InterruptedException {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        DiskSpaceManager failingDisk = new MemoryDiskSpaceManager() {
+            @Override
+            public void writePage(long page, byte[] buf) {
+                if (failing.get()) {
+                    throw new PageException("disk full");
+                }
+                super.writePage(page, buf);
+            }
+        };
+        BufferManager manager = new BufferManager(failingDisk, new DummyRecoveryManager(), 5,
+                                                  new ClockEvictionPolicy());
+        try {
+            int partNum = failingDisk.allocPart(1);
+            BufferFrame frame = manager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { 42 });
+            frame.unpin();
+
+            // a failed write of an allocated page is recorded, and does not stop the cleaner
+            manager.startPageCleaner(0.0, 0.0);
+            for (int i = 0; i < 100 && manager.getPageCleanerFailure() == null; ++i) {
+                Thread.sleep(50);
+            }
+            assertTrue(manager.getPageCleanerFailure() instanceof PageException);
+            assertEquals(0, manager.getStats().writebacks);
+
+            // the page is written back once the disk recovers, and the failure is cleared
+            failing.set(false);
+            for (int i = 0; i < 100 && manager.getPageCleanerFailure() != null; ++i) {
+                Thread.sleep(50);
+            }
+            assertNull(manager.getPageCleanerFailure());
+            assertEquals(1, manager.getStats().writebacks);
+            manager.stopPageCleaner();
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentFetch() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[8];
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            page[BufferManager.RESERVED_SPACE] = (byte) i;
+            diskSpaceManager.writePage(pageNums[i], page);
+        }
+
+        // more pages than frames, so that fetches of loaded pages race with evictions
+        AtomicBoolean failed = new AtomicBoolean(false);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                byte[] buf = new byte[1];
+                try {
+                    for (int i = 0; i < 5000; ++i) {
+                        int j = random.nextInt(pageNums.length);
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[j]);
+                        try {
+                            frame.readBytes((short) 0, (short) 1, buf);
+                            if (frame.getPageNum() != pageNums[j] || buf[0] != j) {
+                                failed.set(true);
+                            }
+                        } finally {
+                            frame.unpin();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed.get());
+        BufferManager.Stats stats = bufferManager.getStats();
+        assertEquals(4 * 5000, stats.hits + stats.misses);
+    }
+
+    @Test
+    public void testSharedPin() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        frame.writeBytes((short) 0, (short) 1, new byte[] { 42 });
+        long pageNum = frame.getPageNum();
+
+        // another thread can use the page while this thread has it pinned
+        byte[] buf = new byte[1];
+        Thread reader = new Thread(() -> {
+            BufferFrame other = bufferManager.fetchPageFrame(pageNum);
+            other.readBytes((short) 0, (short) 1, buf);
+            other.unpin();
+        });
+        reader.start();
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertEquals(42, buf[0]);
+
+        // a pinned frame cannot be claimed for eviction, and a claimed frame cannot be pinned
+        assertFalse(frame.tryClaimForEviction());
+        frame.unpin();
+        assertTrue(frame.tryClaimForEviction());
+        assertFalse(frame.tryPin());
+    }
+
+    @Test
+    public void testFlushDuringEviction() throws InterruptedException {
+        // holds back the eviction's write until the flushing thread is waiting on it
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        DiskSpaceManager gated = new MemoryDiskSpaceManager() {
+            @Override
+            public void writePage(long page, byte[] buf) {
+                writing.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.writePage(page, buf);
+            }
+        };
+        BufferManager manager = new BufferManager(gated, new DummyRecoveryManager(), 5,
+                                                  new ClockEvictionPolicy());
+        try {
+            int partNum = gated.allocPart(1);
+            BufferFrame frame = manager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { 42 });
+            frame.unpin();
+            long pageNum = frame.getPageNum();
+
+            Thread evictor = new Thread(() -> manager.evict(pageNum));
+            evictor.start();
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            // the frame is claimed but not yet written, so flush must not return
+            Thread flusher = new Thread(frame::flush);
+            flusher.start();
+            flusher.join(200);
+            assertTrue(flusher.isAlive());
+
+            gate.countDown();
+            evictor.join(10000);
+            flusher.join(10000);
+            assertFalse(evictor.isAlive());
+            assertFalse(flusher.isAlive());
+
+            byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+            gated.readPage(pageNum, actual);
+            assertEquals(42, actual[BufferManager.RESERVED_SPACE]);
+        } finally {
+            gate.countDown();
+            manager.close();
+            gated.close();
+        }
+    }
 }
@@ -6,6 +6,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -32,7 +36,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return index;
         }
 
         @Override
@@ -133,6 +137,39 @@ public class TestEvictionPolicy {
         policy.cleanup(frames[3]);
     }
 
+    @Test
+    public void testLRUConcurrentHits() throws InterruptedException {
+        EvictionPolicy policy = new LRUEvictionPolicy();
+        for (BufferFrame frame : frames) {
+            policy.init(frame);
+        }
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            int seed = i;
+            threads[i] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int j = 0; j < 100000; ++j) {
+                    policy.hit(frames[random.nextInt(frames.length)]);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // hits may have been dropped, but the list is intact
+        assertEquals(new HashSet<>(Arrays.asList(frames)), new HashSet<>(policy.evictionOrder(frames)));
+        assertEquals(frames.length, policy.evictionOrder(frames).size());
+
+        // hits of a single thread are not dropped before they are applied
+        for (int i = frames.length - 1; i >= 0; --i) {
+            policy.hit(frames[i]);
+        }
+        assertEquals(Arrays.asList(frames[7], frames[6], frames[5], frames[4], frames[3], frames[2],
+                                   frames[1], frames[0]), policy.evictionOrder(frames));
+        assertEquals(frames[7], policy.evict(frames));
+    }
+
     @Test
     public void testClockPolicy() {
         EvictionPolicy policy = new ClockEvictionPolicy();
@@ -193,4 +230,188 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    // loads a page into a frame, as a fetch that misses does: the hits made while the fetch
+    // has the page pinned are correlated
+    private static void load(EvictionPolicy policy, BufferFrame frame) {
+        policy.init(frame);
+        frame.pin();
+        policy.hit(frame);
+        policy.hit(frame);
+        frame.unpin();
+    }
+
+    // references a loaded page, as a fetch that hits does
+    private static void fetch(EvictionPolicy policy, BufferFrame frame) {
+        frame.pin();
+        policy.hit(frame);
+        frame.unpin();
+    }
+
+    @Test
+    public void testTwoQueuePolicy() {
+        EvictionPolicy policy = new TwoQueueEvictionPolicy();
+        policy.setCapacity(4);
+        for (int i = 0; i < 4; ++i) {
+            load(policy, frames[i]);
+        }
+        // pages loaded once are evicted in loading order, even if hit
+        fetch(policy, frames[0]);
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+
+        // a page loaded again soon after its eviction is hot
+        BufferFrame reloaded = new TestFrame(0);
+        load(policy, reloaded);
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {reloaded, frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+
+        // a scan only displaces the other pages loaded once
+        load(policy, frames[4]);
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {reloaded, frames[4], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+        load(policy, frames[5]);
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {reloaded, frames[4], frames[5], frames[3]}));
+        policy.cleanup(frames[3]);
+        load(policy, frames[6]);
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {reloaded, frames[4], frames[5], frames[6]}));
+        policy.cleanup(frames[4]);
+
+        frames[5].pin();
+        assertEquals(frames[6], policy.evict(new BufferFrame[] {reloaded, placeholderFrames[1], frames[5], frames[6]}));
+        policy.cleanup(frames[6]);
+        // once few pages loaded once are left, hot pages are evicted
+        assertEquals(reloaded, policy.evict(new BufferFrame[] {reloaded, placeholderFrames[1], frames[5], placeholderFrames[3]}));
+        policy.cleanup(reloaded);
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[5], placeholderFrames[3]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[5].unpin();
+    }
+
+    @Test
+    public void testLRUKPolicy() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2);
+        policy.setCapacity(4);
+        for (int i = 0; i < 4; ++i) {
+            load(policy, frames[i]);
+        }
+        fetch(policy, frames[1]);
+        // hits on a page in a row are correlated, so only the first is a new reference
+        frames[2].pin();
+        policy.hit(frames[2]);
+        policy.hit(frames[2]);
+        policy.hit(frames[2]);
+        frames[2].unpin();
+
+        // pages referenced once are evicted first, least recently used first
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+        load(policy, frames[4]);
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[4], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[3]);
+
+        // the history of an evicted page is retained
+        BufferFrame reloaded = new TestFrame(0);
+        load(policy, reloaded);
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[4], frames[1], frames[2], reloaded}));
+        policy.cleanup(frames[4]);
+
+        // otherwise, the page with the oldest second most recent reference is evicted
+        load(policy, frames[5]);
+        frames[5].pin();
+        assertEquals(reloaded, policy.evict(new BufferFrame[] {frames[5], frames[1], frames[2], reloaded}));
+        policy.cleanup(reloaded);
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[5], frames[1], frames[2], placeholderFrames[3]}));
+        policy.cleanup(frames[1]);
+        frames[5].unpin();
+    }
+
+    @Test
+    public void testARCPolicy() {
+        EvictionPolicy policy = new ARCEvictionPolicy();
+        policy.setCapacity(4);
+        for (int i = 0; i < 4; ++i) {
+            load(policy, frames[i]);
+        }
+        // a second fetch moves a page to T2; hits while loading do not
+        fetch(policy, frames[1]);
+
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+        load(policy, frames[4]);
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[4], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+
+        // loading a page evicted from T1 grows T1's target size to 1
+        BufferFrame reloaded0 = new TestFrame(0);
+        load(policy, reloaded0);
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[4], frames[1], reloaded0, frames[3]}));
+        policy.cleanup(frames[3]);
+        load(policy, frames[5]);
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[4], frames[1], reloaded0, frames[5]}));
+        policy.cleanup(frames[4]);
+        load(policy, frames[6]);
+        assertEquals(frames[5], policy.evict(new BufferFrame[] {frames[6], frames[1], reloaded0, frames[5]}));
+        policy.cleanup(frames[5]);
+
+        // T1 is at its target size, so the scan stops displacing only its own pages
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[6], frames[1], reloaded0, placeholderFrames[3]}));
+        policy.cleanup(frames[1]);
+
+        // loading a page evicted from T2 shrinks T1's target size again
+        BufferFrame reloaded1 = new TestFrame(1);
+        load(policy, reloaded1);
+        assertEquals(frames[6], policy.evict(new BufferFrame[] {frames[6], reloaded1, reloaded0, placeholderFrames[3]}));
+        policy.cleanup(frames[6]);
+    }
+
+    @Test
+    public void testGhostHitsBeforeFirstEviction() {
+        // pages removed without being evicted, as when the buffer shrinks, are remembered
+        // even if nothing was evicted yet
+        EvictionPolicy twoQueue = new TwoQueueEvictionPolicy();
+        EvictionPolicy lruK = new LRUKEvictionPolicy(2);
+        EvictionPolicy arc = new ARCEvictionPolicy();
+        for (EvictionPolicy policy : Arrays.asList(twoQueue, lruK, arc)) {
+            policy.setCapacity(4);
+            for (int i = 0; i < 4; ++i) {
+                load(policy, frames[i]);
+            }
+            policy.cleanup(frames[0]);
+            load(policy, new TestFrame(0));
+        }
+        assertEquals(Long.valueOf(1), twoQueue.getStats(frames).get("am"));
+        assertEquals(Long.valueOf(3), lruK.getStats(frames).get("below k"));
+        assertEquals(Long.valueOf(1), arc.getStats(frames).get("t2"));
+    }
+
+    @Test
+    public void testTraceReplay() {
+        // three hot pages, each referenced twice between chunks of a scan that does not fit
+        // in the buffer
+        PageReferenceTrace trace = new PageReferenceTrace();
+        long scanPage = 1000;
+        for (int round = 0; round < 50; ++round) {
+            for (int i = 0; i < 2; ++i) {
+                for (long hot = 0; hot < 3; ++hot) {
+                    trace.record(hot);
+                }
+            }
+            for (int i = 0; i < 6; ++i) {
+                trace.record(scanPage++);
+            }
+        }
+        assertEquals(50 * 12, trace.size());
+
+        // LRU loses the hot pages to the scan every round
+        assertEquals(0.25, trace.hitRatio(new LRUEvictionPolicy(), 8), 1e-9);
+        assertTrue(trace.hitRatio(new TwoQueueEvictionPolicy(), 8) > 0.45);
+        assertTrue(trace.hitRatio(new LRUKEvictionPolicy(), 8) > 0.45);
+        assertTrue(trace.hitRatio(new ARCEvictionPolicy(), 8) > 0.45);
+    }
 }
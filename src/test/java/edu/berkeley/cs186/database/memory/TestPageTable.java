@@ -0,0 +1,97 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestPageTable {
+    @Test
+    public void testPutGetRemove() {
+        PageTable pageTable = new PageTable(4);
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, 3);
+        assertEquals(PageTable.NOT_FOUND, pageTable.get(pageNum));
+
+        pageTable.put(pageNum, 2);
+        assertEquals(2, pageTable.get(pageNum));
+        pageTable.put(pageNum, 5);
+        assertEquals(5, pageTable.get(pageNum));
+
+        // only removed if mapped to the given frame
+        assertFalse(pageTable.remove(pageNum, 2));
+        assertEquals(5, pageTable.get(pageNum));
+        assertTrue(pageTable.remove(pageNum, 5));
+        assertEquals(PageTable.NOT_FOUND, pageTable.get(pageNum));
+        assertFalse(pageTable.remove(pageNum, 5));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        // small table, so that it is resized and entries collide
+        PageTable pageTable = new PageTable(1);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(186);
+        for (int i = 0; i < 100000; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(random.nextInt(4), random.nextInt(500));
+            if (random.nextBoolean()) {
+                int frameIndex = random.nextInt(1000);
+                pageTable.put(pageNum, frameIndex);
+                expected.put(pageNum, frameIndex);
+            } else if (expected.containsKey(pageNum)) {
+                assertTrue(pageTable.remove(pageNum, expected.remove(pageNum)));
+            }
+        }
+        for (int partNum = 0; partNum < 4; ++partNum) {
+            for (int i = 0; i < 500; ++i) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(partNum, i);
+                assertEquals((int) expected.getOrDefault(pageNum, PageTable.NOT_FOUND), pageTable.get(pageNum));
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        PageTable pageTable = new PageTable(16);
+        // pages that are never removed, looked up while other pages come and go
+        for (int i = 0; i < 100; ++i) {
+            pageTable.put(DiskSpaceManager.getVirtualPageNum(1, i), i);
+        }
+        AtomicBoolean failed = new AtomicBoolean(false);
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; ++t) {
+            readers[t] = new Thread(() -> {
+                while (!done.get()) {
+                    for (int i = 0; i < 100; ++i) {
+                        if (pageTable.get(DiskSpaceManager.getVirtualPageNum(1, i)) != i) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        for (int round = 0; round < 200; ++round) {
+            for (int i = 0; i < 1000; ++i) {
+                pageTable.put(DiskSpaceManager.getVirtualPageNum(2, i), i);
+            }
+            for (int i = 0; i < 1000; ++i) {
+                pageTable.remove(DiskSpaceManager.getVirtualPageNum(2, i), i);
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertFalse(failed.get());
+    }
+}
@@ -81,7 +81,7 @@ class DummyTransaction extends Transaction {
     }
 
     @Override
-    public void createTable(Schema s, String tableName) {}
+    public void createTable(Schema s, String tableName, boolean compressed) {}
 
     @Override
     public void dropTable(String tableName) {}
@@ -1,6 +1,8 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
@@ -14,7 +16,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -77,6 +83,78 @@ public class TestLogManager {
         assertEquals(9999, logManager.getFlushedLSN());
     }
 
+    @Test
+    public void testConcurrentFlush() throws InterruptedException {
+        Thread[] threads = new Thread[8];
+        AtomicBoolean failed = new AtomicBoolean();
+        for (int i = 0; i < threads.length; ++i) {
+            int id = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 200; ++j) {
+                    long LSN = logManager.appendToLog(new MasterLogRecord(id * 1000 + j));
+                    logManager.flushToLSN(LSN);
+                    if (logManager.getFlushedLSN() < LSN) {
+                        failed.set(true);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed.get());
+
+        // every log page up to the flushed LSN was written back
+        long flushedPage = LogManager.getLSNPage(logManager.getFlushedLSN());
+        bufferManager.iterPageNums((pageNum, dirty) -> {
+            if (DiskSpaceManager.getPartNum(pageNum) == LogManager.LOG_PARTITION && pageNum <= flushedPage) {
+                assertFalse(dirty);
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentFlushWithEvictions() throws InterruptedException {
+        // a buffer so small that log pages are evicted while they are being flushed
+        DurableDiskSpaceManager diskSpaceManager = new DurableDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new ClockEvictionPolicy());
+        LogManager logManager = new LogManager(bufferManager);
+        try {
+            Thread[] threads = new Thread[8];
+            AtomicBoolean failed = new AtomicBoolean();
+            for (int i = 0; i < threads.length; ++i) {
+                int id = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < 200; ++j) {
+                            LogRecord record = new MasterLogRecord(id * 1000 + j);
+                            long LSN = logManager.appendToLog(record);
+                            logManager.flushToLSN(LSN);
+                            // the record must be durable once flushToLSN returns
+                            if (!record.equals(diskSpaceManager.readDurable(LSN).orElse(null))) {
+                                failed.set(true);
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertFalse(failed.get());
+        } finally {
+            logManager.close();
+            bufferManager.close();
+        }
+    }
+
     @Test
     public void testMultiPageScan() {
         for (int i = 0; i < 10000; ++i) {
@@ -130,4 +208,50 @@ public class TestLogManager {
         postIO = bufferManager.getNumIOs();
         assertEquals(0, postIO - prevIO);
     }
+
+    /**
+     * Memory disk space manager that keeps track of which writes would have survived a
+     * crash: writes that are not forced only become durable when the partition is synced.
+     */
+    private static class DurableDiskSpaceManager extends MemoryDiskSpaceManager {
+        private final Map<Long, byte[]> durable = new HashMap<>();
+        private final Map<Long, byte[]> unsynced = new HashMap<>();
+
+        @Override
+        public synchronized void writePage(long page, byte[] buf) {
+            super.writePage(page, buf);
+            unsynced.remove(page);
+            durable.put(page, buf.clone());
+        }
+
+        @Override
+        public synchronized void writePageWithoutSync(long page, java.nio.ByteBuffer buf) {
+            byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+            buf.duplicate().get(bytes);
+            super.writePage(page, bytes);
+            unsynced.put(page, bytes);
+        }
+
+        @Override
+        public synchronized void sync(int partNum) {
+            super.sync(partNum);
+            unsynced.entrySet().removeIf(e -> {
+                if (DiskSpaceManager.getPartNum(e.getKey()) != partNum) {
+                    return false;
+                }
+                durable.put(e.getKey(), e.getValue());
+                return true;
+            });
+        }
+
+        synchronized Optional<LogRecord> readDurable(long LSN) {
+            byte[] page = durable.get(LogManager.getLSNPage(LSN));
+            if (page == null) {
+                return Optional.empty();
+            }
+            Buffer buf = ByteBuffer.wrap(page);
+            buf.position(LogManager.getLSNIndex(LSN));
+            return LogRecord.fromBytes(buf);
+        }
+    }
 }
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
@@ -16,8 +17,10 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.*;
 
@@ -25,10 +28,30 @@ import static org.junit.Assert.*;
 public class TestPageDirectory {
     private BufferManager bufferManager;
     private PageDirectory pageDirectory;
+    // page numbers of the pages read from disk, in order
+    private List<Long> reads;
+    // page numbers of the pages read from disk asynchronously (prefetched), in order
+    private List<Long> asyncReads;
 
     @Before
     public void setup() {
-        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        reads = Collections.synchronizedList(new ArrayList<>());
+        asyncReads = Collections.synchronizedList(new ArrayList<>());
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public void readPage(long page, byte[] buf) {
+                reads.add(page);
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public CompletableFuture<Void> readPagesAsync(long firstPage, int count, byte[][] bufs) {
+                for (int i = 0; i < count; ++i) {
+                    asyncReads.add(firstPage + i);
+                }
+                return super.readPagesAsync(firstPage, count, bufs);
+            }
+        };
         diskSpaceManager.allocPart(0);
         this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
                 new ClockEvictionPolicy());
@@ -248,4 +271,64 @@ public class TestPageDirectory {
             assertEquals(page, p);
         }
     }
+
+    @Test
+    public void testIteratorReadAhead() {
+        createPageDirectory((short) 0);
+
+        // full data pages, one per request, allocated next to each other
+        int numPages = 100;
+        long[] pageNums = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            Page page = pageDirectory.getPageWithSpace(pageDirectory.getEffectivePageSize());
+            pageNums[i] = page.getPageNum();
+            page.unpin();
+            assertEquals(pageNums[0] + i, pageNums[i]);
+        }
+        bufferManager.evictAll();
+        reads.clear();
+        asyncReads.clear();
+        long prefetches = bufferManager.getStats().prefetches;
+
+        BacktrackingIterator<Page> iter = pageDirectory.iterator();
+        for (int i = 0; i < numPages; ++i) {
+            assertTrue(iter.hasNext());
+            Page page = iter.next();
+            page.unpin();
+            assertEquals(pageNums[i], page.getPageNum());
+            if (i == 40) {
+                iter.markPrev();
+            }
+            if (i == 32) {
+                // the first run is read on its own, the second run reads the third one ahead
+                assertEquals(32, asyncReads.size());
+                assertEquals(pageNums[64], (long) asyncReads.get(0));
+            }
+        }
+        assertFalse(iter.hasNext());
+
+        // every data page was read once: the first two runs synchronously, the rest ahead
+        List<Long> dataReads = new ArrayList<>(reads);
+        dataReads.removeIf(pageNum -> pageNum < pageNums[0]);
+        assertEquals(numPages, dataReads.size());
+        for (int i = 0; i < numPages; ++i) {
+            assertEquals(pageNums[i], (long) dataReads.get(i));
+        }
+        assertEquals(numPages - 64, asyncReads.size());
+        for (int i = 64; i < numPages; ++i) {
+            assertEquals(pageNums[i], (long) asyncReads.get(i - 64));
+        }
+        assertEquals(numPages, bufferManager.getStats().prefetches - prefetches);
+
+        // backtracking past the pages read ahead returns the same pages again
+        bufferManager.evictAll();
+        iter.reset();
+        for (int i = 40; i < numPages; ++i) {
+            assertTrue(iter.hasNext());
+            Page page = iter.next();
+            page.unpin();
+            assertEquals(pageNums[i], page.getPageNum());
+        }
+        assertFalse(iter.hasNext());
+    }
 }
@@ -8,8 +8,11 @@ import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.ARCEvictionPolicy;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.memory.EvictionPolicy;
+import edu.berkeley.cs186.database.memory.LRUKEvictionPolicy;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import org.junit.After;
@@ -20,8 +23,10 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -457,4 +462,68 @@ public class TestTable {
         checkSequentialRecords(1, numRecords, 2, iter);
         assertFalse(iter.hasNext());
     }
+
+    @Test
+    public void testScanKeepsHotPagesLRUK() {
+        checkScanKeepsHotPages(new LRUKEvictionPolicy());
+    }
+
+    @Test
+    public void testScanKeepsHotPagesARC() {
+        checkScanKeepsHotPages(new ARCEvictionPolicy());
+    }
+
+    /**
+     * Scans a table several times the size of the buffer after referencing a few hot pages
+     * twice, and checks that the hot pages are still loaded: a scan fetches each of its
+     * pages once per record, but those fetches are correlated, so they must not make the
+     * scanned pages look as hot as the hot pages.
+     */
+    private void checkScanKeepsHotPages(EvictionPolicy policy) {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(1);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16, policy);
+        try {
+            Page headerPage = bufferManager.fetchNewPage(new DummyLockContext(), 1);
+            PageDirectory pageDirectory;
+            try {
+                pageDirectory = new PageDirectory(bufferManager, 1, headerPage.getPageNum(), (short) 0,
+                                                  new DummyLockContext());
+            } finally {
+                headerPage.unpin();
+            }
+            Table table = new Table(TABLENAME, schema, pageDirectory, new DummyLockContext());
+            int numRecords = table.getNumRecordsPerPage() * 48;
+            for (int i = 0; i < numRecords; ++i) {
+                table.addRecord(createRecordWithAllTypes(i));
+            }
+
+            Set<Long> hotPages = new HashSet<>();
+            for (int i = 0; i < 3; ++i) {
+                Page page = bufferManager.fetchNewPage(new DummyLockContext(), 1);
+                hotPages.add(page.getPageNum());
+                page.unpin();
+            }
+            for (int round = 0; round < 2; ++round) {
+                for (long pageNum : hotPages) {
+                    Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+                    try {
+                        page.getBuffer().get();
+                    } finally {
+                        page.unpin();
+                    }
+                }
+            }
+
+            BacktrackingIterator<Record> iter = table.iterator();
+            checkSequentialRecords(0, numRecords, 1, iter);
+            assertFalse(iter.hasNext());
+
+            Set<Long> loaded = new HashSet<>();
+            bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+            assertTrue(loaded.containsAll(hotPages));
+        } finally {
+            bufferManager.close();
+        }
+    }
 }